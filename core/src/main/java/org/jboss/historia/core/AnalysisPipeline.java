@@ -0,0 +1,112 @@
+package org.jboss.historia.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Runs several analysis strategies on a single walk of the history.
+ * The strategies listen to the walk building the history index, which diffs each commit once, then
+ * write their reports in turn from the index and the commit table the walk left behind, so that N
+ * reports cost about one walk instead of N.
+ *
+ * @author alessio
+ *
+ */
+public class AnalysisPipeline {
+
+	private static final Logger LOGGER = Logger.getLogger(AnalysisPipeline.class);
+
+	public static final String UNTESTED = "untested";
+	public static final String CHURN = "churn";
+	public static final String AUTHORSHIP = "authorship";
+
+	private final List<AnalysisStrategy> strategies;
+
+	/**
+	 * @param strategies The strategies, each one run once
+	 */
+	public AnalysisPipeline(List<? extends AnalysisStrategy> strategies) {
+		this.strategies = List.copyOf(strategies);
+	}
+
+	/**
+	 * Create a strategy by name: one of the built-in strategies, {@value #UNTESTED} (also named by the
+	 * class name of {@link UntestedCommitDetectionStrategy}), {@value #CHURN} and {@value #AUTHORSHIP},
+	 * or one of a registered {@link AnalysisStrategy.Provider}.
+	 *
+	 * @param name The name of the strategy
+	 * @param pathFilter The path filter of the analysis, the files whose path contains it, or null
+	 * @return The strategy
+	 * @throws IllegalArgumentException if no strategy has that name
+	 */
+	public static AnalysisStrategy createStrategy(String name, String pathFilter) {
+		switch (name) {
+		case UNTESTED:
+			return new UntestedCommitDetectionStrategy(pathFilter);
+		case CHURN:
+			return new ChurnStrategy(pathFilter);
+		case AUTHORSHIP:
+			return new AuthorshipStrategy(pathFilter);
+		default:
+			if (UntestedCommitDetectionStrategy.class.getName().equals(name)) {
+				return new UntestedCommitDetectionStrategy(pathFilter);
+			}
+		}
+		for (AnalysisStrategy.Provider provider : ServiceLoader.load(AnalysisStrategy.Provider.class)) {
+			AnalysisStrategy strategy = provider.create(name, pathFilter);
+			if (strategy != null) {
+				return strategy;
+			}
+		}
+		throw new IllegalArgumentException("Unknown analysis strategy: " + name);
+	}
+
+	public List<AnalysisStrategy> getStrategies() {
+		return strategies;
+	}
+
+	/**
+	 * Walk the history of the clone once, with the path filter, the bounds and the other options it is
+	 * configured with, and write the report of each strategy.
+	 *
+	 * @param jgit The analyzed clone
+	 * @param outputs The writers of the reports, in the order of the strategies, flushed and not closed
+	 */
+	public void run(JGitUtils jgit, List<ResultWriter> outputs) throws Exception {
+		if (outputs.size() != strategies.size()) {
+			throw new IllegalArgumentException(strategies.size() + " strategies and " + outputs.size() + " outputs");
+		}
+		// the history index is built again, with the strategies listening to its walk
+		List<HistoryListener> listeners = jgit.getHistoryListeners();
+		jgit.setHistoryListeners(strategies);
+		try {
+			for (AnalysisStrategy strategy : strategies) {
+				strategy.start(jgit);
+			}
+			long startTime = System.currentTimeMillis();
+			jgit.getHistoryIndex();
+			LOGGER.debug("Walked the history for " + strategies.size() + " strategies in " + (System.currentTimeMillis() - startTime) + "ms");
+			for (int i = 0; i < strategies.size(); i++) {
+				AnalysisStrategy strategy = strategies.get(i);
+				startTime = System.currentTimeMillis();
+				strategy.report(jgit, outputs.get(i));
+				outputs.get(i).flush();
+				LOGGER.debug("Reported " + strategy.getName() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+			}
+		} finally {
+			jgit.setHistoryListeners(listeners);
+		}
+	}
+
+	/**
+	 * Run a single strategy.
+	 *
+	 * @see #run(JGitUtils, List)
+	 */
+	public static void run(AnalysisStrategy strategy, JGitUtils jgit, ResultWriter out) throws Exception {
+		new AnalysisPipeline(Collections.singletonList(strategy)).run(jgit, Collections.singletonList(out));
+	}
+}
@@ -0,0 +1,217 @@
+package org.jboss.historia.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+import org.jboss.logging.Logger;
+
+/**
+ * Persisted results of an untested commit analysis, keyed by the HEAD commit that was analyzed.
+ * For each file the state records the update counters, the commit time of the last tested update
+ * and the number of untested updates after it, which is all that is needed to merge the results
+ * of the commits added afterwards.
+ * The state also records the settings the results depend on, the path filter, the test paths and
+ * the pull request id rules, so that it is only resumed by an analysis with the same ones.
+ *
+ * @author alessio
+ *
+ */
+public class AnalysisState {
+
+	private static final Logger LOGGER = Logger.getLogger(AnalysisState.class);
+	private static final int MAGIC = 0x48535433; // HST3
+
+	public static class FileState {
+		private final long updates;
+		private final long untestedUpdates;
+		private final long lastTestedTime;
+		private final long updatesSinceLastTested;
+
+		public FileState(long updates, long untestedUpdates, long lastTestedTime, long updatesSinceLastTested) {
+			this.updates = updates;
+			this.untestedUpdates = untestedUpdates;
+			this.lastTestedTime = lastTestedTime;
+			this.updatesSinceLastTested = updatesSinceLastTested;
+		}
+
+		/**
+		 * @return The state of the given analysis result
+		 */
+		public static FileState of(FileUpdates fu) {
+			return new FileState(fu.getUpdates(), fu.getUntestedUpdates(), fu.getLastTestedTime(),
+					fu.getUpdatesSinceLastTested());
+		}
+
+		/**
+		 * Add this state to the given file updates.
+		 */
+		public void addTo(FileUpdates fu) {
+			fu.addPrevious(updates, untestedUpdates, lastTestedTime, updatesSinceLastTested);
+		}
+	}
+
+	private final ObjectId head;
+	private final String pathFilter;
+	private final String testPaths;
+	private final String pullRequestIdRules;
+	private final Map<String, FileState> files;
+
+	private AnalysisState(ObjectId head, String pathFilter, String testPaths, String pullRequestIdRules,
+			Map<String, FileState> files) {
+		this.head = head;
+		this.pathFilter = pathFilter;
+		this.testPaths = Objects.requireNonNull(testPaths);
+		this.pullRequestIdRules = Objects.requireNonNull(pullRequestIdRules);
+		this.files = files;
+	}
+
+	/**
+	 * Create the state of the given analysis results.
+	 *
+	 * @param head The analyzed HEAD commit
+	 * @param pathFilter The path filter of the analysis
+	 * @param testPaths The test paths of the analysis, see {@link TestPathFilter#toString()}
+	 * @param pullRequestIdRules The pull request id rules of the analysis, see {@link PullRequestIdRules#toString()}
+	 * @param results The analysis results
+	 */
+	public static AnalysisState of(AnyObjectId head, String pathFilter, String testPaths, String pullRequestIdRules,
+			Collection<FileUpdates> results) {
+		Map<String, FileState> files = new HashMap<>();
+		for (FileUpdates fu : results) {
+			files.put(fu.getPrefix() + fu.getPath(), FileState.of(fu));
+		}
+		return new AnalysisState(head.copy(), pathFilter, testPaths, pullRequestIdRules, files);
+	}
+
+	/**
+	 * Create the state of the given file states.
+	 *
+	 * @param head The analyzed HEAD commit
+	 * @param pathFilter The path filter of the analysis
+	 * @param testPaths The test paths of the analysis, see {@link TestPathFilter#toString()}
+	 * @param pullRequestIdRules The pull request id rules of the analysis, see {@link PullRequestIdRules#toString()}
+	 * @param files The states of the files, by full path, not copied
+	 */
+	public static AnalysisState of(AnyObjectId head, String pathFilter, String testPaths, String pullRequestIdRules,
+			Map<String, FileState> files) {
+		return new AnalysisState(head.copy(), pathFilter, testPaths, pullRequestIdRules, files);
+	}
+
+	public ObjectId getHead() {
+		return head;
+	}
+
+	public String getPathFilter() {
+		return pathFilter;
+	}
+
+	public String getTestPaths() {
+		return testPaths;
+	}
+
+	public String getPullRequestIdRules() {
+		return pullRequestIdRules;
+	}
+
+	/**
+	 * @return Whether this state is the result of an analysis with the given path filter, test paths
+	 *         and pull request id rules
+	 */
+	public boolean matches(String pathFilter, String testPaths, String pullRequestIdRules) {
+		return Objects.equals(this.pathFilter, pathFilter) && this.testPaths.equals(testPaths)
+				&& this.pullRequestIdRules.equals(pullRequestIdRules);
+	}
+
+	/**
+	 * @param path The full path of a file
+	 * @return The state of the file, or null if the file was not analyzed
+	 */
+	public FileState getFile(String path) {
+		return files.get(path);
+	}
+
+	public int size() {
+		return files.size();
+	}
+
+	/**
+	 * Read a state from a file.
+	 *
+	 * @param file The state file
+	 * @return The state, or null if the file does not exist or cannot be read
+	 */
+	public static AnalysisState read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				LOGGER.warn("Ignoring analysis state with unknown format: " + file);
+				return null;
+			}
+			ObjectId head = ObjectId.fromString(in.readUTF());
+			String pathFilter = in.readBoolean() ? in.readUTF() : null;
+			String testPaths = in.readUTF();
+			String pullRequestIdRules = in.readUTF();
+			int count = in.readInt();
+			Map<String, FileState> files = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long updates = in.readLong();
+				long untestedUpdates = in.readLong();
+				long lastTestedTime = in.readLong();
+				long updatesSinceLastTested = in.readLong();
+				files.put(path, new FileState(updates, untestedUpdates, lastTestedTime, updatesSinceLastTested));
+			}
+			return new AnalysisState(head, pathFilter, testPaths, pullRequestIdRules, files);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warn("Ignoring unreadable analysis state: " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write this state to a file, replacing any previous one.
+	 *
+	 * @param file The state file
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(head.name());
+			out.writeBoolean(pathFilter != null);
+			if (pathFilter != null) {
+				out.writeUTF(pathFilter);
+			}
+			out.writeUTF(testPaths);
+			out.writeUTF(pullRequestIdRules);
+			out.writeInt(files.size());
+			for (Map.Entry<String, FileState> entry : files.entrySet()) {
+				FileState fs = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(fs.updates);
+				out.writeLong(fs.untestedUpdates);
+				out.writeLong(fs.lastTestedTime);
+				out.writeLong(fs.updatesSinceLastTested);
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
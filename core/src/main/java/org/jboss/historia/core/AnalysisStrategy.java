@@ -0,0 +1,54 @@
+package org.jboss.historia.core;
+
+/**
+ * An analysis of the history of a repository, reported as rows of delimited values.
+ * The strategies run together by an {@link AnalysisPipeline} share a single walk of the history: each
+ * one receives the commits and the changed paths of the walk building the history index, as a
+ * {@link HistoryListener}, then writes its report from what it gathered, the history index and the
+ * commit table, none of which is built twice.
+ *
+ * A strategy instance gathers the events of one walk, it is run once.
+ *
+ * @author alessio
+ *
+ */
+public interface AnalysisStrategy extends HistoryListener {
+
+	/**
+	 * @return The name of the strategy, naming its report too
+	 */
+	String getName();
+
+	/**
+	 * Prepare for the walk, e.g. get the commit table to look up the commits of the events.
+	 *
+	 * @param jgit The analyzed clone, whose history index is about to be built
+	 */
+	default void start(JGitUtils jgit) throws Exception {
+	}
+
+	/**
+	 * Write the report, with a header row, once the history has been walked.
+	 *
+	 * @param jgit The analyzed clone, whose history index is built
+	 * @param out The writer of the report, flushed by the caller
+	 */
+	void report(JGitUtils jgit, ResultWriter out) throws Exception;
+
+	/**
+	 * Creates strategies by name. Besides the built-in strategies, the providers registered with the
+	 * {@link java.util.ServiceLoader}, in
+	 * {@code META-INF/services/org.jboss.historia.core.AnalysisStrategy$Provider}, are looked up.
+	 *
+	 * @see AnalysisPipeline#createStrategy(String, String)
+	 */
+	interface Provider {
+
+		/**
+		 * @param name The name of a strategy
+		 * @param pathFilter The path filter of the analysis, the files whose path contains it, or null
+		 * @return The strategy, or null if this provider has no strategy with that name
+		 */
+		AnalysisStrategy create(String name, String pathFilter);
+	}
+}
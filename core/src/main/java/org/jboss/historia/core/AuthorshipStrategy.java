@@ -0,0 +1,128 @@
+package org.jboss.historia.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Reports who changed each path: the number of distinct authors, identified by their email address,
+ * and the author of most of its changes, with their share. A rename changes both paths.
+ * As with the {@link ChurnStrategy}, the paths are reported as they were changed and renames are not followed.
+ *
+ * @author alessio
+ *
+ */
+public class AuthorshipStrategy implements AnalysisStrategy {
+
+	private static final List<String> HEADER = List.of("Module", "File", "# changes", "# authors", "Main author",
+			"# changes by main author", "# changes by main author %");
+
+	private static class PathAuthors {
+		// the authors of the changes and their number of changes, few for most paths
+		private int[] authors = new int[2];
+		private int[] changes = new int[2];
+		private int size;
+		private long total;
+		// the last commit changing the path, not to count a commit twice
+		private int lastOrdinal = CommitTable.NONE;
+
+		private void add(int author) {
+			total++;
+			for (int i = 0; i < size; i++) {
+				if (authors[i] == author) {
+					changes[i]++;
+					return;
+				}
+			}
+			if (size == authors.length) {
+				authors = Arrays.copyOf(authors, size * 2);
+				changes = Arrays.copyOf(changes, size * 2);
+			}
+			authors[size] = author;
+			changes[size++] = 1;
+		}
+	}
+
+	private final String pathFilter;
+	private final Map<String, PathAuthors> paths = new HashMap<>();
+	private final Map<String, Integer> authorIds = new HashMap<>();
+	private final List<String> authors = new ArrayList<>();
+	private int author;
+
+	/**
+	 * @param pathFilter The path filter of the analysis, the files whose path contains it, or null
+	 */
+	public AuthorshipStrategy(String pathFilter) {
+		this.pathFilter = pathFilter;
+	}
+
+	@Override
+	public String getName() {
+		return AnalysisPipeline.AUTHORSHIP;
+	}
+
+	@Override
+	public void commit(RevCommit commit, int ordinal) {
+		String email = commit.getAuthorIdent().getEmailAddress().toLowerCase(Locale.ROOT);
+		Integer id = authorIds.get(email);
+		if (id == null) {
+			id = authors.size();
+			authorIds.put(email, id);
+			authors.add(email);
+		}
+		author = id;
+	}
+
+	@Override
+	public void change(int ordinal, ChangeType type, String path, String oldPath) {
+		add(path, ordinal);
+		if (type == ChangeType.RENAME) {
+			add(oldPath, ordinal);
+		}
+	}
+
+	private void add(String path, int ordinal) {
+		PathAuthors pathAuthors = paths.computeIfAbsent(path, k -> new PathAuthors());
+		if (pathAuthors.lastOrdinal != ordinal) {
+			pathAuthors.lastOrdinal = ordinal;
+			pathAuthors.add(author);
+		}
+	}
+
+	@Override
+	public void report(JGitUtils jgit, ResultWriter out) throws IOException {
+		out.writeHeader(HEADER);
+		List<String> sorted = new ArrayList<>(paths.keySet());
+		sorted.sort(null);
+		for (String path : sorted) {
+			int pathFilterIndex = pathFilter == null ? 0 : path.indexOf(pathFilter);
+			if (pathFilterIndex < 0) {
+				// followed outside the path filter
+				continue;
+			}
+			PathAuthors pathAuthors = paths.get(path);
+			// the main author is the first one found with the most changes, i.e. the most recent one on a tie
+			int main = 0;
+			for (int i = 1; i < pathAuthors.size; i++) {
+				if (pathAuthors.changes[i] > pathAuthors.changes[main]) {
+					main = i;
+				}
+			}
+			out.writeField(path.substring(0, pathFilterIndex));
+			out.writeField(path.substring(pathFilterIndex));
+			out.writeNumber(pathAuthors.total);
+			out.writeNumber(pathAuthors.size);
+			out.writeField(authors.get(pathAuthors.authors[main]));
+			out.writeNumber(pathAuthors.changes[main]);
+			out.writeNumber(ResultWriter.percent(pathAuthors.changes[main], pathAuthors.total));
+			out.endRow();
+		}
+	}
+}
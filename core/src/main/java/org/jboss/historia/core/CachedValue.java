@@ -0,0 +1,67 @@
+package org.jboss.historia.core;
+
+/**
+ * A cached value, loaded on first request and then shared.
+ * Concurrent callers never load the value twice: the first one loads it while the
+ * others wait for the result.
+ * A failed load is not cached, so the next request tries again.
+ * The loader is either given once, or by each request, so that it can use resources of the
+ * calling thread without the cache holding on to them.
+ *
+ * @author alessio
+ *
+ * @param <T> The type of the value
+ */
+final class CachedValue<T> {
+
+	interface Loader<T> {
+		T load() throws Exception;
+	}
+
+	private final Loader<T> loader;
+	private volatile T value;
+
+	CachedValue(Loader<T> loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * Create a value loaded by the loader of the first request, see {@link #get(Loader)}.
+	 */
+	CachedValue() {
+		this(null);
+	}
+
+	T get() throws Exception {
+		return get(loader);
+	}
+
+	/**
+	 * @param loader Loads the value, if it has not been loaded yet, on the calling thread
+	 * @return The value
+	 */
+	T get(Loader<T> loader) throws Exception {
+		T v = value;
+		if (v == null) {
+			synchronized (this) {
+				v = value;
+				if (v == null) {
+					v = loader.load();
+					value = v;
+				}
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * @return The value, or null if it has not been loaded yet
+	 */
+	T peek() {
+		return value;
+	}
+
+	synchronized void clear() {
+		value = null;
+	}
+}
@@ -0,0 +1,111 @@
+package org.jboss.historia.core;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Reports how often each path was changed: the number of commits changing it, how many of them belong
+ * to a pull request, and the times of its first and last changes. A rename changes both paths.
+ * Unlike the untested commit analysis, the paths are reported as they were changed, deleted files
+ * included, and renames are not followed.
+ *
+ * @author alessio
+ *
+ */
+public class ChurnStrategy implements AnalysisStrategy {
+
+	private static final List<String> HEADER = List.of("Module", "File", "# changes", "# changes in pull requests",
+			"First change", "Last change");
+
+	private static class PathChurn {
+		private long changes;
+		private long pullRequestChanges;
+		private long firstTime;
+		private long lastTime;
+		// the last commit changing the path, not to count a commit twice
+		private int lastOrdinal = CommitTable.NONE;
+	}
+
+	private final String pathFilter;
+	private final Map<String, PathChurn> paths = new HashMap<>();
+	private CommitTable table;
+	private long commitTime;
+
+	/**
+	 * @param pathFilter The path filter of the analysis, the files whose path contains it, or null
+	 */
+	public ChurnStrategy(String pathFilter) {
+		this.pathFilter = pathFilter;
+	}
+
+	@Override
+	public String getName() {
+		return AnalysisPipeline.CHURN;
+	}
+
+	@Override
+	public void start(JGitUtils jgit) throws Exception {
+		table = jgit.getCommitTable();
+	}
+
+	@Override
+	public void commit(RevCommit commit, int ordinal) {
+		commitTime = commit.getCommitTime();
+	}
+
+	@Override
+	public void change(int ordinal, ChangeType type, String path, String oldPath) {
+		add(path, ordinal);
+		if (type == ChangeType.RENAME) {
+			add(oldPath, ordinal);
+		}
+	}
+
+	private void add(String path, int ordinal) {
+		PathChurn churn = paths.computeIfAbsent(path, k -> new PathChurn());
+		if (churn.lastOrdinal == ordinal) {
+			return;
+		}
+		churn.lastOrdinal = ordinal;
+		churn.changes++;
+		if (table.getCommitPullRequestCount(ordinal) > 0) {
+			churn.pullRequestChanges++;
+		}
+		// the commits come newest first, but the commit times do not always
+		if (churn.changes == 1 || commitTime < churn.firstTime) {
+			churn.firstTime = commitTime;
+		}
+		if (churn.changes == 1 || commitTime > churn.lastTime) {
+			churn.lastTime = commitTime;
+		}
+	}
+
+	@Override
+	public void report(JGitUtils jgit, ResultWriter out) throws IOException {
+		out.writeHeader(HEADER);
+		List<String> sorted = new ArrayList<>(paths.keySet());
+		sorted.sort(null);
+		for (String path : sorted) {
+			int pathFilterIndex = pathFilter == null ? 0 : path.indexOf(pathFilter);
+			if (pathFilterIndex < 0) {
+				// followed outside the path filter
+				continue;
+			}
+			PathChurn churn = paths.get(path);
+			out.writeField(path.substring(0, pathFilterIndex));
+			out.writeField(path.substring(pathFilterIndex));
+			out.writeNumber(churn.changes);
+			out.writeNumber(churn.pullRequestChanges);
+			out.writeField(Instant.ofEpochSecond(churn.firstTime).toString());
+			out.writeField(Instant.ofEpochSecond(churn.lastTime).toString());
+			out.endRow();
+		}
+	}
+}
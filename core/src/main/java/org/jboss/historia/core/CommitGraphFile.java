@@ -0,0 +1,141 @@
+package org.jboss.historia.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jboss.logging.Logger;
+
+/**
+ * The commit-graph file of a local clone, with changed-path Bloom filters, written with JGit's
+ * commit-graph writer and read back by the walks of the analysis.
+ * Neither the clone configuration nor the process wide JGit configuration are changed: the walks
+ * read the graph, Bloom filters included, through the object reader returned by
+ * {@link #newReader(Repository, CommitGraph)}.
+ *
+ * @author alessio
+ *
+ */
+final class CommitGraphFile {
+
+	private static final Logger LOGGER = Logger.getLogger(CommitGraphFile.class);
+
+	private CommitGraphFile() {
+	}
+
+	/**
+	 * @return The commit-graph file of the repository, or null if the repository is not on disk
+	 */
+	static File getFile(Repository repo) {
+		if (!(repo instanceof FileRepository)) {
+			return null;
+		}
+		return new File(((FileRepository) repo).getObjectsDirectory(), "info/commit-graph");
+	}
+
+	/**
+	 * Read the commit-graph of the repository, along with its changed-path Bloom filters.
+	 *
+	 * @return The commit-graph, or null if there is none or it cannot be read
+	 */
+	static CommitGraph read(Repository repo) {
+		File file = getFile(repo);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return CommitGraphLoader.read(in, true);
+		} catch (IOException e) {
+			LOGGER.warn("Ignoring unreadable commit-graph: " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the commit-graph of the commits reachable from the given ones, with changed-path Bloom
+	 * filters, replacing any previous one. Nothing else in the repository is changed.
+	 *
+	 * @param tips The commits to start from, the ids of other objects are peeled or ignored
+	 * @return false if the repository is not on disk
+	 */
+	static boolean write(Repository repo, Collection<? extends AnyObjectId> tips) throws IOException {
+		File file = getFile(repo);
+		if (file == null) {
+			return false;
+		}
+		file.getParentFile().mkdirs();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (RevWalk walk = new RevWalk(repo)) {
+			Set<ObjectId> commits = new HashSet<>();
+			for (AnyObjectId tip : tips) {
+				RevObject object = walk.peel(walk.parseAny(tip));
+				if (object instanceof RevCommit) {
+					commits.add(object.copy());
+				}
+			}
+			GraphCommits graphCommits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, commits, walk);
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+				new CommitGraphWriter(graphCommits, true).write(NullProgressMonitor.INSTANCE, out);
+			}
+		} catch (IOException | RuntimeException e) {
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	/**
+	 * Create a reader of the objects of the repository whose walks use the given commit-graph: the
+	 * commits are parsed from the graph and the walks limited to some paths read its Bloom filters.
+	 *
+	 * @param graph The commit-graph of the repository, or null
+	 * @return The reader, to be closed by the caller
+	 */
+	static ObjectReader newReader(Repository repo, CommitGraph graph) {
+		ObjectReader reader = repo.newObjectReader();
+		if (graph == null) {
+			return reader;
+		}
+		return new ObjectReader.Filter() {
+			@Override
+			protected ObjectReader delegate() {
+				return reader;
+			}
+
+			@Override
+			public Optional<CommitGraph> getCommitGraph() {
+				return Optional.of(graph);
+			}
+
+			@Override
+			public void close() {
+				reader.close();
+			}
+		};
+	}
+}
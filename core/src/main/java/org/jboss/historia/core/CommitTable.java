@@ -0,0 +1,573 @@
+package org.jboss.historia.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.jboss.logging.Logger;
+
+/**
+ * Compact in-memory table of the commits of a repository.
+ * Each commit gets an int ordinal and only the fields needed by the analysis are kept, in primitive
+ * arrays indexed by that ordinal: the commit id, the commit time, the parents and the pull requests
+ * including the commit, whether merged, squashed or rebased. No RevCommit (nor commit message) is retained once the table is built.
+ *
+ * The table is immutable and can be shared among threads.
+ *
+ * @author alessio
+ *
+ */
+public class CommitTable {
+
+	private static final Logger LOGGER = Logger.getLogger(CommitTable.class);
+
+	/**
+	 * Ordinal of a commit (or pull request) that is not in the table.
+	 */
+	public static final int NONE = -1;
+
+	private static final int[] EMPTY = new int[0];
+
+	private int size;
+	// 5 ints per commit, as in ObjectId
+	private int[] ids = new int[5 * 1024];
+	private int[] commitTimes = new int[1024];
+	// open addressing hash table of ordinal + 1, 0 means empty
+	private int[] slots = new int[2048];
+	// parents of commit i are parents[parentStart[i]] ... parents[parentStart[i + 1] - 1], NONE when outside the table
+	private int[] parentStart;
+	private int[] parents;
+	// pull requests, by ordinal
+	private String[] prIds;
+	private Map<String, Integer> prOrdinals;
+	private int[] prCommitStart;
+	private int[] prCommits;
+	// pull requests of commit i are commitPrs[commitPrStart[i]] ... commitPrs[commitPrStart[i + 1] - 1]
+	private int[] commitPrStart;
+	private int[] commitPrs;
+
+	private CommitTable() {
+	}
+
+	/**
+	 * Build the table walking the history of the repository once from the given commits.
+	 * The pull requests are identified by their merge commits: a pull request includes the merge
+	 * commit and the commits it brought in, reachable from its second parent but not from the first one.
+	 * The pull requests squashed or rebased without a merge commit are identified by the commits whose
+	 * message carries their id, e.g. "Fix the parser (#123)" or a trailer: a pull request includes a run
+	 * of consecutive commits with the same id, following the first parents. As with merges, the oldest
+	 * run wins when an id is reused, e.g. by a backport, and the id of a merge wins over any run. A commit
+	 * brought in by a merge belongs to the pull request of the merge only, whatever the id in its message.
+	 *
+	 * The memberships of all the pull requests are computed with a single depth first traversal
+	 * of the table, visiting the first parent of each commit before the others, from each start commit
+	 * in turn. When the second parent of a merge is visited, all the history of the first parent has
+	 * been visited already, so the commits reached for the first time are those brought in by the merge.
+	 * Each commit is visited once, whatever the number of merges. Unlike a reachability walk per merge,
+	 * a commit already brought in through a previous start commit, or an outer merge, is not counted
+	 * again for a nested merge.
+	 *
+	 * @param repo The repository
+	 * @param starts The commits to start the walk from, usually HEAD and then all refs
+	 * @param boundary The commit whose history is excluded from the table, or null to include the whole history
+	 * @param prIdExtractor Extracts the pull request id from a commit (whose message is available), null if none
+	 * @return The commit table
+	 */
+	public static CommitTable build(Repository repo, Collection<? extends AnyObjectId> starts, AnyObjectId boundary,
+			Function<RevCommit, String> prIdExtractor) throws IOException {
+		return build(repo, starts, boundary == null ? Collections.emptyList() : Collections.singleton(boundary),
+				RevFilter.ALL, prIdExtractor);
+	}
+
+	/**
+	 * Build the table walking the history of the repository once from the given commits, excluding
+	 * the history of the boundaries and the commits the filter does not include; a filter stopping the
+	 * walk, e.g. {@link org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter#after(long)}, spares walking
+	 * the older history. The parents missing from the table are not linked.
+	 *
+	 * @param repo The repository
+	 * @param starts The commits to start the walk from, usually HEAD and then all refs
+	 * @param boundaries The commits whose history is excluded from the table
+	 * @param filter The filter of the commits, {@link RevFilter#ALL} to include all of them
+	 * @param prIdExtractor Extracts the pull request id from a commit (whose message is available), null if none
+	 * @return The commit table
+	 */
+	public static CommitTable build(Repository repo, Collection<? extends AnyObjectId> starts,
+			Collection<? extends AnyObjectId> boundaries, RevFilter filter, Function<RevCommit, String> prIdExtractor)
+			throws IOException {
+		return build(repo, starts, boundaries, filter, false, prIdExtractor);
+	}
+
+	/**
+	 * Build the table walking the history of the repository once from the given commits, optionally
+	 * following only the first parent of the merge commits. Along the first parents, the side branches
+	 * are not walked: the parents outside the table are not linked, so that a pull request only
+	 * includes its merge commit, whose changes against the first parent are those of the whole pull request.
+	 *
+	 * @param repo The repository
+	 * @param starts The commits to start the walk from
+	 * @param boundaries The commits whose history is excluded from the table
+	 * @param filter The filter of the commits, {@link RevFilter#ALL} to include all of them
+	 * @param firstParent Whether to only follow the first parent of the merge commits
+	 * @param prIdExtractor Extracts the pull request id from a commit (whose message is available), null if none
+	 * @return The commit table
+	 */
+	public static CommitTable build(Repository repo, Collection<? extends AnyObjectId> starts,
+			Collection<? extends AnyObjectId> boundaries, RevFilter filter, boolean firstParent,
+			Function<RevCommit, String> prIdExtractor) throws IOException {
+		return build(repo, starts, boundaries, filter, firstParent, prIdExtractor, () -> false);
+	}
+
+	/**
+	 * Build the table as {@link #build(Repository, Collection, Collection, RevFilter, boolean, Function)}
+	 * does, checking before each commit whether the build has been cancelled.
+	 *
+	 * @param cancelled Tells whether the build has been cancelled, called on the calling thread
+	 * @throws CancellationException if the build has been cancelled
+	 */
+	public static CommitTable build(Repository repo, Collection<? extends AnyObjectId> starts,
+			Collection<? extends AnyObjectId> boundaries, RevFilter filter, boolean firstParent,
+			Function<RevCommit, String> prIdExtractor, BooleanSupplier cancelled) throws IOException {
+		CommitTable table = new CommitTable();
+		long startTime = System.currentTimeMillis();
+		try (RevWalk walk = new RevWalk(repo)) {
+			// the messages are read as the commits are parsed, then dropped
+			walk.setRetainBody(prIdExtractor != null);
+			walk.setFirstParent(firstParent);
+			List<RevCommit> roots = new ArrayList<>();
+			for (AnyObjectId start : starts) {
+				RevObject o;
+				try {
+					o = walk.peel(walk.parseAny(start));
+				} catch (MissingObjectException e) {
+					continue;
+				}
+				if (o instanceof RevCommit) {
+					walk.markStart((RevCommit) o);
+					roots.add((RevCommit) o);
+				}
+			}
+			for (AnyObjectId boundary : boundaries) {
+				walk.markUninteresting(walk.parseCommit(boundary));
+			}
+			walk.setRevFilter(filter);
+			int parentCount = 0;
+			// merge commit ordinal of each PR; as before, the oldest merge wins when a PR id is reused
+			Map<String, Integer> merges = new LinkedHashMap<>();
+			// PR id of each other commit, if any
+			String[] commitPrIds = new String[prIdExtractor == null ? 0 : 1024];
+			for (RevCommit commit : walk) {
+				if (cancelled.getAsBoolean()) {
+					throw new CancellationException("Commit table build cancelled");
+				}
+				int ordinal = table.add(commit, commit.getCommitTime());
+				parentCount += commit.getParentCount();
+				if (prIdExtractor != null) {
+					String prId = prIdExtractor.apply(commit);
+					commit.disposeBody();
+					if (prId == null) {
+						continue;
+					}
+					if (commit.getParentCount() > 1) {
+						merges.put(prId, ordinal);
+					} else {
+						if (ordinal == commitPrIds.length) {
+							commitPrIds = Arrays.copyOf(commitPrIds, ordinal * 2);
+						}
+						commitPrIds[ordinal] = prId;
+					}
+				}
+			}
+			table.trim();
+			table.linkParents(walk, parentCount);
+			table.linkPullRequests(roots, merges, commitPrIds);
+		}
+		LOGGER.debug("Built commit table of " + table.size + " commits and " + table.prIds.length + " pull requests in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		return table;
+	}
+
+	private int add(AnyObjectId id, int commitTime) {
+		if (size == commitTimes.length) {
+			commitTimes = Arrays.copyOf(commitTimes, size * 2);
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		}
+		if (2 * (size + 1) > slots.length) {
+			rehash(slots.length * 2);
+		}
+		int ordinal = size++;
+		int o = 5 * ordinal;
+		for (int i = 0; i < 5; i++) {
+			ids[o + i] = word(id, i);
+		}
+		commitTimes[ordinal] = commitTime;
+		insert(ordinal);
+		return ordinal;
+	}
+
+	private static int word(AnyObjectId id, int i) {
+		int b = 4 * i;
+		return (id.getByte(b) & 0xff) << 24 | (id.getByte(b + 1) & 0xff) << 16 | (id.getByte(b + 2) & 0xff) << 8
+				| (id.getByte(b + 3) & 0xff);
+	}
+
+	private void insert(int ordinal) {
+		int mask = slots.length - 1;
+		// the second word of an id is as random as the first one
+		int slot = ids[5 * ordinal + 1] & mask;
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = ordinal + 1;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+	}
+
+	private void trim() {
+		ids = Arrays.copyOf(ids, 5 * size);
+		commitTimes = Arrays.copyOf(commitTimes, size);
+	}
+
+	private void linkParents(RevWalk walk, int parentCount) throws IOException {
+		parentStart = new int[size + 1];
+		parents = new int[parentCount];
+		int p = 0;
+		for (int i = 0; i < size; i++) {
+			parentStart[i] = p;
+			RevCommit commit = walk.lookupCommit(getId(i));
+			for (RevCommit parent : commit.getParents()) {
+				parents[p++] = getOrdinal(parent);
+			}
+		}
+		parentStart[size] = p;
+	}
+
+	/**
+	 * Find the runs of consecutive commits, following the first parents, carrying the same PR id.
+	 *
+	 * @param commitPrIds The PR id of each commit other than a merge, by ordinal, null if none
+	 * @param merges The merge commit ordinal of each PR, whose ids are not taken by runs
+	 * @return The commit ordinals of each run, newest first, the oldest run of each PR id last
+	 */
+	private Map<String, int[]> findRuns(String[] commitPrIds, Map<String, Integer> merges) {
+		int n = Math.min(commitPrIds.length, size);
+		// whether the commit continues the run of a child, so that it does not start a run
+		boolean[] continued = new boolean[n];
+		for (int c = 0; c < n; c++) {
+			int p = commitPrIds[c] == null || getParentCount(c) == 0 ? NONE : getParent(c, 0);
+			if (p != NONE && p < n && commitPrIds[c].equals(commitPrIds[p])) {
+				continued[p] = true;
+			}
+		}
+		Map<String, int[]> runs = new LinkedHashMap<>();
+		boolean[] claimed = new boolean[n];
+		int[] run = new int[16];
+		for (int c = 0; c < n; c++) {
+			String prId = commitPrIds[c];
+			if (prId == null || continued[c] || merges.containsKey(prId)) {
+				continue;
+			}
+			int length = 0;
+			for (int r = c; r != NONE && r < n && !claimed[r] && prId.equals(commitPrIds[r]);
+					r = getParentCount(r) == 0 ? NONE : getParent(r, 0)) {
+				claimed[r] = true;
+				if (length == run.length) {
+					run = Arrays.copyOf(run, length * 2);
+				}
+				run[length++] = r;
+			}
+			// ordinals follow the walk, newest first: the last run of an id is the oldest one
+			runs.remove(prId);
+			runs.put(prId, Arrays.copyOf(run, length));
+		}
+		return runs;
+	}
+
+	/**
+	 * Link the commits and the pull requests: first the merged ones, found by the traversal, then the
+	 * squashed and rebased ones, made of the runs of the commits no merge brought in.
+	 *
+	 * @param commitPrIds The PR id of each commit other than a merge, by ordinal, null if none
+	 */
+	private void linkPullRequests(List<RevCommit> roots, Map<String, Integer> merges, String[] commitPrIds) {
+		prOrdinals = new HashMap<>();
+		int[] mergePr = new int[size];
+		Arrays.fill(mergePr, NONE);
+		int prCount = 0;
+		for (Map.Entry<String, Integer> merge : merges.entrySet()) {
+			prOrdinals.put(merge.getKey(), prCount);
+			mergePr[merge.getValue()] = prCount++;
+		}
+
+		// (commit, PR) pairs, as the commits are visited
+		int[] pairs = new int[Math.max(16, merges.size() * 8)];
+		int m = 0;
+		boolean[] visited = new boolean[size];
+		// traversal stack of commits, with the index of the next parent to visit
+		int[] stack = new int[64];
+		int[] next = new int[64];
+		// PRs whose second parent history is being visited, with the stack depth of their merge
+		int[] active = new int[16];
+		int[] activeDepth = new int[16];
+		int activeCount = 0;
+		for (RevCommit root : roots) {
+			int r = getOrdinal(root);
+			if (r == NONE || visited[r]) {
+				continue;
+			}
+			visited[r] = true;
+			stack[0] = r;
+			next[0] = 0;
+			int depth = 1;
+			while (depth > 0) {
+				int c = stack[depth - 1];
+				int i = next[depth - 1]++;
+				if (activeCount > 0 && activeDepth[activeCount - 1] == depth && i == 2) {
+					// as before, only the second parent of an octopus merge makes the PR
+					activeCount--;
+				}
+				if (i == getParentCount(c)) {
+					depth--;
+					continue;
+				}
+				if (i == 1 && mergePr[c] != NONE) {
+					if (activeCount == active.length) {
+						active = Arrays.copyOf(active, activeCount * 2);
+						activeDepth = Arrays.copyOf(activeDepth, activeCount * 2);
+					}
+					active[activeCount] = mergePr[c];
+					activeDepth[activeCount++] = depth;
+					if (m + 2 > pairs.length) {
+						pairs = Arrays.copyOf(pairs, pairs.length * 2);
+					}
+					pairs[m++] = c;
+					pairs[m++] = mergePr[c];
+				}
+				int p = getParent(c, i);
+				if (p == NONE || visited[p]) {
+					continue;
+				}
+				visited[p] = true;
+				if (m + 2 * activeCount > pairs.length) {
+					pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, m + 2 * activeCount));
+				}
+				for (int a = 0; a < activeCount; a++) {
+					pairs[m++] = p;
+					pairs[m++] = active[a];
+				}
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth * 2);
+					next = Arrays.copyOf(next, depth * 2);
+				}
+				stack[depth] = p;
+				next[depth++] = 0;
+			}
+			activeCount = 0;
+		}
+
+		// the squashed and rebased PRs, not found by the traversal; a commit brought in by a merge only
+		// belongs to the PR of the merge, whatever its message, e.g. "Fix NPE (#45)" on the branch of #50
+		for (int k = 0; k < m; k += 2) {
+			if (pairs[k] < commitPrIds.length) {
+				commitPrIds[pairs[k]] = null;
+			}
+		}
+		Map<String, int[]> runs = findRuns(commitPrIds, merges);
+		prIds = new String[merges.size() + runs.size()];
+		for (Map.Entry<String, Integer> merge : merges.entrySet()) {
+			prIds[prOrdinals.get(merge.getKey())] = merge.getKey();
+		}
+		for (Map.Entry<String, int[]> run : runs.entrySet()) {
+			prIds[prCount] = run.getKey();
+			prOrdinals.put(run.getKey(), prCount);
+			if (m + 2 * run.getValue().length > pairs.length) {
+				pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, m + 2 * run.getValue().length));
+			}
+			for (int c : run.getValue()) {
+				pairs[m++] = c;
+				pairs[m++] = prCount;
+			}
+			prCount++;
+		}
+
+		// commit to PRs, then PR to commits in table order with the merge commit last
+		int memberships = m / 2;
+		commitPrStart = new int[size + 1];
+		for (int k = 0; k < m; k += 2) {
+			commitPrStart[pairs[k] + 1]++;
+		}
+		for (int c = 0; c < size; c++) {
+			commitPrStart[c + 1] += commitPrStart[c];
+		}
+		commitPrs = new int[memberships];
+		int[] fill = Arrays.copyOf(commitPrStart, size);
+		for (int k = 0; k < m; k += 2) {
+			commitPrs[fill[pairs[k]]++] = pairs[k + 1];
+		}
+		prCommitStart = new int[prIds.length + 1];
+		for (int pr : commitPrs) {
+			prCommitStart[pr + 1]++;
+		}
+		for (int pr = 0; pr < prIds.length; pr++) {
+			prCommitStart[pr + 1] += prCommitStart[pr];
+		}
+		prCommits = new int[memberships];
+		fill = Arrays.copyOf(prCommitStart, prIds.length);
+		for (int c = 0; c < size; c++) {
+			for (int k = commitPrStart[c]; k < commitPrStart[c + 1]; k++) {
+				int pr = commitPrs[k];
+				if (mergePr[c] != pr) {
+					prCommits[fill[pr]++] = c;
+				}
+			}
+		}
+		for (int pr = 0; pr < merges.size(); pr++) {
+			prCommits[fill[pr]] = merges.get(prIds[pr]);
+		}
+	}
+
+	/**
+	 * @return The number of commits in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param id The commit id
+	 * @return The ordinal of the commit, or {@link #NONE} if the commit is not in the table
+	 */
+	public int getOrdinal(AnyObjectId id) {
+		int mask = slots.length - 1;
+		int w1 = word(id, 1);
+		int slot = w1 & mask;
+		int ordinal;
+		while ((ordinal = slots[slot] - 1) != NONE) {
+			int o = 5 * ordinal;
+			if (ids[o + 1] == w1 && ids[o] == word(id, 0) && ids[o + 2] == word(id, 2) && ids[o + 3] == word(id, 3)
+					&& ids[o + 4] == word(id, 4)) {
+				return ordinal;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NONE;
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @return The commit id
+	 */
+	public ObjectId getId(int ordinal) {
+		int o = 5 * ordinal;
+		return new ObjectId(ids[o], ids[o + 1], ids[o + 2], ids[o + 3], ids[o + 4]);
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @return The commit time, in seconds since the epoch
+	 */
+	public int getCommitTime(int ordinal) {
+		return commitTimes[ordinal];
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @return The number of parents of the commit
+	 */
+	public int getParentCount(int ordinal) {
+		return parentStart[ordinal + 1] - parentStart[ordinal];
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @param i The parent index
+	 * @return The ordinal of the i-th parent, or {@link #NONE} if the parent is not in the table
+	 */
+	public int getParent(int ordinal, int i) {
+		return parents[parentStart[ordinal] + i];
+	}
+
+	/**
+	 * @return The number of pull requests
+	 */
+	public int getPullRequestCount() {
+		return prIds.length;
+	}
+
+	/**
+	 * @param pr The pull request ordinal
+	 * @return The pull request id
+	 */
+	public String getPullRequestId(int pr) {
+		return prIds[pr];
+	}
+
+	/**
+	 * @param prId The pull request id
+	 * @return The pull request ordinal, or {@link #NONE} if there is no such pull request
+	 */
+	public int getPullRequestOrdinal(String prId) {
+		Integer pr = prOrdinals.get(prId);
+		return pr == null ? NONE : pr;
+	}
+
+	/**
+	 * @param pr The pull request ordinal
+	 * @return The ordinals of the commits in the pull request, the merge commit last if any
+	 */
+	public int[] getPullRequestCommits(int pr) {
+		return prCommitStart[pr] == prCommitStart[pr + 1] ? EMPTY : Arrays.copyOfRange(prCommits, prCommitStart[pr], prCommitStart[pr + 1]);
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @return The number of pull requests including the commit
+	 */
+	public int getCommitPullRequestCount(int ordinal) {
+		return commitPrStart[ordinal + 1] - commitPrStart[ordinal];
+	}
+
+	/**
+	 * @param ordinal The commit ordinal
+	 * @param i The index among the pull requests including the commit
+	 * @return The ordinal of the i-th pull request including the commit
+	 */
+	public int getCommitPullRequest(int ordinal, int i) {
+		return commitPrs[commitPrStart[ordinal] + i];
+	}
+
+	/**
+	 * @return The number of commits that are part of a pull request
+	 */
+	public int getPullRequestCommitCount() {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (commitPrStart[i + 1] > commitPrStart[i]) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
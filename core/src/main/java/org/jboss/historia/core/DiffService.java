@@ -0,0 +1,254 @@
+package org.jboss.historia.core;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Computes the paths changed by the commits of a repository, for the duration of an analysis.
+ * The changed paths of a commit, against its first parent or, for a root commit, all its files,
+ * are computed at most once and cached by commit id, whichever strategy or file asks for them.
+ *
+ * The service owns a RevWalk, and so an ObjectReader, reused by all the calls that do not pass a walk
+ * of their own; these calls are serialized. Concurrent analysis workers pass their own walk, confined
+ * to their thread, and share the cache.
+ *
+ * @author alessio
+ *
+ */
+public class DiffService implements AutoCloseable {
+
+	private final Repository repo;
+	// guarded by this
+	private final RevWalk walk;
+	private final TreeWalk treeWalk;
+	private final ConcurrentMap<ObjectId, FutureTask<Set<String>>> changedPaths = new ConcurrentHashMap<>();
+
+	public DiffService(Repository repo) {
+		this.repo = repo;
+		this.walk = new RevWalk(repo);
+		this.walk.setRetainBody(false);
+		this.treeWalk = new TreeWalk(repo, walk.getObjectReader());
+	}
+
+	/**
+	 * Parse a commit with the walk of the service; its parents are not parsed.
+	 *
+	 * @param id The commit id
+	 * @return The commit, without its message
+	 */
+	public synchronized RevCommit parseCommit(AnyObjectId id) throws Exception {
+		return walk.parseCommit(id);
+	}
+
+	/**
+	 * Parse the tree of a commit, or a tree, with the walk of the service.
+	 *
+	 * @param id The commit or tree id
+	 * @return The tree
+	 */
+	public synchronized RevTree parseTree(AnyObjectId id) throws Exception {
+		return walk.parseTree(id);
+	}
+
+	/**
+	 * Get the paths changed by a commit, reading objects with the reader of the service.
+	 *
+	 * @param commit The commit id
+	 * @return The paths changed against the first parent, or all the paths of a root commit
+	 */
+	public Set<String> getChangedPaths(AnyObjectId commit) throws Exception {
+		return getChangedPaths(commit, null);
+	}
+
+	/**
+	 * Get the paths changed by a commit, reading objects with the given walk.
+	 *
+	 * @param commit The commit id
+	 * @param walk The walk to use, confined to the calling thread, or null to use the one of the service
+	 * @return The paths changed against the first parent, or all the paths of a root commit
+	 */
+	public Set<String> getChangedPaths(AnyObjectId commit, RevWalk walk) throws Exception {
+		FutureTask<Set<String>> task = changedPaths.get(commit);
+		if (task == null) {
+			FutureTask<Set<String>> newTask = new FutureTask<>(() -> loadChangedPaths(commit, walk));
+			task = changedPaths.putIfAbsent(commit.copy(), newTask);
+			if (task == null) {
+				task = newTask;
+				newTask.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			// Do not cache failures
+			changedPaths.remove(commit, task);
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Check whether a commit adds or modifies a file included by the given filter, against its first
+	 * parent, or for a root commit whether it has such a file. Only the subtrees that differ and that the
+	 * filter may include are entered, and the walk stops at the first such file; the changed paths are
+	 * not cached.
+	 *
+	 * @param commit The commit id
+	 * @param walk The walk to use, confined to the calling thread, or null to use the one of the service
+	 * @param filter The filter of the files
+	 * @return Whether an added or modified file is included by the filter
+	 */
+	public boolean changesPath(AnyObjectId commit, RevWalk walk, TreeFilter filter) throws Exception {
+		if (walk == null) {
+			synchronized (this) {
+				return changesPath(commit, this.walk, treeWalk, filter);
+			}
+		}
+		try (TreeWalk tw = new TreeWalk(repo, walk.getObjectReader())) {
+			return changesPath(commit, walk, tw, filter);
+		}
+	}
+
+	private static boolean changesPath(AnyObjectId commit, RevWalk walk, TreeWalk tw, TreeFilter filter) throws Exception {
+		RevCommit c = walk.parseCommit(commit);
+		tw.setRecursive(true);
+		if (c.getParentCount() == 0) {
+			tw.setFilter(filter);
+			tw.reset(c.getTree());
+			return tw.next();
+		}
+		tw.setFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, filter));
+		tw.reset(walk.parseTree(c.getParent(0)), c.getTree());
+		while (tw.next()) {
+			// a deleted file is not a change of the commit tree
+			if (tw.getRawMode(1) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Whether the changed paths of the given commit have been computed already
+	 */
+	public boolean isCached(AnyObjectId commit) {
+		FutureTask<Set<String>> task = changedPaths.get(commit);
+		return task != null && task.isDone();
+	}
+
+	private Set<String> loadChangedPaths(AnyObjectId commit, RevWalk callerWalk) throws Exception {
+		if (callerWalk == null) {
+			synchronized (this) {
+				return loadChangedPaths(commit, walk, treeWalk);
+			}
+		}
+		try (TreeWalk tw = new TreeWalk(repo, callerWalk.getObjectReader())) {
+			return loadChangedPaths(commit, callerWalk, tw);
+		}
+	}
+
+	private static Set<String> loadChangedPaths(AnyObjectId commit, RevWalk walk, TreeWalk tw) throws Exception {
+		RevCommit c = walk.parseCommit(commit);
+		Set<String> paths;
+		if (c.getParentCount() > 0) {
+			paths = getChangedPaths(tw, walk.parseTree(c.getParent(0)), c.getTree());
+		} else {
+			paths = getPaths(tw, c.getTree());
+		}
+		return Collections.unmodifiableSet(paths);
+	}
+
+	/**
+	 * Get the files in a tree, reading objects through the given reader.
+	 *
+	 * @param tree The tree
+	 * @param reader The reader to use, confined to the calling thread
+	 * @return The sorted paths of the files in the tree
+	 */
+	public Set<String> getPaths(RevTree tree, ObjectReader reader) throws Exception {
+		try (TreeWalk tw = new TreeWalk(repo, reader)) {
+			return getPaths(tw, tree);
+		}
+	}
+
+	/**
+	 * Get the files changed between two trees, reading objects through the given reader.
+	 *
+	 * @param parentTree The parent commit tree
+	 * @param tree The commit tree
+	 * @param reader The reader to use, confined to the calling thread
+	 * @return The sorted new paths of the changed files
+	 */
+	public Set<String> getChangedPaths(RevTree parentTree, RevTree tree, ObjectReader reader) throws Exception {
+		try (TreeWalk tw = new TreeWalk(repo, reader)) {
+			return getChangedPaths(tw, parentTree, tree);
+		}
+	}
+
+	/**
+	 * Get the files in a tree, reading objects with the reader of the service.
+	 */
+	public synchronized Set<String> getPaths(RevTree tree) throws Exception {
+		return getPaths(treeWalk, tree);
+	}
+
+	/**
+	 * Get the files changed between two trees, reading objects with the reader of the service.
+	 */
+	public synchronized Set<String> getChangedPaths(RevTree parentTree, RevTree tree) throws Exception {
+		return getChangedPaths(treeWalk, parentTree, tree);
+	}
+
+	private static Set<String> getPaths(TreeWalk tw, RevTree tree) throws Exception {
+		tw.setRecursive(true);
+		tw.setFilter(TreeFilter.ALL);
+		tw.reset(tree);
+		Set<String> files = new TreeSet<>(); // Uses natural ordering
+		while (tw.next()) {
+			files.add(tw.getPathString());
+		}
+		return files;
+	}
+
+	private static Set<String> getChangedPaths(TreeWalk tw, RevTree parentTree, RevTree tree) throws Exception {
+		tw.setRecursive(true);
+		tw.setFilter(TreeFilter.ANY_DIFF);
+		tw.reset(parentTree.getId(), tree.getId());
+		Set<String> files = new TreeSet<>(); // Uses natural ordering
+		for (DiffEntry de : DiffEntry.scan(tw)) {
+			files.add(de.getNewPath());
+		}
+		return files;
+	}
+
+	/**
+	 * Drop the cached paths and the parsed objects.
+	 */
+	public synchronized void clear() {
+		changedPaths.clear();
+		walk.dispose();
+	}
+
+	@Override
+	public synchronized void close() {
+		changedPaths.clear();
+		treeWalk.close();
+		walk.close();
+	}
+}
@@ -0,0 +1,134 @@
+package org.jboss.historia.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+import org.jboss.logging.Logger;
+
+/**
+ * Publisher of the results of an analysis, run when the subscriber subscribes.
+ * The results are streamed in order and only as requested: while there is no outstanding demand
+ * the analysis waits, and so do its workers once the reorder buffer is full, so that a slow
+ * subscriber throttles the analysis instead of having the results pile up. Cancelling the
+ * subscription stops the analysis, even before the first result: the walks building the commit
+ * table and the history index check for it before each commit, the analysis before each file.
+ *
+ * The publisher runs a single analysis, so it accepts a single subscriber.
+ *
+ * @author alessio
+ *
+ */
+class FileUpdatesPublisher implements Flow.Publisher<FileUpdates> {
+
+	private static final Logger LOGGER = Logger.getLogger(FileUpdatesPublisher.class);
+
+	private final UntestedCommitDetectionStrategy strategy;
+	private final String repositoryUri;
+	private final String localRepoCloneURI;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	FileUpdatesPublisher(UntestedCommitDetectionStrategy strategy, String repositoryUri, String localRepoCloneURI, Executor executor) {
+		this.strategy = strategy;
+		this.repositoryUri = repositoryUri;
+		this.localRepoCloneURI = localRepoCloneURI;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super FileUpdates> subscriber) {
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new AnalysisSubscription(subscriber));
+			subscriber.onError(new IllegalStateException("The analysis results have been subscribed to already"));
+			return;
+		}
+		AnalysisSubscription subscription = new AnalysisSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		executor.execute(subscription::run);
+	}
+
+	private class AnalysisSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super FileUpdates> subscriber;
+		// guarded by this
+		private long demand;
+		private Throwable failure;
+		// written under this, read by the analysis before each commit and each file
+		private volatile boolean cancelled;
+
+		AnalysisSubscription(Flow.Subscriber<? super FileUpdates> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public synchronized void request(long n) {
+			if (n <= 0) {
+				failure = new IllegalArgumentException("Non positive request: " + n);
+				cancelled = true;
+			} else {
+				// demand is capped, Long.MAX_VALUE meaning unbounded
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+			}
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void cancel() {
+			cancelled = true;
+			notifyAll();
+		}
+
+		private synchronized void awaitDemand() throws InterruptedException {
+			while (demand == 0 && !cancelled) {
+				wait();
+			}
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			if (demand != Long.MAX_VALUE) {
+				demand--;
+			}
+		}
+
+		private boolean isCancelled() {
+			return cancelled;
+		}
+
+		private synchronized Throwable getFailure() {
+			return failure;
+		}
+
+		private void run() {
+			try {
+				strategy.process(repositoryUri, localRepoCloneURI, fu -> {
+					try {
+						awaitDemand();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new CancellationException("Interrupted");
+					}
+					subscriber.onNext(fu);
+				}, this::isCancelled);
+			} catch (Throwable t) {
+				Throwable failure = getFailure();
+				if (failure != null) {
+					subscriber.onError(failure);
+				} else if (!isCancelled()) {
+					subscriber.onError(t);
+				} else {
+					LOGGER.debug("Analysis of " + repositoryUri + " cancelled");
+				}
+				return;
+			}
+			Throwable failure = getFailure();
+			if (failure != null) {
+				subscriber.onError(failure);
+			} else if (!isCancelled()) {
+				subscriber.onComplete();
+			}
+		}
+	}
+}
@@ -0,0 +1,630 @@
+package org.jboss.historia.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.internal.storage.commitgraph.ChangedPathFilter;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.jboss.logging.Logger;
+
+/**
+ * Index of the paths changed by each commit reachable from a given start commit.
+ * The index is built with a single walk over the commit graph and then answers
+ * file history queries the same way a {@link org.eclipse.jgit.revwalk.FollowFilter}
+ * walk from the start commit would, without diffing any tree again.
+ *
+ * Renames (and copies) are detected once per commit; a file history follows the
+ * rename back to the previous path, like FollowFilter does.
+ * Merge commits are recorded for a path only when the path differs from every parent.
+ * Unlike a FollowFilter walk, no history simplification is applied, so commits on a side
+ * branch whose changes have been discarded by the merge are still reported.
+ *
+ * The index can be limited to the paths included by a tree filter, pushed down into the tree walks so
+ * that the excluded paths are never listed. The paths an included file was renamed from are followed
+ * as well, from the rename on: to find the rename sources, a commit adding an included path is diffed
+ * again without the filter, and rename detection is only run for such commits.
+ *
+ * The walk can be shared with other analyses: the {@link HistoryListener}s receive each commit and the
+ * changes recorded for it as the index is built.
+ *
+ * When the object reader provides a commit-graph with changed-path Bloom filters, the walk can be limited
+ * to a scope, the directories of the paths whose history is needed: the commits whose Bloom filter
+ * tells they change neither the scope nor a followed path are not diffed at all.
+ *
+ * @author alessio
+ *
+ */
+public class HistoryIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(HistoryIndex.class);
+
+	private static class PathEntry {
+		// ordinals of the commits changing the path, in walk order
+		private int[] ordinals = new int[4];
+		private int size;
+		// ordinals of the commits creating the path by renaming/copying another one
+		private int[] renameOrdinals;
+		private String[] renameSources;
+		private int renameCount;
+
+		private void add(int ordinal) {
+			if (size > 0 && ordinals[size - 1] == ordinal) {
+				return;
+			}
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		private void addRename(int ordinal, String source) {
+			if (renameOrdinals == null) {
+				renameOrdinals = new int[1];
+				renameSources = new String[1];
+			} else if (renameCount == renameOrdinals.length) {
+				renameOrdinals = Arrays.copyOf(renameOrdinals, renameCount * 2);
+				renameSources = Arrays.copyOf(renameSources, renameCount * 2);
+			}
+			renameOrdinals[renameCount] = ordinal;
+			renameSources[renameCount++] = source;
+		}
+	}
+
+	private static class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Includes the followed paths and the directories leading to them.
+	 * Unlike a {@link org.eclipse.jgit.treewalk.filter.PathFilterGroup}, it never stops the walk once
+	 * past the last followed path, which would end the walk for the paths of the path filter too.
+	 */
+	private static class FollowedPathsFilter extends TreeFilter {
+		private final byte[][] paths;
+
+		private FollowedPathsFilter(Collection<String> paths) {
+			this.paths = new byte[paths.size()][];
+			int i = 0;
+			for (String path : paths) {
+				this.paths[i++] = path.getBytes(StandardCharsets.UTF_8);
+			}
+		}
+
+		@Override
+		public boolean include(TreeWalk walker) {
+			int length = walker.getPathLength();
+			boolean subtree = walker.isSubtree();
+			for (byte[] path : paths) {
+				// a file matches a path of the same length, a directory a longer path under it
+				if ((subtree ? path.length > length : path.length == length) && walker.isPathMatch(path, path.length) <= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return true;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			// immutable
+			return this;
+		}
+	}
+
+	private final CommitTable table;
+	// commit table ordinals of the commits in walk order, the position in the walk is the index ordinal
+	private int[] commits = new int[1024];
+	private int commitCount;
+	private final Map<String, PathEntry> paths = new HashMap<>();
+	private final TreeFilter pathFilter;
+	// paths outside the path filter followed because an included path was renamed from them
+	private final Set<String> followedPaths = new HashSet<>();
+	// the path filter or a followed path
+	private TreeFilter filter;
+	private final HistoryListener[] listeners;
+	// the directories of the scope and the followed paths, as keys of the Bloom filters, or null
+	private List<byte[]> scopeKeys;
+
+	private HistoryIndex(CommitTable table, TreeFilter pathFilter, HistoryListener[] listeners) {
+		this.table = table;
+		this.pathFilter = pathFilter;
+		this.filter = pathFilter;
+		this.listeners = listeners;
+	}
+
+	/**
+	 * Build the index walking the history of the repository once from the given commit.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start) throws IOException {
+		return build(repo, start, null);
+	}
+
+	/**
+	 * Build the index walking the history of the repository once from the given commit,
+	 * stopping at the commits reachable from the given boundary.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @param boundary The commit whose history is excluded from the index, or null to index the whole history
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, AnyObjectId boundary) throws IOException {
+		return build(repo, start, boundary, CommitTable.build(repo, Collections.singleton(start), boundary, null));
+	}
+
+	/**
+	 * Build the index walking the history of the repository once from the given commit,
+	 * stopping at the commits reachable from the given boundary.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @param boundary The commit whose history is excluded from the index, or null to index the whole history
+	 * @param table The table of the commits of the repository, including the history of the start commit
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, AnyObjectId boundary, CommitTable table) throws IOException {
+		return build(repo, start, boundary, table, TreeFilter.ALL);
+	}
+
+	/**
+	 * Build the index of the paths included by a filter, walking the history of the repository once
+	 * from the given commit and stopping at the commits reachable from the given boundary.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @param boundary The commit whose history is excluded from the index, or null to index the whole history
+	 * @param table The table of the commits of the repository, including the history of the start commit
+	 * @param pathFilter The filter of the indexed paths, {@link TreeFilter#ALL} to index all of them
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, AnyObjectId boundary, CommitTable table,
+			TreeFilter pathFilter) throws IOException {
+		return build(repo, start, boundary == null ? Collections.emptyList() : Collections.singleton(boundary),
+				RevFilter.ALL, table, pathFilter);
+	}
+
+	/**
+	 * Build the index of the paths included by a filter, walking the history of the repository once
+	 * from the given commit, excluding the history of the boundaries and the commits the commit filter
+	 * does not include. The indexed commits are diffed against their parents, even the excluded ones.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @param boundaries The commits whose history is excluded from the index
+	 * @param commitFilter The filter of the indexed commits, e.g. a commit time window
+	 * @param table The table of the commits of the repository, including the indexed commits
+	 * @param pathFilter The filter of the indexed paths, {@link TreeFilter#ALL} to index all of them
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, Collection<? extends AnyObjectId> boundaries,
+			RevFilter commitFilter, CommitTable table, TreeFilter pathFilter) throws IOException {
+		return build(repo, start, boundaries, commitFilter, false, table, pathFilter);
+	}
+
+	/**
+	 * Build the index of the paths included by a filter, walking the history of the repository once
+	 * from the given commit, optionally following only the first parent of the merge commits. Along the
+	 * first parents, a merge commit is indexed like any other commit, with its changes against the first
+	 * parent, renames included, so that it changes the paths its side branch changed.
+	 *
+	 * @param repo The repository
+	 * @param start The commit to start the walk from, usually HEAD
+	 * @param boundaries The commits whose history is excluded from the index
+	 * @param commitFilter The filter of the indexed commits, e.g. a commit time window
+	 * @param firstParent Whether to only follow the first parent of the merge commits
+	 * @param table The table of the commits of the repository, including the indexed commits
+	 * @param pathFilter The filter of the indexed paths, {@link TreeFilter#ALL} to index all of them
+	 * @return The history index
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, Collection<? extends AnyObjectId> boundaries,
+			RevFilter commitFilter, boolean firstParent, CommitTable table, TreeFilter pathFilter) throws IOException {
+		return build(repo, start, boundaries, commitFilter, firstParent, table, pathFilter, Collections.emptyList());
+	}
+
+	/**
+	 * Build the index as {@link #build(Repository, AnyObjectId, Collection, RevFilter, boolean, CommitTable, TreeFilter)}
+	 * does, handing the commits and their changes to the listeners along the walk.
+	 *
+	 * @param listeners The listeners of the walk, called on the calling thread
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, Collection<? extends AnyObjectId> boundaries,
+			RevFilter commitFilter, boolean firstParent, CommitTable table, TreeFilter pathFilter,
+			Collection<? extends HistoryListener> listeners) throws IOException {
+		return build(repo, start, boundaries, commitFilter, firstParent, table, pathFilter, listeners, () -> false);
+	}
+
+	/**
+	 * Build the index as {@link #build(Repository, AnyObjectId, Collection, RevFilter, boolean, CommitTable, TreeFilter, Collection)}
+	 * does, checking before each commit whether the build has been cancelled.
+	 *
+	 * @param cancelled Tells whether the build has been cancelled, called on the calling thread
+	 * @throws CancellationException if the build has been cancelled
+	 */
+	public static HistoryIndex build(Repository repo, AnyObjectId start, Collection<? extends AnyObjectId> boundaries,
+			RevFilter commitFilter, boolean firstParent, CommitTable table, TreeFilter pathFilter,
+			Collection<? extends HistoryListener> listeners, BooleanSupplier cancelled) throws IOException {
+		try (ObjectReader reader = repo.newObjectReader()) {
+			return build(repo, reader, start, boundaries, commitFilter, firstParent, table, pathFilter, listeners,
+					cancelled, null);
+		}
+	}
+
+	/**
+	 * Build the index as {@link #build(Repository, AnyObjectId, Collection, RevFilter, boolean, CommitTable, TreeFilter, Collection, BooleanSupplier)}
+	 * does, reading the objects with the given reader and limiting the walk to a scope.
+	 * The commits whose changed-path Bloom filter, read from the commit-graph of the reader, tells they
+	 * change neither a directory of the scope nor a followed path are still walked but not diffed: the
+	 * histories of the paths in the scope, and of the paths they were renamed from, are complete, the ones
+	 * of the other paths may not be. Root commits and, unless only the first parents are followed, merge
+	 * commits are always diffed.
+	 *
+	 * @param reader The reader of the objects, not closed
+	 * @param scope The directories (or files) whose history is needed, or null to diff every commit
+	 */
+	public static HistoryIndex build(Repository repo, ObjectReader reader, AnyObjectId start,
+			Collection<? extends AnyObjectId> boundaries, RevFilter commitFilter, boolean firstParent, CommitTable table,
+			TreeFilter pathFilter, Collection<? extends HistoryListener> listeners, BooleanSupplier cancelled,
+			Collection<String> scope) throws IOException {
+		HistoryIndex index = new HistoryIndex(table, pathFilter, listeners.toArray(new HistoryListener[0]));
+		if (scope != null) {
+			index.scopeKeys = new ArrayList<>();
+			for (String path : scope) {
+				index.scopeKeys.add(path.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		DiffConfig diffConfig = repo.getConfig().get(DiffConfig.KEY);
+		long startTime = System.currentTimeMillis();
+		int skipped = 0;
+		try (RevWalk rw = new RevWalk(reader);
+				TreeWalk tw = new TreeWalk(repo, reader)) {
+			// only the trees are needed, unless the listeners read the commits
+			rw.setRetainBody(!listeners.isEmpty());
+			rw.setFirstParent(firstParent);
+			tw.setRecursive(true);
+			RenameDetector renameDetector = new RenameDetector(reader, diffConfig);
+			rw.markStart(rw.parseCommit(start));
+			for (AnyObjectId boundary : boundaries) {
+				rw.markUninteresting(rw.parseCommit(boundary));
+			}
+			rw.setRevFilter(commitFilter);
+			for (RevCommit commit : rw) {
+				if (cancelled.getAsBoolean()) {
+					throw new CancellationException("History index build cancelled");
+				}
+				int ordinal = index.add(commit);
+				switch (commit.getParentCount()) {
+				case 0:
+					index.indexRootCommit(tw, commit, ordinal);
+					break;
+				case 1:
+					if (index.isOutOfScope(rw, commit)) {
+						skipped++;
+					} else {
+						index.indexCommit(tw, renameDetector, commit, ordinal);
+					}
+					break;
+				default:
+					if (firstParent && index.isOutOfScope(rw, commit)) {
+						skipped++;
+					} else if (firstParent) {
+						index.indexCommit(tw, renameDetector, commit, ordinal);
+					} else {
+						index.indexMergeCommit(tw, commit, ordinal);
+					}
+				}
+			}
+		}
+		LOGGER.debug("Indexed " + index.commitCount + " commits and " + index.paths.size() + " paths ("
+				+ index.followedPaths.size() + " followed outside the path filter), " + skipped
+				+ " commits out of scope, in "
+				+ (System.currentTimeMillis() - startTime) + "ms");
+		return index;
+	}
+
+	private int add(RevCommit commit) throws IOException {
+		int tableOrdinal = table.getOrdinal(commit);
+		if (tableOrdinal == CommitTable.NONE) {
+			throw new IOException("Commit " + commit.name() + " is not in the commit table");
+		}
+		if (commitCount == commits.length) {
+			commits = Arrays.copyOf(commits, commitCount * 2);
+		}
+		commits[commitCount] = tableOrdinal;
+		for (HistoryListener listener : listeners) {
+			listener.commit(commit, tableOrdinal);
+		}
+		return commitCount++;
+	}
+
+	private void change(int ordinal, ChangeType type, String path, String oldPath) throws IOException {
+		for (HistoryListener listener : listeners) {
+			listener.change(commits[ordinal], type, path, oldPath);
+		}
+	}
+
+	private boolean isFiltered() {
+		return pathFilter != TreeFilter.ALL;
+	}
+
+	private TreeFilter diffFilter() {
+		return isFiltered() ? AndTreeFilter.create(TreeFilter.ANY_DIFF, filter) : TreeFilter.ANY_DIFF;
+	}
+
+	private void follow(String path) {
+		if (followedPaths.add(path)) {
+			filter = OrTreeFilter.create(pathFilter, new FollowedPathsFilter(followedPaths));
+			if (scopeKeys != null) {
+				scopeKeys.add(path.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	/**
+	 * @return true if the Bloom filter of the commit tells it changes no path of the scope, against its
+	 *         first parent
+	 */
+	private boolean isOutOfScope(RevWalk rw, RevCommit commit) {
+		if (scopeKeys == null) {
+			return false;
+		}
+		ChangedPathFilter changedPaths = commit.getChangedPathFilter(rw);
+		if (changedPaths == null) {
+			return false;
+		}
+		for (byte[] key : scopeKeys) {
+			if (changedPaths.maybeContains(key)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void indexRootCommit(TreeWalk tw, RevCommit commit, int ordinal) throws IOException {
+		tw.setFilter(filter);
+		tw.reset(commit.getTree());
+		while (tw.next()) {
+			entry(tw.getPathString()).add(ordinal);
+			if (listeners.length > 0) {
+				change(ordinal, ChangeType.ADD, tw.getPathString(), null);
+			}
+		}
+	}
+
+	private void indexCommit(TreeWalk tw, RenameDetector renameDetector, RevCommit commit, int ordinal) throws IOException {
+		tw.setFilter(diffFilter());
+		tw.reset(commit.getParent(0).getTree(), commit.getTree());
+		List<DiffEntry> diffs = DiffEntry.scan(tw);
+		Set<String> included = null;
+		if (isFiltered() && hasAdds(diffs)) {
+			// an added path may have been renamed from a path outside the filter
+			included = new HashSet<>();
+			for (DiffEntry de : diffs) {
+				included.add(de.getChangeType() == ChangeType.DELETE ? de.getOldPath() : de.getNewPath());
+			}
+			tw.setFilter(TreeFilter.ANY_DIFF);
+			tw.reset(commit.getParent(0).getTree(), commit.getTree());
+			diffs = DiffEntry.scan(tw);
+		}
+		if ((included != null || !isFiltered()) && hasAddsAndDeletes(diffs)) {
+			renameDetector.reset();
+			renameDetector.addAll(diffs);
+			diffs = renameDetector.compute();
+		}
+		for (DiffEntry de : diffs) {
+			switch (de.getChangeType()) {
+			case DELETE:
+				if (included == null || included.contains(de.getOldPath())) {
+					entry(de.getOldPath()).add(ordinal);
+					change(ordinal, ChangeType.DELETE, de.getOldPath(), null);
+				}
+				break;
+			case RENAME:
+			case COPY:
+				boolean sourceIncluded = included == null || included.contains(de.getOldPath());
+				if (de.getChangeType() == ChangeType.RENAME && sourceIncluded) {
+					entry(de.getOldPath()).add(ordinal);
+				}
+				if (included == null || included.contains(de.getNewPath())) {
+					PathEntry target = entry(de.getNewPath());
+					target.add(ordinal);
+					target.addRename(ordinal, de.getOldPath());
+					if (!sourceIncluded) {
+						follow(de.getOldPath());
+					}
+					change(ordinal, de.getChangeType(), de.getNewPath(), de.getOldPath());
+				} else if (de.getChangeType() == ChangeType.RENAME && sourceIncluded) {
+					// renamed out of the filter
+					change(ordinal, ChangeType.DELETE, de.getOldPath(), null);
+				}
+				break;
+			default:
+				if (included == null || included.contains(de.getNewPath())) {
+					entry(de.getNewPath()).add(ordinal);
+					change(ordinal, de.getChangeType(), de.getNewPath(), null);
+				}
+			}
+		}
+	}
+
+	private void indexMergeCommit(TreeWalk tw, RevCommit commit, int ordinal) throws IOException {
+		int nParents = commit.getParentCount();
+		tw.setFilter(diffFilter());
+		tw.reset();
+		for (RevCommit parent : commit.getParents()) {
+			tw.addTree(parent.getTree());
+		}
+		tw.addTree(commit.getTree());
+		while (tw.next()) {
+			boolean differsFromAllParents = true;
+			for (int i = 0; i < nParents && differsFromAllParents; i++) {
+				differsFromAllParents = tw.getRawMode(i) != tw.getRawMode(nParents) || !tw.idEqual(i, nParents);
+			}
+			if (differsFromAllParents) {
+				entry(tw.getPathString()).add(ordinal);
+				if (listeners.length > 0) {
+					change(ordinal, ChangeType.MODIFY, tw.getPathString(), null);
+				}
+			}
+		}
+	}
+
+	private static boolean hasAdds(List<DiffEntry> diffs) {
+		for (DiffEntry de : diffs) {
+			if (de.getChangeType() == ChangeType.ADD) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasAddsAndDeletes(List<DiffEntry> diffs) {
+		boolean adds = false;
+		boolean deletes = false;
+		for (DiffEntry de : diffs) {
+			adds |= de.getChangeType() == ChangeType.ADD;
+			deletes |= de.getChangeType() == ChangeType.DELETE;
+			if (adds && deletes) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private PathEntry entry(String path) {
+		return paths.computeIfAbsent(path, k -> new PathEntry());
+	}
+
+	/**
+	 * Get the number of commits in the index.
+	 *
+	 * @return The number of indexed commits
+	 */
+	public int getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * @return The table of the commits referenced by the index
+	 */
+	public CommitTable getCommitTable() {
+		return table;
+	}
+
+	/**
+	 * Get the commit history for a specific file, following renames.
+	 * The commits are returned in walk order, newest first.
+	 *
+	 * @param filepath Path to the file
+	 * @return List of the ids of the commits that modified the file
+	 */
+	public List<ObjectId> getFileHistory(String filepath) {
+		int[] history = getFileHistoryOrdinals(filepath);
+		List<ObjectId> ids = new ArrayList<>(history.length);
+		for (int ordinal : history) {
+			ids.add(table.getId(ordinal));
+		}
+		return ids;
+	}
+
+	/**
+	 * Get the commit history for a specific file, following renames, as commit table ordinals.
+	 * The commits are returned in walk order, newest first.
+	 *
+	 * @param filepath Path to the file
+	 * @return The commit table ordinals of the commits that modified the file
+	 */
+	public int[] getFileHistoryOrdinals(String filepath) {
+		IntList history = new IntList();
+		follow(filepath, history);
+		return history.toArray();
+	}
+
+	/**
+	 * Get the path a file had at the beginning of the indexed history, following renames.
+	 *
+	 * @param filepath Path to the file
+	 * @return The path of the file before the first indexed commit
+	 */
+	public String getOriginPath(String filepath) {
+		return follow(filepath, null);
+	}
+
+	private String follow(String filepath, IntList history) {
+		String path = filepath;
+		int limit = -1;
+		while (true) {
+			PathEntry entry = paths.get(path);
+			if (entry == null) {
+				return path;
+			}
+			// the first rename found walking back from the limit is where we switch to the previous path
+			int renameOrdinal = Integer.MAX_VALUE;
+			String source = null;
+			for (int i = 0; i < entry.renameCount; i++) {
+				int o = entry.renameOrdinals[i];
+				if (o > limit && o < renameOrdinal) {
+					renameOrdinal = o;
+					source = entry.renameSources[i];
+				}
+			}
+			if (history != null) {
+				for (int i = 0; i < entry.size; i++) {
+					int o = entry.ordinals[i];
+					if (o > limit && o <= renameOrdinal) {
+						history.add(commits[o]);
+					}
+				}
+			}
+			if (source == null) {
+				return path;
+			}
+			path = source;
+			limit = renameOrdinal;
+		}
+	}
+}
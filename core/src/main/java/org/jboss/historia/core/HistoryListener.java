@@ -0,0 +1,39 @@
+package org.jboss.historia.core;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Receives the commits and the changed paths of the walk building a {@link HistoryIndex}, so that
+ * several analyses share a single walk of the history and a single diff of each commit.
+ * The events are the ones the index records: the changes of the paths included by its path filter,
+ * renames and copies detected, and the paths of a merge commit that differ from every parent.
+ * The commits come in walk order, newest first, each one followed by its changes.
+ *
+ * @author alessio
+ *
+ */
+public interface HistoryListener {
+
+	/**
+	 * A commit of the walk, before its changes. Its message and identities are available.
+	 *
+	 * @param commit The commit
+	 * @param ordinal The ordinal of the commit in the commit table
+	 */
+	default void commit(RevCommit commit, int ordinal) throws IOException {
+	}
+
+	/**
+	 * A path changed by the last commit.
+	 *
+	 * @param ordinal The ordinal of the commit in the commit table
+	 * @param type The type of change, {@link ChangeType#MODIFY} for the paths of a merge commit
+	 * @param path The path after the change, or before it for a deletion
+	 * @param oldPath The path renamed or copied to the path, otherwise null
+	 */
+	default void change(int ordinal, ChangeType type, String path, String oldPath) throws IOException {
+	}
+}
@@ -1,30 +1,49 @@
 package org.jboss.historia.core;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.BooleanSupplier;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.LogCommand;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.FollowFilter;
 import org.eclipse.jgit.revwalk.RenameCallback;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.jboss.logging.Logger;
@@ -40,14 +59,80 @@ public class JGitUtils implements AutoCloseable {
 	private static Logger LOGGER = Logger.getLogger(JGitUtils.class);
 	private final Git git;
 	
-	// Cache fields
-	private List<RevCommit> allCommitsCache;
-	private List<RevCommit> mergeCommitsCache;
-	private Map<String, List<RevCommit>> pullRequestsCache;
-	private Map<String, List<RevCommit>> fileHistoryCache = new HashMap<>();
+	// Diff configuration used for following renames, the repository config is never modified
+	private final DiffConfig followDiffConfig;
+	
+	// Cache fields; each cache is computed at most once, even when requested by concurrent threads
+	private final CachedValue<List<RevCommit>> allCommitsCache = new CachedValue<>(this::loadAllCommits);
+	private final CachedValue<List<RevCommit>> mergeCommitsCache = new CachedValue<>(this::loadMergeCommits);
+	private final CachedValue<Map<String, List<RevCommit>>> pullRequestsCache = new CachedValue<>(this::loadAllPullRequests);
+	private final ConcurrentMap<String, FutureTask<List<RevCommit>>> fileHistoryCache = new ConcurrentHashMap<>();
+	private final CachedValue<CommitTable> commitTableCache = new CachedValue<>(this::loadCommitTable);
+	private final CachedValue<HistoryIndex> historyIndexCache = new CachedValue<>(this::loadHistoryIndex);
+	private final CachedValue<Optional<CommitGraph>> commitGraphCache = new CachedValue<>(this::loadCommitGraph);
+	private final CachedValue<TestImpactCache> testImpactCache = new CachedValue<>(this::loadTestImpactCache);
+	// Changed paths of the commits, computed at most once per analysis
+	private final DiffService diffService;
+	
+	// Commit whose history is excluded from the analysis, null to analyze the whole history
+	private volatile ObjectId historyBoundary;
+	
+	// Rules extracting the PR ids from the merge commit messages
+	private volatile PullRequestIdRules pullRequestIdRules = PullRequestIdRules.DEFAULT;
+	
+	// Paths of the test files
+	private volatile TestPathFilter testPathFilter = TestPathFilter.DEFAULT;
+	
+	// Paths of the analyzed files
+	private volatile TreeFilter pathFilter = TreeFilter.ALL;
+	
+	// Commit time window of the analysis, null for no limit
+	private volatile Instant since;
+	private volatile Instant until;
+	
+	// Revision range of the analysis, e.g. "v1.0..HEAD", null for the history of HEAD
+	private volatile String refRange;
+	
+	// Whether only the first parent of the merge commits is followed
+	private volatile boolean firstParent;
+	
+	// Tells whether the analysis has been cancelled, checked by the walks building the caches
+	private volatile BooleanSupplier cancellation = () -> false;
+	
+	// Listeners of the walk building the history index
+	private volatile List<HistoryListener> historyListeners = Collections.emptyList();
 	
 	public JGitUtils(String repositoryUri, String localRepoCloneURI) {
-		git = cloneRepo(repositoryUri, localRepoCloneURI);
+		this(repositoryUri, localRepoCloneURI, false);
+	}
+	
+	/**
+	 * Open the local clone of a repository, cloning it if needed.
+	 * 
+	 * @param repositoryUri The URI of the repository
+	 * @param localRepoCloneURI The path of the local clone
+	 * @param refresh Whether to fetch the latest changes into an existing clone; otherwise the clone is used as it is
+	 */
+	public JGitUtils(String repositoryUri, String localRepoCloneURI, boolean refresh) {
+		this(repositoryUri, localRepoCloneURI, refresh, false);
+	}
+	
+	/**
+	 * Open the local clone of a repository, cloning it if needed.
+	 * A bare clone has no working tree: the analysis only reads commits and trees, so checking out
+	 * the files would only cost time and disk space. An existing clone is used whatever its kind.
+	 * 
+	 * @param repositoryUri The URI of the repository
+	 * @param localRepoCloneURI The path of the local clone
+	 * @param refresh Whether to fetch the latest changes into an existing clone; otherwise the clone is used as it is
+	 * @param bare Whether a new clone is bare
+	 */
+	public JGitUtils(String repositoryUri, String localRepoCloneURI, boolean refresh, boolean bare) {
+		git = cloneRepo(repositoryUri, localRepoCloneURI, refresh, bare);
+		Config config = new Config(git.getRepository().getConfig());
+		config.setBoolean("diff", null, "renames", true);
+		followDiffConfig = config.get(DiffConfig.KEY);
+		diffService = new DiffService(git.getRepository());
 	}
 	
 	/**
@@ -59,27 +144,129 @@ public class JGitUtils implements AutoCloseable {
 		return git;
 	}
 	
-	private static Git cloneRepo(String repositoryUri, String localRepoCloneURI) {
+	private static Git cloneRepo(String repositoryUri, String localRepoCloneURI, boolean refresh, boolean bare) {
 		File file = new File(localRepoCloneURI);
 		try {
 			if (file.exists()) {
+				Git existing;
 				try {
 					// Try to open the existing repository
-					return Git.open(file);
+					existing = Git.open(file);
 				} catch (Exception e) {
-					// If opening fails, delete the directory and clone again
+					// If opening fails, the clone is corrupt: delete the directory and clone again
 					LOGGER.warn("Failed to open existing repository at " + localRepoCloneURI + ". Deleting and cloning again.", e);
 					deleteDirectory(file);
-					return Git.cloneRepository().setURI(repositoryUri).setDirectory(file).call();
+					return Git.cloneRepository().setURI(repositoryUri).setDirectory(file).setBare(bare).call();
+				}
+				if (refresh) {
+					try {
+						fetch(existing);
+					} catch (Exception e) {
+						existing.close();
+						throw e;
+					}
 				}
+				return existing;
 			} else {
-				return Git.cloneRepository().setURI(repositoryUri).setDirectory(file).call();
+				return Git.cloneRepository().setURI(repositoryUri).setDirectory(file).setBare(bare).call();
 			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Fetch the latest changes of the remote repository into the local clone and move the current
+	 * branch to its remote counterpart.
+	 * The caches are cleared if any ref changed.
+	 * 
+	 * @return true if any ref changed
+	 */
+	public boolean refresh() throws Exception {
+		boolean changed = fetch(git);
+		if (changed) {
+			clearCaches();
+		}
+		return changed;
+	}
+	
+	private static boolean fetch(Git git) throws Exception {
+		Repository repo = git.getRepository();
+		FetchResult result = git.fetch().setRemote(Constants.DEFAULT_REMOTE_NAME).setRemoveDeletedRefs(true).call();
+		boolean changed = !result.getTrackingRefUpdates().isEmpty();
+		if (repo.isBare()) {
+			// Bare clones fetch the remote branches into the local ones directly
+			LOGGER.debug("Fetched " + result.getTrackingRefUpdates().size() + " ref updates");
+			return changed;
+		}
+		
+		String branch = repo.getBranch();
+		Ref tracking = repo.exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch);
+		if (tracking == null) {
+			LOGGER.warn("No remote branch to update " + branch + " from");
+			return changed;
+		}
+		ObjectId head = repo.resolve(Constants.HEAD);
+		if (!tracking.getObjectId().equals(head)) {
+			// The clone is only read by the analysis, so the branch simply follows the remote one, even after a force push
+			git.reset().setMode(ResetType.HARD).setRef(tracking.getName()).call();
+			changed = true;
+		}
+		LOGGER.debug("Fetched " + result.getTrackingRefUpdates().size() + " ref updates, HEAD is " + tracking.getObjectId().name());
+		return changed;
+	}
+	
+	/**
+	 * Write the commit-graph of the local clone, with changed-path Bloom filters, unless it already
+	 * covers HEAD. The graph is written with JGit's commit-graph writer, without repacking the clone
+	 * or changing its configuration, and is read by the walks of the analysis whatever the JGit
+	 * configuration: the history index and {@link #getFileHistory(String)} skip the commits whose
+	 * Bloom filter tells they cannot touch the paths they look for, instead of diffing their trees.
+	 * All caches are cleared when the graph is written.
+	 * 
+	 * @return true if the commit-graph was written
+	 */
+	public boolean updateCommitGraph() throws Exception {
+		Repository repo = git.getRepository();
+		ObjectId head = repo.resolve(Constants.HEAD);
+		if (head == null) {
+			return false;
+		}
+		Optional<CommitGraph> graph = commitGraphCache.get();
+		if (graph.isPresent() && graph.get().findGraphPosition(head) >= 0) {
+			return false;
+		}
+		long startTime = System.currentTimeMillis();
+		List<ObjectId> tips = new ArrayList<>();
+		tips.add(head);
+		for (Ref ref : repo.getRefDatabase().getRefs()) {
+			if (ref.getObjectId() != null) {
+				tips.add(ref.getObjectId());
+			}
+		}
+		if (!CommitGraphFile.write(repo, tips)) {
+			return false;
+		}
+		clearCaches();
+		LOGGER.debug("Wrote commit-graph in " + (System.currentTimeMillis() - startTime) + "ms");
+		return true;
+	}
+	
+	private Optional<CommitGraph> loadCommitGraph() {
+		return Optional.ofNullable(CommitGraphFile.read(git.getRepository()));
+	}
+	
+	/**
+	 * Create a reader of the objects of the clone whose walks use the commit-graph of the clone, if any,
+	 * along with its changed-path Bloom filters.
+	 * 
+	 * @return The reader, to be closed by the caller
+	 * @see #updateCommitGraph()
+	 */
+	public ObjectReader newObjectReader() throws Exception {
+		return CommitGraphFile.newReader(git.getRepository(), commitGraphCache.get().orElse(null));
+	}
+	
 	/**
 	 * Recursively delete a directory.
 	 * 
@@ -103,6 +290,7 @@ public class JGitUtils implements AutoCloseable {
 	}
 	
 	public void close() throws Exception {
+		diffService.close();
 		if (git != null) {
 			git.close();
 		}
@@ -113,19 +301,267 @@ public class JGitUtils implements AutoCloseable {
 	 * This should be called if the repository state changes.
 	 */
 	public void clearCaches() {
-		allCommitsCache = null;
-		mergeCommitsCache = null;
-		pullRequestsCache = null;
+		allCommitsCache.clear();
+		mergeCommitsCache.clear();
+		pullRequestsCache.clear();
 		fileHistoryCache.clear();
+		commitTableCache.clear();
+		historyIndexCache.clear();
+		commitGraphCache.clear();
+		testImpactCache.clear();
+		diffService.clear();
+	}
+	
+	/**
+	 * Limit the history to the commits not reachable from the given commit, so that only the
+	 * commits added since a previous analysis are considered.
+	 * All caches are cleared.
+	 * 
+	 * @param boundary The commit whose history is excluded, or null to consider the whole history
+	 */
+	public void setHistoryBoundary(AnyObjectId boundary) {
+		historyBoundary = boundary == null ? null : boundary.copy();
+		clearCaches();
+	}
+	
+	/**
+	 * @return The commit whose history is excluded, or null if the whole history is considered
+	 */
+	public ObjectId getHistoryBoundary() {
+		return historyBoundary;
+	}
+	
+	/**
+	 * Limit the history to the commits whose commit time is within the given window, both ends included.
+	 * The walks are stopped at the first commit older than the start of the window, so that the cost of
+	 * the analysis depends on the window and not on the whole history; as with {@code git log --since},
+	 * older commits reachable through a commit with a skewed clock are not considered.
+	 * All caches are cleared.
+	 * 
+	 * @param since The start of the window, or null for no start
+	 * @param until The end of the window, or null for no end
+	 */
+	public void setTimeWindow(Instant since, Instant until) {
+		if (since != null && until != null && since.isAfter(until)) {
+			throw new IllegalArgumentException("Empty time window: " + since + " is after " + until);
+		}
+		this.since = since;
+		this.until = until;
+		clearCaches();
+	}
+	
+	public Instant getSince() {
+		return since;
+	}
+	
+	public Instant getUntil() {
+		return until;
+	}
+	
+	/**
+	 * Limit the analysis to a revision range: {@code <from>..<to>} analyzes the files of {@code <to>}
+	 * and the commits reachable from it but not from {@code <from>}. Either end may be omitted, e.g.
+	 * {@code v1.0..} for the commits since v1.0 up to HEAD or {@code release} for the whole history of
+	 * the release branch. The branches of the analyzed repository are found among the remote tracking
+	 * branches of the clone. Without a range, the history of HEAD is analyzed, along with the other refs
+	 * for the pull request memberships.
+	 * All caches are cleared.
+	 * 
+	 * @param range The revision range, or null for the history of HEAD
+	 * @throws IllegalArgumentException if the range is not valid
+	 */
+	public void setRefRange(String range) {
+		if (range != null) {
+			parseRefRange(range);
+		}
+		refRange = range;
+		clearCaches();
+	}
+	
+	public String getRefRange() {
+		return refRange;
+	}
+	
+	private static String[] parseRefRange(String range) {
+		int dots = range.indexOf("..");
+		String from = dots < 0 ? "" : range.substring(0, dots).trim();
+		String to = (dots < 0 ? range : range.substring(dots + 2)).trim();
+		if (to.startsWith(".") || to.contains("..")) {
+			throw new IllegalArgumentException("Invalid revision range: " + range);
+		}
+		return new String[] { from.isEmpty() ? null : from, to.isEmpty() ? Constants.HEAD : to };
 	}
 	
+	private ObjectId resolve(String revision) throws IOException {
+		ObjectId id = git.getRepository().resolve(revision + "^{commit}");
+		if (id == null) {
+			// the branches of the cloned repository are remote tracking branches in the clone
+			id = git.getRepository().resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + revision + "^{commit}");
+		}
+		if (id == null) {
+			throw new IOException("Unknown revision " + revision);
+		}
+		return id;
+	}
+	
+	/**
+	 * @return The analyzed commit: the end of the revision range, HEAD by default
+	 */
+	public ObjectId resolveHead() throws IOException {
+		String range = refRange;
+		return range == null ? git.getRepository().resolve(Constants.HEAD) : resolve(parseRefRange(range)[1]);
+	}
+	
+	/**
+	 * @return The commits whose history is excluded: the history boundary and the start of the revision range
+	 */
+	public List<ObjectId> getBoundaries() throws IOException {
+		List<ObjectId> boundaries = new ArrayList<>(2);
+		ObjectId boundary = historyBoundary;
+		if (boundary != null) {
+			boundaries.add(boundary);
+		}
+		String range = refRange;
+		String from = range == null ? null : parseRefRange(range)[0];
+		if (from != null) {
+			boundaries.add(resolve(from));
+		}
+		return boundaries;
+	}
+	
+	/**
+	 * @return The filter of the commits within the time window, {@link RevFilter#ALL} if there is none
+	 */
+	public RevFilter getTimeWindowFilter() {
+		return timeWindowFilter(since, until);
+	}
+	
+	/**
+	 * @return The filter of the commits after the start of the time window, {@link RevFilter#ALL} if there is none
+	 */
+	public RevFilter getSinceFilter() {
+		return timeWindowFilter(since, null);
+	}
+	
+	private static RevFilter timeWindowFilter(Instant since, Instant until) {
+		if (since != null && until != null) {
+			// not between, which does not stop the walk
+			return AndRevFilter.create(CommitTimeRevFilter.after(since.toEpochMilli()), CommitTimeRevFilter.before(until.toEpochMilli()));
+		} else if (since != null) {
+			return CommitTimeRevFilter.after(since.toEpochMilli());
+		} else if (until != null) {
+			return CommitTimeRevFilter.before(until.toEpochMilli());
+		}
+		return RevFilter.ALL;
+	}
+	
+	/**
+	 * Only follow the mainline, i.e. the first parent of the merge commits, as {@code git log --first-parent}.
+	 * The commits of the side branches are not walked: each merge commit is a change of its own, with its
+	 * changes against the first parent, and makes a pull request of its own. The commit table, the history
+	 * index and the file histories are built from the analyzed commit only, not from the other refs.
+	 * All caches are cleared.
+	 * 
+	 * @param firstParent Whether to only follow the first parent of the merge commits
+	 */
+	public void setFirstParent(boolean firstParent) {
+		this.firstParent = firstParent;
+		clearCaches();
+	}
+	
+	public boolean isFirstParent() {
+		return firstParent;
+	}
+	
+	/**
+	 * Share the walk building the history index with other analyses: the listeners receive the commits
+	 * and the changes of the paths included by the path filter as the index is built, once.
+	 * All caches are cleared, so that the next request of the history index walks the history again.
+	 * 
+	 * @param listeners The listeners of the walk, none by default
+	 */
+	public void setHistoryListeners(List<? extends HistoryListener> listeners) {
+		historyListeners = List.copyOf(listeners);
+		clearCaches();
+	}
+	
+	public List<HistoryListener> getHistoryListeners() {
+		return historyListeners;
+	}
+	
+	/**
+	 * Set the check of the cancellation of the analysis, made before each commit by the walks building the
+	 * commit table and the history index, which then throw a {@link java.util.concurrent.CancellationException}.
+	 * The caches are kept, a cancelled build caches nothing.
+	 * 
+	 * @param cancellation Tells whether the analysis has been cancelled, never by default
+	 */
+	public void setCancellation(BooleanSupplier cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	public BooleanSupplier getCancellation() {
+		return cancellation;
+	}
+	
+	/**
+	 * Set the rules extracting the pull request ids from the merge commit messages.
+	 * All caches are cleared.
+	 * 
+	 * @param rules The rules, {@link PullRequestIdRules#DEFAULT} by default
+	 */
+	public void setPullRequestIdRules(PullRequestIdRules rules) {
+		pullRequestIdRules = Objects.requireNonNull(rules);
+		clearCaches();
+	}
+	
+	public PullRequestIdRules getPullRequestIdRules() {
+		return pullRequestIdRules;
+	}
+	
+	/**
+	 * Set the path patterns of the test files, telling which commits affect tests.
+	 * All caches are cleared.
+	 * 
+	 * @param filter The test paths, {@link TestPathFilter#DEFAULT} by default
+	 */
+	public void setTestPathFilter(TestPathFilter filter) {
+		testPathFilter = Objects.requireNonNull(filter);
+		clearCaches();
+	}
+	
+	public TestPathFilter getTestPathFilter() {
+		return testPathFilter;
+	}
+	
+	/**
+	 * Limit the files on HEAD and the history index to the paths included by a filter, applied within
+	 * the tree walks so that the other paths are never listed.
+	 * All caches are cleared.
+	 * 
+	 * @param filter The filter of the analyzed paths, {@link TreeFilter#ALL} by default
+	 */
+	public void setPathFilter(TreeFilter filter) {
+		pathFilter = Objects.requireNonNull(filter);
+		clearCaches();
+	}
+	
+	public TreeFilter getPathFilter() {
+		return pathFilter;
+	}
+	
+	/**
+	 * @return The files on HEAD included by the path filter
+	 */
 	public Set<String> getFilesOnHEAD() throws Exception
 	{
 		try (TreeWalk walk = new TreeWalk(git.getRepository())) {
 		    walk.setRecursive(true);
+		    walk.setFilter(pathFilter);
 		    Set<String> files = new TreeSet<>(); // Uses natural ordering
-			RevCommit commit = git.log().call().iterator().next();
-			walk.reset(commit.getTree());
+			try (RevWalk rw = new RevWalk(walk.getObjectReader())) {
+				walk.reset(rw.parseTree(resolveHead()));
+			}
 			while (walk.next()) {
 				files.add(walk.getPathString());
 			}
@@ -135,33 +571,48 @@ public class JGitUtils implements AutoCloseable {
 
 	public Set<String> getChangedFiles(RevTree commitTree) throws Exception
 	{
-	    try (TreeWalk walk = new TreeWalk(git.getRepository())) {
-		    walk.setRecursive(true);
-		    Set<String> files = new TreeSet<>(); // Uses natural ordering
-			walk.reset(commitTree);
-			while (walk.next()) {
-				files.add(walk.getPathString());
-			}
-			return files;
-	    }
+		return new TreeSet<>(diffService.getPaths(commitTree));
+	}
+	
+	/**
+	 * Get the files in a commit tree, reading objects through the given reader.
+	 * 
+	 * @param commitTree The commit tree
+	 * @param reader The reader to use, confined to the calling thread
+	 * @return The files in the tree
+	 */
+	public Set<String> getChangedFiles(RevTree commitTree, ObjectReader reader) throws Exception
+	{
+		return diffService.getPaths(commitTree, reader);
 	}
 	
 	public Set<String> getChangedFiles(RevTree parentCommitTree, RevTree commitTree) throws Exception
 	{
-	    try (TreeWalk walk = new TreeWalk(git.getRepository())) {
-		    walk.setRecursive(true);
-		    walk.setFilter(TreeFilter.ANY_DIFF);
-	        walk.reset(parentCommitTree.getId(), commitTree.getId());
-	        List<DiffEntry>changes = DiffEntry.scan(walk);
-		    Set<String> files = new TreeSet<>(); // Uses natural ordering
-	        changes.forEach(de->
-	        {
-	            files.add(de.getNewPath());
-	        });
-		    return files;
-	    }
+		return new TreeSet<>(diffService.getChangedPaths(parentCommitTree, commitTree));
 	}
 	
+	/**
+	 * Get the files changed between two trees, reading objects through the given reader.
+	 * 
+	 * @param parentCommitTree The parent commit tree
+	 * @param commitTree The commit tree
+	 * @param reader The reader to use, confined to the calling thread
+	 * @return The changed files
+	 */
+	public Set<String> getChangedFiles(RevTree parentCommitTree, RevTree commitTree, ObjectReader reader) throws Exception
+	{
+		return diffService.getChangedPaths(parentCommitTree, commitTree, reader);
+	}
+	
+	/**
+	 * Get the service computing the paths changed by the commits, whose results are cached
+	 * until the caches are cleared.
+	 * 
+	 * @return The diff service
+	 */
+	public DiffService getDiffService() {
+		return diffService;
+	}
 	
 	public static class DiffCollector extends RenameCallback {
 		List<DiffEntry> diffs = new ArrayList<DiffEntry>();
@@ -175,42 +626,136 @@ public class JGitUtils implements AutoCloseable {
 	/**
 	 * Get the commit history for a specific file.
 	 * Uses caching to improve performance for repeated calls.
+	 * Along the first parents, the history is read from the history index: the FollowFilter simplifies
+	 * a merge leaving the file as on its second parent to that parent, off the mainline.
 	 * 
 	 * @param filepath Path to the file
-	 * @return List of commits that modified the file
+	 * @return Unmodifiable list of commits that modified the file
 	 */
 	public List<RevCommit> getFileHistory(String filepath) throws Exception {
-		// Check cache first
-		if (fileHistoryCache.containsKey(filepath)) {
-			// Return a copy to prevent modification of the cache
-			return new ArrayList<>(fileHistoryCache.get(filepath));
+		FutureTask<List<RevCommit>> task = fileHistoryCache.get(filepath);
+		if (task == null) {
+			FutureTask<List<RevCommit>> newTask = new FutureTask<>(() -> loadFileHistory(filepath));
+			task = fileHistoryCache.putIfAbsent(filepath, newTask);
+			if (task == null) {
+				task = newTask;
+				newTask.run();
+			}
 		}
-		
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			// Do not cache failures
+			fileHistoryCache.remove(filepath, task);
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+	
+	private List<RevCommit> loadFileHistory(String filepath) throws Exception {
 		Repository repo = git.getRepository();
-		Config config = repo.getConfig();
-		config.setBoolean("diff", null, "renames", true);
-
-		try (RevWalk rw = new RevWalk(repo)) {
+		if (firstParent) {
+			try (RevWalk rw = new RevWalk(repo)) {
+				List<RevCommit> list = new ArrayList<>();
+				for (ObjectId id : getHistoryIndex().getFileHistory(filepath)) {
+					list.add(rw.parseCommit(id));
+				}
+				return Collections.unmodifiableList(list);
+			}
+		}
+		try (ObjectReader reader = newObjectReader();
+				RevWalk rw = new RevWalk(reader)) {
 			DiffCollector diffCollector = new DiffCollector();
 	
-			org.eclipse.jgit.diff.DiffConfig dc = config.get(org.eclipse.jgit.diff.DiffConfig.KEY);
-			FollowFilter followFilter = FollowFilter.create(filepath, dc);
+			FollowFilter followFilter = FollowFilter.create(filepath, followDiffConfig);
 			followFilter.setRenameCallback(diffCollector);
 			rw.setTreeFilter(followFilter);
-			rw.markStart(rw.parseCommit(repo.resolve(Constants.HEAD)));
+			rw.setRevFilter(getTimeWindowFilter());
+			rw.markStart(rw.parseCommit(resolveHead()));
+			for (ObjectId boundary : getBoundaries()) {
+				rw.markUninteresting(rw.parseCommit(boundary));
+			}
 	
 			List<RevCommit> list = new ArrayList<>();
 			for (RevCommit rc : rw) {
 				list.add(rc);
 			}
-			
-			// Cache the result
-			fileHistoryCache.put(filepath, list);
-			
-			return list;
+			return Collections.unmodifiableList(list);
 		}
 	}
 	
+	/**
+	 * Get the history index of the repository, built with a single walk from HEAD, of the paths included
+	 * by the path filter and the paths they were renamed from.
+	 * With a commit-graph and a path filter, and unless listeners share the walk, the commits that cannot
+	 * touch the directories of the files on HEAD are not diffed: the histories of these files and of the
+	 * paths they were renamed from are complete, the ones of the other paths may not be.
+	 * Uses caching to improve performance for repeated calls.
+	 * 
+	 * @return The history index
+	 * @see #updateCommitGraph()
+	 */
+	public HistoryIndex getHistoryIndex() throws Exception {
+		return historyIndexCache.get();
+	}
+	
+	private HistoryIndex loadHistoryIndex() throws Exception {
+		Repository repo = git.getRepository();
+		TreeFilter filter = pathFilter;
+		List<HistoryListener> listeners = historyListeners;
+		Collection<String> scope = null;
+		if (filter instanceof PathContainsFilter && listeners.isEmpty() && commitGraphCache.get().isPresent()) {
+			scope = ((PathContainsFilter) filter).getScope(getFilesOnHEAD());
+		}
+		try (ObjectReader reader = newObjectReader()) {
+			return HistoryIndex.build(repo, reader, resolveHead(), getBoundaries(), getTimeWindowFilter(), firstParent,
+					getCommitTable(), filter, listeners, cancellation, scope);
+		}
+	}
+	
+	/**
+	 * Create a walk on the repository which does not retain commit messages, to be used by the
+	 * methods taking a walk: only commit headers and trees are needed to detect the changed files.
+	 * 
+	 * @return The walk, to be closed by the caller
+	 */
+	public RevWalk newRevWalk() {
+		RevWalk walk = new RevWalk(git.getRepository());
+		walk.setRetainBody(false);
+		return walk;
+	}
+	
+	/**
+	 * Get the compact table of all the commits in the repository, along with their pull requests.
+	 * Unlike {@link #getAllCommits()}, no RevCommit is retained.
+	 * Uses caching to improve performance for repeated calls.
+	 * 
+	 * @return The commit table
+	 */
+	public CommitTable getCommitTable() throws Exception {
+		return commitTableCache.get();
+	}
+	
+	private CommitTable loadCommitTable() throws Exception {
+		Repository repo = git.getRepository();
+		// HEAD first, so that the commits are attributed to the PRs of the analyzed history
+		List<ObjectId> starts = new ArrayList<>();
+		ObjectId head = resolveHead();
+		if (head != null) {
+			starts.add(head);
+		}
+		// the other refs are walked for the pull request memberships, along the first parents there are none to find
+		if (refRange == null && !firstParent) {
+			for (Ref ref : repo.getRefDatabase().getRefs()) {
+				if (ref.getObjectId() != null) {
+					starts.add(ref.getObjectId());
+				}
+			}
+		}
+		// the commits after the end of the window are kept, the analyzed history is reached through them
+		return CommitTable.build(repo, starts, getBoundaries(), getSinceFilter(), firstParent, this::extractPullRequestId,
+				cancellation);
+	}
+	
 	public void blameOnFile(String filepath) throws Exception {
         final BlameResult result = git.blame().setFilePath(filepath)
           .setTextComparator(RawTextComparator.WS_IGNORE_ALL).call();
@@ -229,18 +774,11 @@ public class JGitUtils implements AutoCloseable {
 	}
 	
 	public RevCommit getParentCommit(RevCommit commit) throws Exception {
-		try (RevWalk revWalk = new RevWalk(git.getRepository())) {
-		    RevCommit c = revWalk.parseCommit(commit);
-		    return c.getParent(0);
-		}
+		return diffService.parseCommit(commit).getParent(0);
 	}
 	
 	public RevTree getParentCommitTree(RevCommit commit) throws Exception {
-		try (RevWalk revWalk = new RevWalk(git.getRepository())) {
-		    RevCommit c = revWalk.parseCommit(commit);
-		    RevCommit p = c.getParent(0);
-		    return revWalk.parseTree(p);
-		}
+		return diffService.parseTree(diffService.parseCommit(commit).getParent(0));
 	}
 	
 	/**
@@ -254,68 +792,53 @@ public class JGitUtils implements AutoCloseable {
 	}
 	
 	/**
-	 * Extract pull request ID from a merge commit message.
+	 * Extract pull request ID from a commit message, using the configured rules.
 	 * Common formats include:
-	 * - "Merge pull request #123 from..."
+	 * - "Merge pull request #123 from..." for merge commits
+	 * - "Fix the parser (#123)" for squash merged commits
 	 * 
-	 * @param commit The merge commit to analyze
+	 * @param commit The commit to analyze, merged, squashed or rebased
 	 * @return The pull request ID or null if not found
+	 * @see #setPullRequestIdRules(PullRequestIdRules)
+	 * @see CommitTable
 	 */
 	public String extractPullRequestId(RevCommit commit) {
-		if (!isMergeCommit(commit)) {
-			return null;
-		}
-		
-		String message = commit.getFullMessage();
-		
-		// Pattern for GitHub PR merge commits
-		Pattern prPattern = Pattern.compile("Merge pull request #(\\d+)");
-		Matcher matcher = prPattern.matcher(message);
-		
-		if (matcher.find()) {
-			return matcher.group(1);
-		}
-		
-		// Fallback patterns for other PR references
-		Pattern[] fallbackPatterns = {
-			Pattern.compile("\\[PR[\\s-]?(\\d+)\\]"),
-			Pattern.compile("\\(#(\\d+)\\)"),
-			Pattern.compile("Merge PR #(\\d+)"),
-		};
-		
-		for (Pattern pattern : fallbackPatterns) {
-			matcher = pattern.matcher(message);
-			if (matcher.find()) {
-				return matcher.group(1);
-			}
-		}
-		
-		return null;
+		return pullRequestIdRules.extract(commit.getFullMessage());
 	}
 	
 	/**
-	 * Get all commits in the repository.
+	 * Get all commits in the repository, reachable from any ref or, with a revision range, from its end,
+	 * and within the time window if any.
 	 * Uses caching to improve performance for repeated calls.
 	 * 
-	 * @return List of all commits in the repository
+	 * @return Unmodifiable list of all commits in the repository
 	 */
 	public List<RevCommit> getAllCommits() throws Exception {
-		if (allCommitsCache == null) {
-			allCommitsCache = new ArrayList<>();
-			
-			try {
-				Iterable<RevCommit> commits = git.log().all().call();
-				for (RevCommit commit : commits) {
-					allCommitsCache.add(commit);
-				}
-			} catch (Exception e) {
-				LOGGER.error("Error getting all commits", e);
-				throw e;
+		// The cached list is read-only, no need to copy it
+		return allCommitsCache.get();
+	}
+	
+	private List<RevCommit> loadAllCommits() throws Exception {
+		List<RevCommit> allCommits = new ArrayList<>();
+		try {
+			LogCommand log = git.log().setRevFilter(getTimeWindowFilter());
+			if (refRange == null) {
+				log.all();
+			} else {
+				log.add(resolveHead());
+			}
+			for (ObjectId boundary : getBoundaries()) {
+				log.not(boundary);
 			}
+			Iterable<RevCommit> commits = log.call();
+			for (RevCommit commit : commits) {
+				allCommits.add(commit);
+			}
+		} catch (Exception e) {
+			LOGGER.error("Error getting all commits", e);
+			throw e;
 		}
-		
-		// Return a copy to prevent modification of the cache
-		return new ArrayList<>(allCommitsCache);
+		return Collections.unmodifiableList(allCommits);
 	}
 	
 	/**
@@ -346,22 +869,21 @@ public class JGitUtils implements AutoCloseable {
 	 * Get all merge commits in the repository.
 	 * Uses caching to improve performance for repeated calls.
 	 * 
-	 * @return List of merge commits
+	 * @return Unmodifiable list of merge commits
 	 */
 	public List<RevCommit> getMergeCommits() throws Exception {
-		if (mergeCommitsCache == null) {
-			List<RevCommit> allCommits = getAllCommits();
-			mergeCommitsCache = new ArrayList<>();
-			
-			for (RevCommit commit : allCommits) {
-				if (isMergeCommit(commit)) {
-					mergeCommitsCache.add(commit);
-				}
+		// The cached list is read-only, no need to copy it
+		return mergeCommitsCache.get();
+	}
+	
+	private List<RevCommit> loadMergeCommits() throws Exception {
+		List<RevCommit> mergeCommits = new ArrayList<>();
+		for (RevCommit commit : allCommitsCache.get()) {
+			if (isMergeCommit(commit)) {
+				mergeCommits.add(commit);
 			}
 		}
-		
-		// Return a copy to prevent modification of the cache
-		return new ArrayList<>(mergeCommitsCache);
+		return Collections.unmodifiableList(mergeCommits);
 	}
 	
 	/**
@@ -406,35 +928,28 @@ public class JGitUtils implements AutoCloseable {
 	 * that were part of each PR.
 	 * Uses caching to improve performance for repeated calls.
 	 * 
-	 * @return Map of PR ID to list of commits in that PR
+	 * @return Unmodifiable map of PR ID to unmodifiable list of commits in that PR
 	 */
 	public Map<String, List<RevCommit>> getAllPullRequests() throws Exception {
-		if (pullRequestsCache == null) {
-			List<RevCommit> mergeCommits = getMergeCommits();
-			pullRequestsCache = new HashMap<>();
-			
-			for (RevCommit mergeCommit : mergeCommits) {
-				String prId = extractPullRequestId(mergeCommit);
-				
-				if (prId != null) {
-					// Get all commits that were merged in this PR
-					List<RevCommit> prCommits = getMergedCommits(mergeCommit);
-					
-					// Add the merge commit itself
-					prCommits.add(mergeCommit);
-					
-					pullRequestsCache.put(prId, prCommits);
+		// The cached map and lists are read-only, no need to copy them
+		return pullRequestsCache.get();
+	}
+	
+	private Map<String, List<RevCommit>> loadAllPullRequests() throws Exception {
+		// The memberships are computed by the commit table with a single walk, instead of a walk per merge
+		CommitTable table = getCommitTable();
+		Map<String, List<RevCommit>> pullRequests = new HashMap<>();
+		try (RevWalk revWalk = new RevWalk(git.getRepository())) {
+			for (int pr = 0; pr < table.getPullRequestCount(); pr++) {
+				int[] commits = table.getPullRequestCommits(pr);
+				List<RevCommit> prCommits = new ArrayList<>(commits.length);
+				for (int c : commits) {
+					prCommits.add(revWalk.parseCommit(table.getId(c)));
 				}
+				pullRequests.put(table.getPullRequestId(pr), Collections.unmodifiableList(prCommits));
 			}
 		}
-		
-		// Return a deep copy to prevent modification of the cache
-		Map<String, List<RevCommit>> result = new HashMap<>();
-		for (Map.Entry<String, List<RevCommit>> entry : pullRequestsCache.entrySet()) {
-			result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
-		}
-		
-		return result;
+		return Collections.unmodifiableMap(pullRequests);
 	}
 	
 	/**
@@ -444,60 +959,33 @@ public class JGitUtils implements AutoCloseable {
 	 * @return Map of PR ID to list of commits in that PR that modify the file
 	 */
 	public Map<String, List<RevCommit>> getPullRequestsForFile(String filepath) throws Exception {
-		// Get all PRs in the repository
-		Map<String, List<RevCommit>> allPRs = getAllPullRequests();
-		
-		// Get the file's commit history
-		List<RevCommit> fileHistory = getFileHistory(filepath);
-		Set<String> fileCommitHashes = new HashSet<>();
-		for (RevCommit commit : fileHistory) {
-			fileCommitHashes.add(commit.getName());
-		}
+		return getPullRequestsForFile(getFileHistory(filepath));
+	}
+	
+	/**
+	 * Find all pull requests that include the given commits of a file history.
+	 * 
+	 * @param fileHistory The commits that modified a file
+	 * @return Map of PR ID to list of commits in that PR that modify the file
+	 */
+	public Map<String, List<RevCommit>> getPullRequestsForFile(List<RevCommit> fileHistory) throws Exception {
+		CommitTable table = getCommitTable();
 		
-		// Find PRs that include commits modifying this file
+		// Group the commits modifying the file by the PRs including them, as recorded by the commit table
 		Map<String, List<RevCommit>> fileCommitsByPR = new HashMap<>();
-		
-		// First, check PRs identified through merge commits
-		for (Map.Entry<String, List<RevCommit>> entry : allPRs.entrySet()) {
-			String prId = entry.getKey();
-			List<RevCommit> prCommits = entry.getValue();
-			
-			// Find commits in this PR that modified the file
-			List<RevCommit> fileCommitsInPR = new ArrayList<>();
-			for (RevCommit commit : prCommits) {
-				if (fileCommitHashes.contains(commit.getName())) {
-					fileCommitsInPR.add(commit);
-				}
-			}
-			
-			// If this PR includes commits that modified the file, add it to the result
-			if (!fileCommitsInPR.isEmpty()) {
-				fileCommitsByPR.put(prId, fileCommitsInPR);
-			}
-		}
-		
-		// Then, handle individual commits that aren't part of an identified PR
 		for (RevCommit commit : fileHistory) {
-			boolean isInPR = false;
-			
-			// Check if this commit is already included in a PR
-			for (List<RevCommit> prCommits : fileCommitsByPR.values()) {
-				for (RevCommit prCommit : prCommits) {
-					if (prCommit.getName().equals(commit.getName())) {
-						isInPR = true;
-						break;
-					}
-				}
-				if (isInPR) {
-					break;
-				}
-			}
-			
-			// If not in a PR, add it as an individual commit
-			if (!isInPR) {
+			int ordinal = table.getOrdinal(commit);
+			int count = ordinal == CommitTable.NONE ? 0 : table.getCommitPullRequestCount(ordinal);
+			if (count == 0) {
+				// If not in a PR, add it as an individual commit
 				List<RevCommit> individualCommit = new ArrayList<>();
 				individualCommit.add(commit);
 				fileCommitsByPR.put(commit.getName(), individualCommit);
+			} else {
+				for (int i = 0; i < count; i++) {
+					String prId = table.getPullRequestId(table.getCommitPullRequest(ordinal, i));
+					fileCommitsByPR.computeIfAbsent(prId, k -> new ArrayList<>()).add(commit);
+				}
 			}
 		}
 		
@@ -508,29 +996,12 @@ public class JGitUtils implements AutoCloseable {
 	 * Get all commits in a specific pull request.
 	 * 
 	 * @param prId Pull request ID
-	 * @return List of all commits in the PR
+	 * @return Unmodifiable list of all commits in the PR
 	 */
 	public List<RevCommit> getCommitsInPullRequest(String prId) throws Exception {
-		Map<String, List<RevCommit>> allPRs = getAllPullRequests();
-		
-		// If we have this PR in our map, return its commits
-		if (allPRs.containsKey(prId)) {
-			return allPRs.get(prId);
-		}
-		
-		// If not found in PRs identified through merge commits, try the old approach
-		List<RevCommit> allCommits = getAllCommits();
-		List<RevCommit> prCommits = new ArrayList<>();
-		
-		for (RevCommit commit : allCommits) {
-			String commitPrId = extractPullRequestId(commit);
-			
-			if (prId.equals(commitPrId)) {
-				prCommits.add(commit);
-			}
-		}
-		
-		return prCommits;
+		// Merged, squashed and rebased PRs are all found by the commit table, no need to scan the commits
+		List<RevCommit> commits = getAllPullRequests().get(prId);
+		return commits != null ? commits : Collections.emptyList();
 	}
 	
 	/**
@@ -540,22 +1011,142 @@ public class JGitUtils implements AutoCloseable {
 	 * @return true if any commit in the PR affects test files
 	 */
 	public boolean pullRequestAffectsTests(List<RevCommit> prCommits) throws Exception {
+		try (RevWalk walk = new RevWalk(git.getRepository())) {
+			return pullRequestAffectsTests(prCommits, walk);
+		}
+	}
+	
+	/**
+	 * Check if any commit in a pull request affects test files, parsing commits and trees
+	 * with the given walk.
+	 * 
+	 * @param prCommits List of commits in a pull request
+	 * @param walk The walk to use, confined to the calling thread
+	 * @return true if any commit in the PR affects test files
+	 */
+	public boolean pullRequestAffectsTests(List<RevCommit> prCommits, RevWalk walk) throws Exception {
 		for (RevCommit commit : prCommits) {
-			Set<String> changedFiles;
-			if (commit.getParentCount() > 0) {
-				RevTree parentTree = getParentCommitTree(commit);
-				changedFiles = getChangedFiles(parentTree, commit.getTree());
-			} else {
-				changedFiles = getChangedFiles(commit.getTree());
+			if (commitAffectsTests(commit, walk)) {
+				return true;
 			}
-			
-			for (String file : changedFiles) {
-				if (file.contains("src/test")) {
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Check if any commit in a pull request affects test files.
+	 * The result is computed once per PR, even by concurrent callers, and then reused.
+	 * 
+	 * @param prId Pull request ID
+	 * @return true if any commit in the PR affects test files
+	 */
+	public boolean pullRequestAffectsTests(String prId) throws Exception {
+		try (RevWalk walk = new RevWalk(git.getRepository())) {
+			return pullRequestAffectsTests(prId, walk);
+		}
+	}
+	
+	/**
+	 * Check if any commit in a pull request affects test files, parsing commits and trees
+	 * with the given walk.
+	 * The result is computed once per PR, even by concurrent callers, and then reused.
+	 * 
+	 * @param prId Pull request ID
+	 * @param walk The walk to use, confined to the calling thread
+	 * @return true if any commit in the PR affects test files
+	 */
+	public boolean pullRequestAffectsTests(String prId, RevWalk walk) throws Exception {
+		int pr = getCommitTable().getPullRequestOrdinal(prId);
+		if (pr != CommitTable.NONE) {
+			return pullRequestAffectsTests(pr, walk);
+		}
+		return testImpactCache.get().getPullRequest(prId, () -> pullRequestAffectsTests(getCommitsInPullRequest(prId), walk));
+	}
+	
+	/**
+	 * Check if any commit in a pull request of the commit table affects test files, parsing
+	 * commits and trees with the given walk.
+	 * The result is computed once per PR, even by concurrent callers, and then reused.
+	 * 
+	 * @param pr The pull request ordinal in the commit table
+	 * @param walk The walk to use, confined to the calling thread
+	 * @return true if any commit in the PR affects test files
+	 */
+	public boolean pullRequestAffectsTests(int pr, RevWalk walk) throws Exception {
+		CommitTable table = getCommitTable();
+		String prId = table.getPullRequestId(pr);
+		return testImpactCache.get().getPullRequest(prId, () -> {
+			for (int c : table.getPullRequestCommits(pr)) {
+				if (commitAffectsTests(c, walk)) {
 					return true;
 				}
 			}
+			return false;
+		});
+	}
+	
+	/**
+	 * Check if a commit affects test files.
+	 * The result is computed once per commit and then reused.
+	 * 
+	 * @param commit The commit id
+	 * @return true if the commit affects test files
+	 */
+	public boolean commitAffectsTests(AnyObjectId commit) throws Exception {
+		try (RevWalk walk = new RevWalk(git.getRepository())) {
+			return commitAffectsTests(commit, walk);
+		}
+	}
+	
+	/**
+	 * Check if a commit affects test files, parsing commits and trees with the given walk.
+	 * The result is computed once per commit of the commit table and then reused.
+	 * 
+	 * @param commit The commit id
+	 * @param walk The walk to use, confined to the calling thread
+	 * @return true if the commit affects test files
+	 */
+	public boolean commitAffectsTests(AnyObjectId commit, RevWalk walk) throws Exception {
+		return commitAffectsTests(getCommitTable().getOrdinal(commit), commit, walk);
+	}
+	
+	/**
+	 * Check if a commit of the commit table affects test files, parsing commits and trees with
+	 * the given walk.
+	 * The result is computed once per commit and then reused.
+	 * 
+	 * @param ordinal The commit ordinal in the commit table
+	 * @param walk The walk to use, confined to the calling thread
+	 * @return true if the commit affects test files
+	 */
+	public boolean commitAffectsTests(int ordinal, RevWalk walk) throws Exception {
+		return commitAffectsTests(ordinal, getCommitTable().getId(ordinal), walk);
+	}
+	
+	private TestImpactCache loadTestImpactCache() throws Exception {
+		return new TestImpactCache(getCommitTable().size());
+	}
+	
+	private boolean commitAffectsTests(int ordinal, AnyObjectId commit, RevWalk walk) throws Exception {
+		TestImpactCache cache = testImpactCache.get();
+		Boolean tested = cache.getCommit(ordinal);
+		if (tested == null) {
+			TestPathFilter filter = testPathFilter;
+			if (diffService.isCached(commit)) {
+				tested = false;
+				for (String file : diffService.getChangedPaths(commit, walk)) {
+					if (!DiffEntry.DEV_NULL.equals(file) && filter.matches(file)) {
+						tested = true;
+						break;
+					}
+				}
+			} else {
+				// stops at the first test file, without listing the changed files
+				tested = diffService.changesPath(commit, walk, filter);
+			}
+			cache.putCommit(ordinal, tested);
 		}
-		
-		return false;
+		return tested;
 	}
 }
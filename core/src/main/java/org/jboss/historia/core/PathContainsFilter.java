@@ -0,0 +1,128 @@
+package org.jboss.historia.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Tree filter including the files whose path contains a given string, the path filter of the analysis.
+ * The raw path bytes are matched in the path buffer of the walk, so that the path is neither copied
+ * nor turned into a string for the excluded files.
+ * The string may occur below any directory, so every subtree is entered.
+ *
+ * The filter is immutable and can be shared among threads and walks.
+ *
+ * @author alessio
+ *
+ */
+public class PathContainsFilter extends TreeFilter {
+
+	private final String pathFilter;
+	private final byte[] raw;
+
+	/**
+	 * @param pathFilter The string the included paths contain, e.g. "src/main/java"
+	 * @throws IllegalArgumentException if the string is empty
+	 */
+	public PathContainsFilter(String pathFilter) {
+		if (pathFilter.isEmpty()) {
+			throw new IllegalArgumentException("Empty path filter");
+		}
+		this.pathFilter = pathFilter;
+		this.raw = pathFilter.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param pathFilter The string the included paths contain, or null to include all the files
+	 * @return The filter
+	 */
+	public static TreeFilter create(String pathFilter) {
+		return pathFilter == null || pathFilter.isEmpty() ? TreeFilter.ALL : new PathContainsFilter(pathFilter);
+	}
+
+	/**
+	 * Get the directories the string first occurs in, in the given paths: for
+	 * "module1/src/main/java/org/A.java" and "src/main/java", "module1/src/main/java", and for
+	 * "module1/pom.xml" and "module1/", "module1". A path the string ends in is a directory of its own.
+	 * 
+	 * @param paths Paths included by the filter
+	 * @return The directories, without the ones below another
+	 */
+	public Set<String> getScope(Collection<String> paths) {
+		Set<String> scope = new TreeSet<>();
+		for (String path : paths) {
+			int index = path.indexOf(pathFilter);
+			if (index < 0) {
+				continue;
+			}
+			int end = path.indexOf('/', index + pathFilter.length() - 1);
+			scope.add(end < 0 ? path : path.substring(0, end));
+		}
+		// the directories are sorted, so the ones below another follow it
+		String previous = null;
+		for (Iterator<String> it = scope.iterator(); it.hasNext();) {
+			String directory = it.next();
+			if (previous != null && directory.startsWith(previous + "/")) {
+				it.remove();
+			} else {
+				previous = directory;
+			}
+		}
+		return scope;
+	}
+
+	@Override
+	public boolean include(TreeWalk walker) {
+		if (walker.isSubtree()) {
+			return true;
+		}
+		int length = walker.getPathLength();
+		if (length < raw.length) {
+			return false;
+		}
+		// match the path buffer of a tree at the current entry in place, rather than copying it
+		for (int i = 0; i < walker.getTreeCount(); i++) {
+			AbstractTreeIterator tree = walker.getTree(i, AbstractTreeIterator.class);
+			if (tree != null) {
+				return contains(tree.getEntryPathBuffer(), length);
+			}
+		}
+		return contains(walker.getRawPath(), length);
+	}
+
+	private boolean contains(byte[] path, int length) {
+		int last = length - raw.length;
+		for (int i = 0; i <= last; i++) {
+			int j = 0;
+			while (j < raw.length && path[i + j] == raw[j]) {
+				j++;
+			}
+			if (j == raw.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+		return true;
+	}
+
+	@Override
+	public TreeFilter clone() {
+		// stateless
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "CONTAINS(" + pathFilter + ")";
+	}
+}
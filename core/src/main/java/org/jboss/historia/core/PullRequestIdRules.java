@@ -0,0 +1,157 @@
+package org.jboss.historia.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered rules extracting a pull request id from a commit message.
+ * Each rule is a regular expression whose first capturing group is the id; when several rules
+ * match, the first rule in the list wins, wherever it matches in the message.
+ *
+ * The rules are compiled once and tried in order. Each rule is kept as a separate pattern rather
+ * than merged in an alternation, so that the rules starting with a literal, as most of them do,
+ * skip through the message instead of trying every rule at every position.
+ *
+ * The rule sets are immutable and can be shared among threads.
+ *
+ * @author alessio
+ *
+ */
+public class PullRequestIdRules {
+
+	/**
+	 * GitHub merge commits, e.g. "Merge pull request #123 from user/branch".
+	 */
+	public static final PullRequestIdRules GITHUB = new PullRequestIdRules(
+			"Merge pull request #(\\d+)");
+
+	/**
+	 * GitLab merge commits, e.g. "See merge request group/project!123".
+	 */
+	public static final PullRequestIdRules GITLAB = new PullRequestIdRules(
+			"See merge request [\\w./-]*!(\\d+)");
+
+	/**
+	 * Gerrit trailers, the change number of the "Reviewed-on" URL or else the "Change-Id".
+	 */
+	public static final PullRequestIdRules GERRIT = new PullRequestIdRules(
+			"(?m)^Reviewed-on: \\S*?/(\\d+)/?\\s*$",
+			"(?m)^Change-Id: (I[0-9a-f]{40})\\s*$");
+
+	/**
+	 * GitHub merge commits, then the usual PR references: "[PR-123]", "(#123)" and "Merge PR #123".
+	 */
+	public static final PullRequestIdRules DEFAULT = new PullRequestIdRules(
+			"Merge pull request #(\\d+)",
+			"\\[PR[\\s-]?(\\d+)\\]",
+			"\\(#(\\d+)\\)",
+			"Merge PR #(\\d+)");
+
+	private final List<String> rules;
+	private final Pattern[] patterns;
+
+	/**
+	 * @param rules The regular expressions, by priority, each with at least a capturing group
+	 * @throws IllegalArgumentException if a rule is not a valid regular expression or has no group
+	 */
+	public PullRequestIdRules(String... rules) {
+		this(Arrays.asList(rules));
+	}
+
+	/**
+	 * @param rules The regular expressions, by priority, each with at least a capturing group
+	 * @throws IllegalArgumentException if a rule is not a valid regular expression or has no group
+	 */
+	public PullRequestIdRules(List<String> rules) {
+		if (rules.isEmpty()) {
+			throw new IllegalArgumentException("No pull request id rule");
+		}
+		this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+		this.patterns = new Pattern[rules.size()];
+		for (int i = 0; i < patterns.length; i++) {
+			patterns[i] = Pattern.compile(rules.get(i));
+			if (patterns[i].matcher("").groupCount() == 0) {
+				throw new IllegalArgumentException("Pull request id rule without a capturing group: " + rules.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Parse a comma separated list of rules.
+	 * Each entry is either the name of a predefined rule set ({@code default}, {@code github},
+	 * {@code gitlab}, {@code gerrit}) or a regular expression; commas within a regular expression
+	 * are escaped with a backslash.
+	 *
+	 * @param spec The rules, e.g. "gitlab,gerrit" or "github,Merged in #(\d+)"
+	 * @return The rules
+	 * @throws IllegalArgumentException if a rule is not valid
+	 */
+	public static PullRequestIdRules parse(String spec) {
+		List<String> rules = new ArrayList<>();
+		for (String entry : spec.split("(?<!\\\\),")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			switch (entry) {
+			case "default":
+				rules.addAll(DEFAULT.rules);
+				break;
+			case "github":
+				rules.addAll(GITHUB.rules);
+				break;
+			case "gitlab":
+				rules.addAll(GITLAB.rules);
+				break;
+			case "gerrit":
+				rules.addAll(GERRIT.rules);
+				break;
+			default:
+				rules.add(entry.replace("\\,", ","));
+			}
+		}
+		return new PullRequestIdRules(rules);
+	}
+
+	/**
+	 * @return The regular expressions, by priority
+	 */
+	public List<String> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Extract the pull request id from a commit message.
+	 *
+	 * @param message The commit message
+	 * @return The id captured by the first matching rule, or null if no rule matches
+	 */
+	public String extract(String message) {
+		for (Pattern pattern : patterns) {
+			Matcher matcher = pattern.matcher(message);
+			if (matcher.find()) {
+				return matcher.group(1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The rules in the format accepted by {@link #parse(String)}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String rule : rules) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(rule.replace(",", "\\,"));
+		}
+		return sb.toString();
+	}
+}
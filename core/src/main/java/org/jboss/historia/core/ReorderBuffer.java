@@ -0,0 +1,107 @@
+package org.jboss.historia.core;
+
+/**
+ * Bounded buffer handing the results of concurrent workers to a consumer in input order.
+ * Workers claim the input indexes in order and put their results back; the consumer takes them in
+ * order, as soon as the next one is available. A worker cannot claim an index more than
+ * {@code capacity} positions ahead of the consumer, so at most {@code capacity} results are waiting
+ * to be taken, however many inputs there are and however slow some of them are.
+ *
+ * @author alessio
+ *
+ * @param <T> The type of the results
+ */
+class ReorderBuffer<T> {
+
+	private final int size;
+	private final Object[] slots;
+	// guarded by this
+	private int nextClaim;
+	private int nextTake;
+	private boolean closed;
+	private Throwable failure;
+
+	/**
+	 * @param size The number of inputs
+	 * @param capacity The maximum number of results waiting to be taken
+	 */
+	ReorderBuffer(int size, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.size = size;
+		this.slots = new Object[capacity];
+	}
+
+	/**
+	 * Claim the next input to process, waiting while the buffer is full.
+	 *
+	 * @return The index of the input, or -1 if there is none left or the buffer has been closed
+	 */
+	synchronized int claim() throws InterruptedException {
+		if (closed || nextClaim == size) {
+			return -1;
+		}
+		int index = nextClaim++;
+		while (index >= nextTake + slots.length && !closed) {
+			wait();
+		}
+		return closed ? -1 : index;
+	}
+
+	/**
+	 * Put the result of a claimed input.
+	 *
+	 * @param index The index of the input
+	 * @param result The result, not null
+	 */
+	synchronized void put(int index, T result) {
+		slots[index % slots.length] = result;
+		notifyAll();
+	}
+
+	/**
+	 * Take the result of the next input, waiting for it to be available.
+	 *
+	 * @return The result
+	 * @throws Exception The failure of a worker, if any
+	 * @throws IllegalStateException if all the results have been taken already
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized T take() throws Exception {
+		if (nextTake == size) {
+			throw new IllegalStateException("All the " + size + " results have been taken");
+		}
+		int slot = nextTake % slots.length;
+		while (slots[slot] == null && failure == null) {
+			wait();
+		}
+		if (failure != null) {
+			throw failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+		}
+		T result = (T) slots[slot];
+		slots[slot] = null;
+		nextTake++;
+		notifyAll();
+		return result;
+	}
+
+	/**
+	 * Record the failure of a worker: the consumer gets it and no more inputs are claimed.
+	 */
+	synchronized void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stop handing out inputs, e.g. when the consumer gives up.
+	 */
+	synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,244 @@
+package org.jboss.historia.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Analysis results stored in columns, as written by {@link ResultTableWriter}.
+ * The file is memory-mapped and read in place: the footer locates the columns and the modules, so that
+ * any module or range of rows is read without decoding the rows before it, and the counters of a row
+ * are read at a fixed offset. The paths are dictionary-encoded, as a directory and a name, and the
+ * strings of the dictionary are decoded when first needed.
+ *
+ * The table is immutable and can be read by several threads. The mapping is released when the table
+ * is garbage collected.
+ *
+ * @author alessio
+ *
+ */
+public class ResultTable {
+
+	private final ByteBuffer buffer;
+	private final int rows;
+	private final int stringCount;
+	private final int moduleCount;
+	private final int stringsOffset;
+	private final int offsetsOffset;
+	private final int dirsOffset;
+	private final int namesOffset;
+	private final int updatesOffset;
+	private final int untestedUpdatesOffset;
+	private final int updatesSinceLastTestedOffset;
+	private final int modulesOffset;
+	// the decoded strings, by dictionary id
+	private final String[] strings;
+
+	private ResultTable(ByteBuffer buffer, File file) throws IOException {
+		this.buffer = buffer;
+		int limit = buffer.limit();
+		if (limit < Integer.BYTES + ResultTableWriter.FOOTER_LENGTH || buffer.getInt(0) != ResultTableWriter.MAGIC
+				|| buffer.getInt(limit - Integer.BYTES) != ResultTableWriter.MAGIC
+				|| buffer.getInt(limit - 2 * Integer.BYTES) != ResultTableWriter.FOOTER_LENGTH) {
+			throw new IOException("Not a result table: " + file);
+		}
+		int footer = limit - ResultTableWriter.FOOTER_LENGTH;
+		rows = buffer.getInt(footer);
+		stringCount = buffer.getInt(footer + 4);
+		moduleCount = buffer.getInt(footer + 8);
+		stringsOffset = buffer.getInt(footer + 12);
+		offsetsOffset = buffer.getInt(footer + 16);
+		dirsOffset = buffer.getInt(footer + 20);
+		namesOffset = buffer.getInt(footer + 24);
+		updatesOffset = buffer.getInt(footer + 28);
+		untestedUpdatesOffset = buffer.getInt(footer + 32);
+		updatesSinceLastTestedOffset = buffer.getInt(footer + 36);
+		modulesOffset = buffer.getInt(footer + 40);
+		if (rows < 0 || stringCount < 0 || moduleCount < 0
+				|| offsetsOffset - stringsOffset < 0
+				|| dirsOffset - offsetsOffset != (stringCount + 1L) * Integer.BYTES
+				|| namesOffset - dirsOffset != (long) rows * Integer.BYTES
+				|| updatesOffset - namesOffset != (long) rows * Integer.BYTES
+				|| untestedUpdatesOffset - updatesOffset != (long) rows * Long.BYTES
+				|| updatesSinceLastTestedOffset - untestedUpdatesOffset != (long) rows * Long.BYTES
+				|| modulesOffset - updatesSinceLastTestedOffset != (long) rows * Long.BYTES
+				|| footer - modulesOffset != 2L * moduleCount * Integer.BYTES) {
+			throw new IOException("Corrupted result table: " + file);
+		}
+		strings = new String[stringCount];
+	}
+
+	/**
+	 * Map a table file.
+	 *
+	 * @param file The table file
+	 * @return The table
+	 * @throws IOException If the file cannot be read or is not a table
+	 */
+	public static ResultTable open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Not a result table: " + file);
+			}
+			return new ResultTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), file);
+		}
+	}
+
+	/**
+	 * @return The number of rows
+	 */
+	public int size() {
+		return rows;
+	}
+
+	public int getModuleCount() {
+		return moduleCount;
+	}
+
+	/**
+	 * @param module The index of a module, in the order of their rows
+	 * @return The prefix of the module
+	 */
+	public String getModule(int module) {
+		return string(buffer.getInt(modulesOffset + module * 2 * Integer.BYTES));
+	}
+
+	/**
+	 * @return The first row of the module
+	 */
+	public int getModuleStart(int module) {
+		return buffer.getInt(modulesOffset + module * 2 * Integer.BYTES + Integer.BYTES);
+	}
+
+	/**
+	 * @return The row after the last row of the module
+	 */
+	public int getModuleEnd(int module) {
+		return module + 1 < moduleCount ? getModuleStart(module + 1) : rows;
+	}
+
+	/**
+	 * @param prefix The prefix of a module
+	 * @return The index of the module, or -1 if the table has no row of that module
+	 */
+	public int findModule(String prefix) {
+		for (int m = 0; m < moduleCount; m++) {
+			if (getModule(m).equals(prefix)) {
+				return m;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The index of the module of the row
+	 */
+	public int getModuleOfRow(int row) {
+		checkRow(row);
+		int low = 0;
+		int high = moduleCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (getModuleStart(mid) <= row) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return The module of the file of the row
+	 */
+	public String getPrefix(int row) {
+		return getModule(getModuleOfRow(row));
+	}
+
+	/**
+	 * @return The path of the file of the row, in its module
+	 */
+	public String getPath(int row) {
+		checkRow(row);
+		String dir = string(buffer.getInt(dirsOffset + row * Integer.BYTES));
+		String name = string(buffer.getInt(namesOffset + row * Integer.BYTES));
+		return dir.isEmpty() ? name : dir + "/" + name;
+	}
+
+	public long getUpdates(int row) {
+		checkRow(row);
+		return buffer.getLong(updatesOffset + row * Long.BYTES);
+	}
+
+	public long getUntestedUpdates(int row) {
+		checkRow(row);
+		return buffer.getLong(untestedUpdatesOffset + row * Long.BYTES);
+	}
+
+	public long getUpdatesSinceLastTested(int row) {
+		checkRow(row);
+		return buffer.getLong(updatesSinceLastTestedOffset + row * Long.BYTES);
+	}
+
+	/**
+	 * @return The fields of the row, as they are exported
+	 */
+	public List<String> getRow(int row) {
+		long updates = getUpdates(row);
+		long untestedUpdates = getUntestedUpdates(row);
+		return List.of(getPrefix(row), getPath(row), String.valueOf(updates), String.valueOf(untestedUpdates),
+				String.valueOf(ResultWriter.percent(untestedUpdates, updates)), String.valueOf(getUpdatesSinceLastTested(row)));
+	}
+
+	/**
+	 * Export a range of rows, without header.
+	 *
+	 * @param from The first row
+	 * @param to The row after the last one
+	 * @param out The writer of the rows, not flushed
+	 */
+	public void export(int from, int to, ResultWriter out) throws IOException {
+		if (from < 0 || from > to || to > rows) {
+			throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " of " + rows);
+		}
+		if (from == to) {
+			return;
+		}
+		int module = getModuleOfRow(from);
+		int moduleEnd = getModuleEnd(module);
+		String prefix = getModule(module);
+		for (int row = from; row < to; row++) {
+			while (row == moduleEnd) {
+				module++;
+				moduleEnd = getModuleEnd(module);
+				prefix = getModule(module);
+			}
+			out.write(prefix, getPath(row), getUpdates(row), getUntestedUpdates(row), getUpdatesSinceLastTested(row));
+		}
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+		}
+	}
+
+	private String string(int id) {
+		String s = strings[id];
+		if (s == null) {
+			int start = buffer.getInt(offsetsOffset + id * Integer.BYTES);
+			int end = buffer.getInt(offsetsOffset + (id + 1) * Integer.BYTES);
+			byte[] bytes = new byte[end - start];
+			buffer.duplicate().position(stringsOffset + start).get(bytes);
+			s = new String(bytes, StandardCharsets.UTF_8);
+			// a benign race: the threads decode the same string
+			strings[id] = s;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,247 @@
+package org.jboss.historia.core;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdatesConsumer;
+
+/**
+ * Collects the analysis results and writes them as a {@link ResultTable}.
+ * Only the counters of each file and the dictionary ids of its module, directory and name are kept,
+ * in primitive arrays, so that the results can be consumed as they are streamed by the analysis.
+ *
+ * The file starts with a magic number and holds, in order:
+ * <ul>
+ * <li>the dictionary: the distinct modules, directories and file names, UTF-8 encoded back to back,
+ * followed by the offset of each one and the end offset of the last one, as ints;</li>
+ * <li>the columns, one row per file: the dictionary ids of the directory and of the name of the file,
+ * as ints, then its updates, untested updates and updates since the last tested one, as longs;</li>
+ * <li>the modules: the dictionary id and the first row of each one, as ints, the rows of a module
+ * being contiguous and in the order they were consumed;</li>
+ * <li>the footer: the number of rows, of strings and of modules, the offsets of the sections above
+ * and the magic number again, as ints.</li>
+ * </ul>
+ * All the numbers are big-endian.
+ *
+ * @author alessio
+ *
+ */
+public class ResultTableWriter implements FileUpdatesConsumer {
+
+	static final int MAGIC = 0x48525431; // HRT1
+	// the counts, the offsets of the 9 sections and the magic number
+	static final int FOOTER_LENGTH = 13 * Integer.BYTES;
+
+	private final Map<String, Integer> ids = new HashMap<>();
+	private byte[] strings = new byte[4096];
+	private int stringsLength;
+	private int[] stringOffsets = new int[256];
+	private int stringCount;
+
+	// the module of each module id, by dictionary id, in the order of their first row
+	private int[] modules = new int[16];
+	private int moduleCount;
+	private final Map<String, Integer> moduleIds = new HashMap<>();
+
+	private int[] rowModules = new int[1024];
+	private int[] dirs = new int[1024];
+	private int[] names = new int[1024];
+	private long[] updates = new long[1024];
+	private long[] untestedUpdates = new long[1024];
+	private long[] updatesSinceLastTested = new long[1024];
+	private int rows;
+
+	@Override
+	public void accept(FileUpdates fu) {
+		add(fu.getPrefix(), fu.getPath(), fu.getUpdates(), fu.getUntestedUpdates(), fu.getUpdatesSinceLastTested());
+	}
+
+	/**
+	 * Add the row of a file.
+	 *
+	 * @param prefix The module of the file
+	 * @param path The path of the file in the module
+	 * @param updates The number of updates
+	 * @param untestedUpdates The number of untested updates
+	 * @param updatesSinceLastTested The number of updates since the last tested one
+	 */
+	public void add(String prefix, String path, long updates, long untestedUpdates, long updatesSinceLastTested) {
+		if (rows == dirs.length) {
+			int capacity = rows * 2;
+			rowModules = Arrays.copyOf(rowModules, capacity);
+			dirs = Arrays.copyOf(dirs, capacity);
+			names = Arrays.copyOf(names, capacity);
+			this.updates = Arrays.copyOf(this.updates, capacity);
+			this.untestedUpdates = Arrays.copyOf(this.untestedUpdates, capacity);
+			this.updatesSinceLastTested = Arrays.copyOf(this.updatesSinceLastTested, capacity);
+		}
+		Integer module = moduleIds.get(prefix);
+		if (module == null) {
+			module = moduleCount;
+			moduleIds.put(prefix, module);
+			if (moduleCount == modules.length) {
+				modules = Arrays.copyOf(modules, moduleCount * 2);
+			}
+			modules[moduleCount++] = id(prefix);
+		}
+		int slash = path.lastIndexOf('/');
+		rowModules[rows] = module;
+		dirs[rows] = id(slash < 0 ? "" : path.substring(0, slash));
+		names[rows] = id(path.substring(slash + 1));
+		this.updates[rows] = updates;
+		this.untestedUpdates[rows] = untestedUpdates;
+		this.updatesSinceLastTested[rows] = updatesSinceLastTested;
+		rows++;
+	}
+
+	/**
+	 * Add the rows of comma separated values written by {@link ResultWriter}, after their header, such as
+	 * the results stored as CSV before the tables. The percentage column is not read, the table computes it.
+	 *
+	 * @param in The reader of the values
+	 * @throws IOException If the values cannot be read or are not analysis results
+	 */
+	public void addCsv(BufferedReader in) throws IOException {
+		String header = in.readLine();
+		if (header == null || !ResultWriter.parseRow(header).equals(ResultWriter.getHeader())) {
+			throw new IOException("Not analysis results, unexpected header: " + header);
+		}
+		int columns = ResultWriter.getHeader().size();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			List<String> fields = ResultWriter.parseRow(line);
+			int count = fields.size();
+			if (count < columns) {
+				throw new IOException("Invalid result row: " + line);
+			}
+			// the first CSV did not quote the paths, a path with commas spans several fields
+			String path = String.join(",", fields.subList(1, count - 4));
+			try {
+				add(fields.get(0), path, Long.parseLong(fields.get(count - 4)), Long.parseLong(fields.get(count - 3)),
+						Long.parseLong(fields.get(count - 1)));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid result row: " + line, e);
+			}
+		}
+	}
+
+	private int id(String value) {
+		Integer id = ids.get(value);
+		if (id != null) {
+			return id;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (stringsLength + bytes.length > strings.length) {
+			strings = Arrays.copyOf(strings, Math.max(strings.length * 2, stringsLength + bytes.length));
+		}
+		if (stringCount == stringOffsets.length) {
+			stringOffsets = Arrays.copyOf(stringOffsets, stringCount * 2);
+		}
+		System.arraycopy(bytes, 0, strings, stringsLength, bytes.length);
+		stringOffsets[stringCount] = stringsLength;
+		stringsLength += bytes.length;
+		ids.put(value, stringCount);
+		return stringCount++;
+	}
+
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * Write the table to a file, replacing any previous one.
+	 *
+	 * @param file The table file
+	 */
+	public void write(File file) throws IOException {
+		// the rows grouped by module, keeping their order within a module
+		int[] moduleStarts = new int[moduleCount + 1];
+		for (int i = 0; i < rows; i++) {
+			moduleStarts[rowModules[i] + 1]++;
+		}
+		for (int m = 0; m < moduleCount; m++) {
+			moduleStarts[m + 1] += moduleStarts[m];
+		}
+		int[] order = new int[rows];
+		int[] next = Arrays.copyOf(moduleStarts, moduleCount);
+		for (int i = 0; i < rows; i++) {
+			order[next[rowModules[i]]++] = i;
+		}
+
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			int stringsOffset = out.size();
+			out.write(strings, 0, stringsLength);
+			int offsetsOffset = out.size();
+			for (int i = 0; i < stringCount; i++) {
+				out.writeInt(stringOffsets[i]);
+			}
+			out.writeInt(stringsLength);
+			int dirsOffset = out.size();
+			for (int i : order) {
+				out.writeInt(dirs[i]);
+			}
+			int namesOffset = out.size();
+			for (int i : order) {
+				out.writeInt(names[i]);
+			}
+			int updatesOffset = out.size();
+			for (int i : order) {
+				out.writeLong(updates[i]);
+			}
+			int untestedUpdatesOffset = out.size();
+			for (int i : order) {
+				out.writeLong(untestedUpdates[i]);
+			}
+			int updatesSinceLastTestedOffset = out.size();
+			for (int i : order) {
+				out.writeLong(updatesSinceLastTested[i]);
+			}
+			int modulesOffset = out.size();
+			for (int m = 0; m < moduleCount; m++) {
+				out.writeInt(modules[m]);
+				out.writeInt(moduleStarts[m]);
+			}
+			if (out.size() < 0 || out.size() > Integer.MAX_VALUE - FOOTER_LENGTH) {
+				// the offsets are ints and the table is mapped in one buffer
+				throw new IOException("Result table too large: " + rows + " rows");
+			}
+			out.writeInt(rows);
+			out.writeInt(stringCount);
+			out.writeInt(moduleCount);
+			out.writeInt(stringsOffset);
+			out.writeInt(offsetsOffset);
+			out.writeInt(dirsOffset);
+			out.writeInt(namesOffset);
+			out.writeInt(updatesOffset);
+			out.writeInt(untestedUpdatesOffset);
+			out.writeInt(updatesSinceLastTestedOffset);
+			out.writeInt(modulesOffset);
+			out.writeInt(FOOTER_LENGTH);
+			out.writeInt(MAGIC);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,321 @@
+package org.jboss.historia.core;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+
+/**
+ * Writes the analysis results as delimited text, one row per file: comma separated values as
+ * specified by RFC 4180, or tab separated values.
+ * The rows are encoded into a reusable char buffer, numbers included, and the buffer is handed to the
+ * underlying writer in large blocks, so that writing a row allocates nothing. Fields containing the
+ * separator, a double quote or a line break are enclosed in double quotes, with their double quotes doubled.
+ * Rows end with a line feed, as they always did, which RFC 4180 readers accept.
+ *
+ * The writer is not thread-safe. Closing it only flushes it: the underlying writer belongs to the caller.
+ *
+ * @author alessio
+ *
+ */
+public class ResultWriter implements Flushable, AutoCloseable {
+
+	public static final char CSV = ',';
+	public static final char TSV = '\t';
+
+	private static final int DEFAULT_CAPACITY = 64 * 1024;
+	// room for the counters of a row: 4 separators, 4 numbers of up to 20 chars and the line break
+	private static final int MAX_NUMBERS_LENGTH = 4 * 21 + 1;
+
+	private static final String[] HEADER = { "Module", "File", "# updates", "# untested updates",
+			"# untested updates %", "# updates since last tested" };
+
+	private final Writer out;
+	private final char separator;
+	private final char[] buffer;
+	private int length;
+	// whether fields have been written to the current row
+	private boolean rowStarted;
+
+	/**
+	 * @param out The writer of the comma separated values
+	 */
+	public ResultWriter(Writer out) {
+		this(out, CSV);
+	}
+
+	/**
+	 * @param out The writer of the values
+	 * @param separator The separator, {@link #CSV} or {@link #TSV}
+	 */
+	public ResultWriter(Writer out, char separator) {
+		this(out, separator, DEFAULT_CAPACITY);
+	}
+
+	ResultWriter(Writer out, char separator, int capacity) {
+		if (separator == '"' || separator == '\r' || separator == '\n') {
+			throw new IllegalArgumentException("Invalid separator: " + (int) separator);
+		}
+		this.out = out;
+		this.separator = separator;
+		this.buffer = new char[Math.max(capacity, MAX_NUMBERS_LENGTH)];
+	}
+
+	/**
+	 * Write the header row.
+	 */
+	public void writeHeader() throws IOException {
+		writeHeader(List.of(HEADER));
+	}
+
+	/**
+	 * Write the header row of other results, e.g. the report of another {@link AnalysisStrategy}.
+	 *
+	 * @param columns The names of the columns
+	 */
+	public void writeHeader(List<String> columns) throws IOException {
+		for (String column : columns) {
+			writeField(column);
+		}
+		endRow();
+	}
+
+	/**
+	 * Write the next field of the current row.
+	 *
+	 * @param value The value, quoted if needed
+	 */
+	public void writeField(String value) throws IOException {
+		if (rowStarted) {
+			append(separator);
+		}
+		appendField(value);
+		rowStarted = true;
+	}
+
+	/**
+	 * Write the next field of the current row, a number.
+	 *
+	 * @param value The value
+	 */
+	public void writeNumber(long value) throws IOException {
+		if (buffer.length - length < MAX_NUMBERS_LENGTH) {
+			flushBuffer();
+		}
+		if (rowStarted) {
+			buffer[length++] = separator;
+		}
+		appendNumber(value);
+		rowStarted = true;
+	}
+
+	/**
+	 * End the current row.
+	 */
+	public void endRow() throws IOException {
+		append('\n');
+		rowStarted = false;
+	}
+
+	/**
+	 * Write the row of a file.
+	 *
+	 * @param fu The analysis result of the file
+	 */
+	public void write(FileUpdates fu) throws IOException {
+		write(fu.getPrefix(), fu.getPath(), fu.getUpdates(), fu.getUntestedUpdates(), fu.getUpdatesSinceLastTested());
+	}
+
+	/**
+	 * Write the row of a file from its counters.
+	 *
+	 * @param prefix The module of the file
+	 * @param path The path of the file in the module
+	 * @param updates The number of updates
+	 * @param untestedUpdates The number of untested updates
+	 * @param updatesSinceLastTested The number of updates since the last tested one
+	 */
+	public void write(String prefix, String path, long updates, long untestedUpdates, long updatesSinceLastTested) throws IOException {
+		appendField(prefix);
+		append(separator);
+		appendField(path);
+		if (buffer.length - length < MAX_NUMBERS_LENGTH) {
+			flushBuffer();
+		}
+		buffer[length++] = separator;
+		appendNumber(updates);
+		buffer[length++] = separator;
+		appendNumber(untestedUpdates);
+		buffer[length++] = separator;
+		appendNumber(percent(untestedUpdates, updates));
+		buffer[length++] = separator;
+		appendNumber(updatesSinceLastTested);
+		buffer[length++] = '\n';
+	}
+
+	/**
+	 * @return The rounded percentage of the untested updates
+	 */
+	static long percent(long untestedUpdates, long updates) {
+		return updates == 0 ? 0 : Math.round(100 * (double) untestedUpdates / (double) updates);
+	}
+
+	/**
+	 * @return The names of the columns
+	 */
+	public static List<String> getHeader() {
+		return List.of(HEADER);
+	}
+
+	private void appendField(String value) throws IOException {
+		if (!needsQuotes(value)) {
+			append(value);
+			return;
+		}
+		append('"');
+		int start = 0;
+		int quote;
+		while ((quote = value.indexOf('"', start)) >= 0) {
+			append(value, start, quote + 1);
+			append('"');
+			start = quote + 1;
+		}
+		append(value, start, value.length());
+		append('"');
+	}
+
+	private boolean needsQuotes(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == separator || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void append(char c) throws IOException {
+		if (length == buffer.length) {
+			flushBuffer();
+		}
+		buffer[length++] = c;
+	}
+
+	private void append(String value) throws IOException {
+		append(value, 0, value.length());
+	}
+
+	private void append(String value, int start, int end) throws IOException {
+		while (start < end) {
+			if (length == buffer.length) {
+				flushBuffer();
+			}
+			int n = Math.min(end - start, buffer.length - length);
+			value.getChars(start, start + n, buffer, length);
+			length += n;
+			start += n;
+		}
+	}
+
+	/**
+	 * Encode a number in the buffer, which has room for it.
+	 */
+	private void appendNumber(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				// no positive counterpart
+				String s = Long.toString(value);
+				s.getChars(0, s.length(), buffer, length);
+				length += s.length();
+				return;
+			}
+			buffer[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int end = length + digits;
+		for (int i = end - 1; i >= length; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		length = end;
+	}
+
+	/**
+	 * Write the buffered rows, without flushing the underlying writer.
+	 */
+	void flushBuffer() throws IOException {
+		if (length > 0) {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+	}
+
+	/**
+	 * Write the buffered rows and flush the underlying writer.
+	 */
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Flush the writer, leaving the underlying writer open.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	/**
+	 * Split a row of comma separated values, as written by this class, into its fields.
+	 *
+	 * @param row The row, without its line break
+	 * @return The fields, unquoted
+	 */
+	public static List<String> parseRow(String row) {
+		return parseRow(row, CSV);
+	}
+
+	/**
+	 * Split a row of values, as written by this class, into its fields.
+	 *
+	 * @param row The row, without its line break
+	 * @param separator The separator, {@link #CSV} or {@link #TSV}
+	 * @return The fields, unquoted
+	 */
+	public static List<String> parseRow(String row, char separator) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < row.length(); i++) {
+			char c = row.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == separator) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
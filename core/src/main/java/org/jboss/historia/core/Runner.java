@@ -1,7 +1,9 @@
 package org.jboss.historia.core;
 
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.jboss.logging.Logger;
 
@@ -9,9 +11,10 @@ public final class Runner {
 
 	public static void main(String[] args) {
 		Logger logger = Logger.getLogger(Runner.class);
-		if (args == null || args.length != 5) {
-			logger.info("Usage: org.jboss.historia.core.Runner <strategy class> <output file> <path filter> <git repo uri> <local repo clone uri>\n"
-					+ "Example: org.jboss.historia.core.Runner org.jboss.historia.core.UntestedCommitDetectionStrategy ./output.csv src/main/java https://github.com/jbossws/jbossws-spi.git target/jgit/jbossws-spi");
+		if (args == null || args.length < 5 || args.length > 6) {
+			logger.info("Usage: org.jboss.historia.core.Runner <strategies> <output file> <path filter> <git repo uri> <local repo clone uri> [<workers>]\n"
+					+ "Example: org.jboss.historia.core.Runner org.jboss.historia.core.UntestedCommitDetectionStrategy ./output.csv src/main/java https://github.com/jbossws/jbossws-spi.git target/jgit/jbossws-spi 4\n"
+					+ "Example: org.jboss.historia.core.Runner untested,churn,authorship ./output.csv src/main/java https://github.com/jbossws/jbossws-spi.git target/jgit/jbossws-spi 4");
 			return;
 		}
 		String strategy = args[0];
@@ -19,8 +22,9 @@ public final class Runner {
 		String pathFilter = args[2];
 		String gitRepoUri = args[3];
 		String localRepoCloneUri = args[4];
+		int workers = args.length > 5 ? Integer.parseInt(args[5]) : 1;
 		try {
-			run(strategy, filename, pathFilter, gitRepoUri, localRepoCloneUri);
+			run(strategy, filename, pathFilter, gitRepoUri, localRepoCloneUri, workers);
 			logger.info("Process completed, see results in " + filename);
 		} catch (Exception e) {
 			Logger.getLogger(Runner.class).error("Exception running " + strategy, e);
@@ -28,13 +32,99 @@ public final class Runner {
 	}
 
 	public static void run(String strategy, String filename, String pathFilter, String gitRepoUri, String localRepoCloneUri) throws Exception {
-		if (UntestedCommitDetectionStrategy.class.getName().equals(strategy)) {
-			UntestedCommitDetectionStrategy s = new UntestedCommitDetectionStrategy(pathFilter);
-			try (FileWriter writer = new FileWriter(filename, true); BufferedWriter bw = new BufferedWriter(writer)) {
-				s.process(gitRepoUri, localRepoCloneUri, bw);
+		run(strategy, filename, pathFilter, gitRepoUri, localRepoCloneUri, 1);
+	}
+
+	/**
+	 * Run one strategy, or several ones on a single walk of the history.
+	 * 
+	 * @param strategy The names of the strategies, comma separated, e.g. untested,churn,authorship
+	 * @param filename The output file; with several strategies, the report of each one is written to the
+	 * file named after it, e.g. output-churn.csv
+	 */
+	public static void run(String strategy, String filename, String pathFilter, String gitRepoUri, String localRepoCloneUri, int workers) throws Exception {
+		// the options of the clone and of the untested commit detection
+		UntestedCommitDetectionStrategy s = new UntestedCommitDetectionStrategy(pathFilter);
+		s.setParallelism(workers);
+		s.setIncremental(Boolean.getBoolean("historia.incremental"));
+		s.setRefresh(Boolean.getBoolean("historia.refresh"));
+		s.setBare(Boolean.getBoolean("historia.bare"));
+		s.setCommitGraph(Boolean.getBoolean("historia.commitGraph"));
+		s.setFirstParent(Boolean.getBoolean("historia.firstParent"));
+		String pullRequestIdRules = System.getProperty("historia.pullRequestIdRules");
+		if (pullRequestIdRules != null) {
+			s.setPullRequestIdRules(PullRequestIdRules.parse(pullRequestIdRules));
+		}
+		String testPaths = System.getProperty("historia.testPaths");
+		if (testPaths != null) {
+			s.setTestPathFilter(TestPathFilter.parse(testPaths));
+		}
+		String since = System.getProperty("historia.since");
+		if (since != null) {
+			s.setSince(UntestedCommitDetectionStrategy.parseTime(since));
+		}
+		String until = System.getProperty("historia.until");
+		if (until != null) {
+			s.setUntil(UntestedCommitDetectionStrategy.parseTime(until));
+		}
+		s.setRefRange(System.getProperty("historia.range"));
+
+		List<AnalysisStrategy> strategies = new ArrayList<>();
+		for (String name : strategy.split(",")) {
+			AnalysisStrategy a = AnalysisPipeline.createStrategy(name.trim(), pathFilter);
+			strategies.add(a instanceof UntestedCommitDetectionStrategy ? s : a);
+		}
+		if (strategies.size() == 1 && strategies.get(0) == s) {
+			runUntested(s, filename, gitRepoUri, localRepoCloneUri);
+			return;
+		}
+		if (filename.endsWith(".results")) {
+			throw new IllegalArgumentException("Result tables only hold the results of the untested commit detection");
+		}
+		List<FileWriter> writers = new ArrayList<>();
+		try {
+			List<ResultWriter> outputs = new ArrayList<>();
+			for (AnalysisStrategy a : strategies) {
+				FileWriter writer = new FileWriter(strategies.size() == 1 ? filename : reportFilename(filename, a.getName()), true);
+				writers.add(writer);
+				outputs.add(new ResultWriter(writer, separator(filename)));
 			}
+			try (JGitUtils jgit = s.open(gitRepoUri, localRepoCloneUri)) {
+				new AnalysisPipeline(strategies).run(jgit, outputs);
+			}
+		} finally {
+			for (FileWriter writer : writers) {
+				writer.close();
+			}
+		}
+	}
+
+	private static void runUntested(UntestedCommitDetectionStrategy s, String filename, String gitRepoUri, String localRepoCloneUri) throws Exception {
+		if (filename.endsWith(".results")) {
+			// a columnar result table, replacing any previous one
+			ResultTableWriter table = new ResultTableWriter();
+			s.process(gitRepoUri, localRepoCloneUri, table);
+			table.write(new File(filename));
 		} else {
-			throw new Exception("Strategy not found!");
+			// the result writer buffers the rows itself
+			try (FileWriter writer = new FileWriter(filename, true)) {
+				s.process(gitRepoUri, localRepoCloneUri, new ResultWriter(writer, separator(filename)));
+			}
 		}
 	}
+
+	/**
+	 * @return The name of the file of a report, e.g. output-churn.csv for output.csv
+	 */
+	static String reportFilename(String filename, String name) {
+		int dot = filename.lastIndexOf('.');
+		if (dot <= filename.lastIndexOf(File.separatorChar) + 1) {
+			return filename + "-" + name;
+		}
+		return filename.substring(0, dot) + "-" + name + filename.substring(dot);
+	}
+
+	private static char separator(String filename) {
+		return filename.endsWith(".tsv") ? ResultWriter.TSV : ResultWriter.CSV;
+	}
 }
@@ -0,0 +1,89 @@
+package org.jboss.historia.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Memoizes whether commits and pull requests touch test files.
+ * The commits are identified by their ordinal in the {@link CommitTable}, and the classification
+ * of each one is kept in two bits of an atomic array indexed by that ordinal, one telling whether
+ * the commit has been classified already and one telling whether it touches tests.
+ * The cache can be used by concurrent analysis workers without locking for the commits: a commit
+ * classified by two workers at once gets the same result twice. Each pull request is classified
+ * once, the workers asking for it meanwhile waiting for the result.
+ *
+ * @author alessio
+ *
+ */
+public class TestImpactCache {
+
+	private static final int CLASSIFIED = 1;
+	private static final int AFFECTS_TESTS = 2;
+	// 2 bits per commit
+	private static final int COMMITS_PER_INT = 16;
+
+	private final int commitCount;
+	private final AtomicIntegerArray commits;
+	private final ConcurrentHashMap<String, CachedValue<Boolean>> pullRequests = new ConcurrentHashMap<>();
+
+	/**
+	 * @param commitCount The number of commits of the commit table
+	 */
+	public TestImpactCache(int commitCount) {
+		this.commitCount = commitCount;
+		this.commits = new AtomicIntegerArray((commitCount + COMMITS_PER_INT - 1) / COMMITS_PER_INT);
+	}
+
+	/**
+	 * @param ordinal The commit ordinal in the commit table
+	 * @return Whether the commit touches tests, or null if it has not been classified yet
+	 */
+	public Boolean getCommit(int ordinal) {
+		if (ordinal < 0 || ordinal >= commitCount) {
+			return null;
+		}
+		int bits = commits.get(ordinal / COMMITS_PER_INT) >>> (ordinal % COMMITS_PER_INT * 2);
+		if ((bits & CLASSIFIED) == 0) {
+			return null;
+		}
+		return (bits & AFFECTS_TESTS) != 0;
+	}
+
+	/**
+	 * @param ordinal The commit ordinal in the commit table, commits outside the table are not cached
+	 * @param tests Whether the commit touches tests
+	 */
+	public void putCommit(int ordinal, boolean tests) {
+		if (ordinal < 0 || ordinal >= commitCount) {
+			return;
+		}
+		int bits = (tests ? CLASSIFIED | AFFECTS_TESTS : CLASSIFIED) << (ordinal % COMMITS_PER_INT * 2);
+		commits.getAndAccumulate(ordinal / COMMITS_PER_INT, bits, (a, b) -> a | b);
+	}
+
+	/**
+	 * @param prId The pull request id
+	 * @return Whether the pull request touches tests, or null if it has not been classified yet
+	 */
+	public Boolean getPullRequest(String prId) {
+		CachedValue<Boolean> tests = pullRequests.get(prId);
+		return tests != null ? tests.peek() : null;
+	}
+
+	/**
+	 * @param prId The pull request id
+	 * @param loader Classifies the pull request on the calling thread, if it has not been classified
+	 *            yet, and is not kept afterwards
+	 * @return Whether the pull request touches tests
+	 */
+	boolean getPullRequest(String prId, CachedValue.Loader<Boolean> loader) throws Exception {
+		return pullRequests.computeIfAbsent(prId, k -> new CachedValue<>()).get(loader);
+	}
+
+	public void clear() {
+		for (int i = 0; i < commits.length(); i++) {
+			commits.set(i, 0);
+		}
+		pullRequests.clear();
+	}
+}
@@ -0,0 +1,161 @@
+package org.jboss.historia.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Tree filter including the test files, as identified by a set of path patterns.
+ * The patterns are globs matched against the whole path: {@code *} matches any characters but
+ * {@code /}, {@code **} any characters including {@code /} and {@code ?} a single character but
+ * {@code /}.
+ *
+ * The patterns are compiled once into a single regular expression. A subtree is only entered when
+ * some path below it can match, so that anchored patterns, e.g. {@code module1/src/test/**}, skip
+ * the unrelated subtrees; the default pattern, matching {@code src/test} anywhere, cannot skip any.
+ *
+ * The filter is immutable and can be shared among threads and walks.
+ *
+ * @author alessio
+ *
+ */
+public class TestPathFilter extends TreeFilter {
+
+	/**
+	 * The paths containing "src/test", anywhere.
+	 */
+	public static final TestPathFilter DEFAULT = new TestPathFilter("**src/test**");
+
+	private final List<String> patterns;
+	private final Pattern pattern;
+
+	/**
+	 * @param patterns The path patterns of the test files
+	 * @throws IllegalArgumentException if there is no pattern
+	 */
+	public TestPathFilter(String... patterns) {
+		this(Arrays.asList(patterns));
+	}
+
+	/**
+	 * @param patterns The path patterns of the test files
+	 * @throws IllegalArgumentException if there is no pattern
+	 */
+	public TestPathFilter(Collection<String> patterns) {
+		if (patterns.isEmpty()) {
+			throw new IllegalArgumentException("No test path pattern");
+		}
+		this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+		StringBuilder regex = new StringBuilder();
+		for (String glob : patterns) {
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:").append(toRegex(glob)).append(')');
+		}
+		this.pattern = Pattern.compile(regex.toString());
+	}
+
+	/**
+	 * Parse a comma separated list of path patterns.
+	 *
+	 * @param spec The patterns, e.g. "**src/test**,**IT.java"
+	 * @return The filter
+	 * @throws IllegalArgumentException if there is no pattern
+	 */
+	public static TestPathFilter parse(String spec) {
+		List<String> patterns = new ArrayList<>();
+		for (String glob : spec.split(",")) {
+			glob = glob.trim();
+			if (!glob.isEmpty()) {
+				patterns.add(glob);
+			}
+		}
+		return new TestPathFilter(patterns);
+	}
+
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c != '*' && c != '?') {
+				literal.append(c);
+				continue;
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			if (c == '?') {
+				regex.append("[^/]");
+			} else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+				regex.append(".*");
+				i++;
+			} else {
+				regex.append("[^/]*");
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+
+	/**
+	 * @return The path patterns
+	 */
+	public List<String> getPatterns() {
+		return patterns;
+	}
+
+	/**
+	 * @param path The path of a file
+	 * @return Whether the file is a test file
+	 */
+	public boolean matches(String path) {
+		return pattern.matcher(path).matches();
+	}
+
+	/**
+	 * @param directory The path of a directory
+	 * @return Whether a file below the directory can be a test file
+	 */
+	public boolean mayMatchBelow(String directory) {
+		Matcher matcher = pattern.matcher(directory + "/");
+		// when the match failed before reaching the end of the input, no longer path can match
+		return matcher.matches() || matcher.hitEnd();
+	}
+
+	@Override
+	public boolean include(TreeWalk walker) {
+		String path = walker.getPathString();
+		return walker.isSubtree() ? mayMatchBelow(path) : matches(path);
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+		return true;
+	}
+
+	@Override
+	public TreeFilter clone() {
+		// stateless
+		return this;
+	}
+
+	/**
+	 * @return The patterns, comma separated
+	 */
+	@Override
+	public String toString() {
+		return String.join(",", patterns);
+	}
+}
@@ -1,46 +1,60 @@
 package org.jboss.historia.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
-import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.jboss.logging.Logger;
 
-public class UntestedCommitDetectionStrategy {
+/**
+ * Detects the files updated without tests: an update is tested when its commit, or the pull request
+ * of the commit, adds or modifies a test file.
+ * The strategy runs on its own, with the process methods, or along with other strategies on a shared
+ * walk of the history, with an {@link AnalysisPipeline}.
+ */
+public class UntestedCommitDetectionStrategy implements AnalysisStrategy {
 	
 	private static final Logger LOGGER = Logger.getLogger(UntestedCommitDetectionStrategy.class);
 
+	/**
+	 * The update counters of a file, aggregated as the updates are added, newest first by commit time.
+	 * Only counters are kept, whatever the length of the history: the commit time of the last tested
+	 * update, the number of untested updates after it and, to settle the updates committed at the same
+	 * time as the last tested one, the time of the oldest of them along with their number at that time.
+	 */
 	public static class FileUpdates {
-		public static class Update {
-			private final long commitTime;
-			private final boolean tested;
-			
-			public Update(long commitTime, boolean tested) {
-				this.commitTime = commitTime;
-				this.tested = tested;
-			}
-			
-			public long getCommitTime() {
-				return commitTime;
-			}
-			
-			public boolean isTested() {
-				return tested;
-			}
-		}
-		
 		private final String prefix;
 		private final String path;
 		private long updates = 0;
 		private long untestedUpdates = 0;
+		private long lastTestedTime = -1;
 		private long updatesSinceLastTested = 0;
-		private final List<Update> updatesList = new ArrayList<>();
-		private boolean countersDirty = false; // Flag to track if counters need recalculation
+		// the oldest commit time of the untested updates counted since the last tested one, and how many have it
+		private long oldestUntestedTime = -1;
+		private long untestedAtOldestTime = 0;
+		// the untested updates of a previous analysis after its last tested one, which seeds lastTestedTime
+		private long previousUpdatesSinceLastTested = 0;
 		
 		public FileUpdates(String prefix, String filePath) {
 			this.prefix = prefix;
@@ -59,48 +73,49 @@ public class UntestedCommitDetectionStrategy {
 			return updates;
 		}
 
+		/**
+		 * Add an update. The updates must be added newest first, in any order at the same commit time,
+		 * as the strategy does: an older tested update added after a newer one is ignored, a newer one
+		 * only discounts the untested updates of its own commit time.
+		 * 
+		 * @param tested Whether the update is tested
+		 * @param commitTime The commit time of the update
+		 */
 		public void incrementUpdates(boolean tested, long commitTime) {
-			this.updatesList.add(new Update(commitTime, tested));
-			this.countersDirty = true;
-			
 			this.updates = this.updates + 1;
-			if (!tested) {
+			if (tested) {
+				addTested(commitTime);
+			} else {
 				incrementUntestedUpdates();
+				addUntested(commitTime);
 			}
-			// Note: updatesSinceLastTested will be recalculated when needed
 		}
 		
-		private void recalculateCountersIfNeeded() {
-			if (!countersDirty) {
-				return; // No need to recalculate
-			}
-			
-			// Sort updates by commit time
-			updatesList.sort(Comparator.comparingLong(Update::getCommitTime));
-			
-			// Reset updatesSinceLastTested counter
-			this.updatesSinceLastTested = 0;
-			
-			// Recalculate updatesSinceLastTested
-			long lastTestedTime = 0;
-			boolean hasTestedUpdate = false;
-			
-			for (Update update : updatesList) {
-				if (update.isTested()) {
-					// This is a tested update
-					lastTestedTime = update.getCommitTime();
-					hasTestedUpdate = true;
-					this.updatesSinceLastTested = 0; // Reset counter
-				} else if (hasTestedUpdate && update.getCommitTime() > lastTestedTime) {
-					// This is an untested update after the last tested update
-					this.updatesSinceLastTested++;
-				} else if (!hasTestedUpdate) {
-					// No tested updates yet, all untested updates count
-					this.updatesSinceLastTested++;
-				}
+		private void addTested(long commitTime) {
+			if (commitTime <= lastTestedTime) {
+				return;
+			}
+			lastTestedTime = commitTime;
+			// the updates of the previous analysis are taken as older than a tested update newer than its own
+			previousUpdatesSinceLastTested = 0;
+			// the untested updates at the time of the last tested one are not after it
+			if (updatesSinceLastTested > 0 && oldestUntestedTime == commitTime) {
+				updatesSinceLastTested -= untestedAtOldestTime;
+				untestedAtOldestTime = 0;
 			}
-			
-			countersDirty = false; // Mark as clean
+		}
+		
+		private void addUntested(long commitTime) {
+			if (lastTestedTime >= 0 && commitTime <= lastTestedTime) {
+				return;
+			}
+			if (updatesSinceLastTested == 0 || commitTime < oldestUntestedTime) {
+				oldestUntestedTime = commitTime;
+				untestedAtOldestTime = 1;
+			} else if (commitTime == oldestUntestedTime) {
+				untestedAtOldestTime++;
+			}
+			updatesSinceLastTested++;
 		}
 
 		public long getUntestedUpdates() {
@@ -108,111 +123,596 @@ public class UntestedCommitDetectionStrategy {
 		}
 
 		public long getUpdatesSinceLastTested() {
-			recalculateCountersIfNeeded();
-			return updatesSinceLastTested;
+			return updatesSinceLastTested + previousUpdatesSinceLastTested;
 		}
 
 		public void incrementUntestedUpdates() {
 			this.untestedUpdates = this.untestedUpdates + 1;
 		}
 		
+		/**
+		 * @return The commit time of the last tested update, or -1 if the file has never been updated along with tests
+		 */
+		public long getLastTestedTime() {
+			return lastTestedTime;
+		}
+		
+		/**
+		 * Add the results of a previous analysis of this file, before adding the updates of the commits
+		 * added since then. Its last tested update seeds the one of this file, so that the updates added
+		 * afterwards are compared to it whatever their commit time: the untested updates of a merged
+		 * branch older than that tested update are not counted as after it, and a tested update only
+		 * replaces it when newer.
+		 * 
+		 * @param updates The number of updates
+		 * @param untestedUpdates The number of untested updates
+		 * @param lastTestedTime The commit time of the last tested update, or -1
+		 * @param updatesSinceLastTested The number of untested updates after the last tested one
+		 */
+		public void addPrevious(long updates, long untestedUpdates, long lastTestedTime, long updatesSinceLastTested) {
+			this.updates += updates;
+			this.untestedUpdates += untestedUpdates;
+			this.lastTestedTime = Math.max(this.lastTestedTime, lastTestedTime);
+			this.previousUpdatesSinceLastTested = updatesSinceLastTested;
+		}
+		
 		public String toString() {
 			return path + "(Untested: " + untestedUpdates + "/" + updates + ")";
 		}
 		
+		/**
+		 * Print the header row of the comma separated values.
+		 * 
+		 * @see ResultWriter
+		 */
 		public static void printHeader(Writer w) throws IOException {
-			w.append("Module").append(",").append("File").append(",").append("# updates").append(",").append("# untested updates").append(",")
-					.append("# untested updates %").append(",").append("# updates since last tested").append("\n");
+			ResultWriter rw = new ResultWriter(w, ResultWriter.CSV, 0);
+			rw.writeHeader();
+			rw.flushBuffer();
 		}
 		
+		/**
+		 * Print the row of comma separated values of this file. Many rows are better written with a
+		 * single {@link ResultWriter}.
+		 */
 		public void print(Writer w) throws IOException {
-			recalculateCountersIfNeeded();
-			w.append(prefix).append(",").append(path).append(",").append(String.valueOf(updates)).append(",")
-					.append(String.valueOf(untestedUpdates)).append(",")
-					.append(String.valueOf(Math.round(100 * (double) untestedUpdates / (double) updates))).append(",")
-					.append(String.valueOf(updatesSinceLastTested)).append("\n");
+			ResultWriter rw = new ResultWriter(w, ResultWriter.CSV, 0);
+			rw.write(this);
+			rw.flushBuffer();
 		}
 	}
 	
+	/**
+	 * Receives the analysis results, one file at a time.
+	 */
+	@FunctionalInterface
+	public interface FileUpdatesConsumer {
+		void accept(FileUpdates fu) throws IOException;
+	}
+	
+	// Files each worker may analyze ahead of the first file not yet handed to the consumer
+	private static final int REORDER_WINDOW_PER_WORKER = 32;
+	
 	private final String pathFilter;
+	private int parallelism = 1;
+	private boolean incremental = false;
+	private boolean refresh = false;
+	private boolean bare = false;
+	private boolean commitGraph = false;
+	private PullRequestIdRules pullRequestIdRules = PullRequestIdRules.DEFAULT;
+	private TestPathFilter testPathFilter = TestPathFilter.DEFAULT;
+	private Instant since;
+	private Instant until;
+	private String refRange;
+	private boolean firstParent = false;
 	
 	public UntestedCommitDetectionStrategy(String pathFilter) {
 		this.pathFilter = pathFilter;
 	}
 	
-	public List<FileUpdates> process(String repositoryUri, String localRepoCloneURI) throws Exception {
-		JGitUtils jgit = new JGitUtils(repositoryUri, localRepoCloneURI);
-		Set<String> files = jgit.getFilesOnHEAD();
-		List<FileUpdates> list = new ArrayList<>();
-		for (String f : files) {
-			int pathFilterIndex = pathFilter == null ? 0 : f.indexOf(pathFilter);
-			if (pathFilterIndex >= 0) {
-				FileUpdates fu = new FileUpdates(f.substring(0, pathFilterIndex), f.substring(pathFilterIndex));
-				processFile(fu, jgit, f, LOGGER.isDebugEnabled());
-				list.add(fu);
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Set the number of worker threads analyzing files concurrently.
+	 * The default, 1, processes the files sequentially on the calling thread.
+	 * The results do not depend on the number of workers.
+	 * 
+	 * @param parallelism The number of workers
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid number of workers: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * Enable the incremental analysis.
+	 * The results are saved in the local clone along with the analyzed HEAD; the next analysis with
+	 * the same path filter, test paths and pull request id rules only processes the commits added since
+	 * then and merges them into the saved results. When the saved HEAD is no longer part of the history
+	 * (e.g. after a force push), or the test paths or rules changed, the whole history is analyzed again.
+	 * 
+	 * @param incremental Whether to resume from the results of the previous analysis
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	public boolean isRefresh() {
+		return refresh;
+	}
+	
+	/**
+	 * Fetch the latest changes into an existing local clone before analyzing it.
+	 * By default an existing clone is analyzed as it is.
+	 * 
+	 * @param refresh Whether to fetch into an existing clone
+	 */
+	public void setRefresh(boolean refresh) {
+		this.refresh = refresh;
+	}
+	
+	public boolean isBare() {
+		return bare;
+	}
+	
+	/**
+	 * Clone the repository without a working tree; the analysis never reads the checked out files.
+	 * An existing local clone is used whatever its kind.
+	 * 
+	 * @param bare Whether to make a bare clone
+	 */
+	public void setBare(boolean bare) {
+		this.bare = bare;
+	}
+	
+	public boolean isCommitGraph() {
+		return commitGraph;
+	}
+	
+	/**
+	 * Maintain a commit-graph with changed-path Bloom filters in the local clone, written when
+	 * it does not cover HEAD yet, to speed up the history walks limited to some paths.
+	 * 
+	 * @param commitGraph Whether to maintain the commit-graph
+	 */
+	public void setCommitGraph(boolean commitGraph) {
+		this.commitGraph = commitGraph;
+	}
+	
+	public PullRequestIdRules getPullRequestIdRules() {
+		return pullRequestIdRules;
+	}
+	
+	/**
+	 * Set the rules extracting the pull request ids from the merge commit messages.
+	 * With the incremental analysis, new rules make the next analysis process the whole history again.
+	 * 
+	 * @param pullRequestIdRules The rules, {@link PullRequestIdRules#DEFAULT} by default
+	 */
+	public void setPullRequestIdRules(PullRequestIdRules pullRequestIdRules) {
+		this.pullRequestIdRules = Objects.requireNonNull(pullRequestIdRules);
+	}
+	
+	public TestPathFilter getTestPathFilter() {
+		return testPathFilter;
+	}
+	
+	/**
+	 * Set the path patterns of the test files: an update is tested when its commit, or its pull request,
+	 * adds or modifies a test file.
+	 * With the incremental analysis, new patterns make the next analysis process the whole history again.
+	 * 
+	 * @param testPathFilter The test paths, {@link TestPathFilter#DEFAULT} by default
+	 */
+	public void setTestPathFilter(TestPathFilter testPathFilter) {
+		this.testPathFilter = Objects.requireNonNull(testPathFilter);
+	}
+	
+	public Instant getSince() {
+		return since;
+	}
+	
+	/**
+	 * Only count the updates committed at or after the given time. The history walks stop at the
+	 * first older commit, so that the analysis costs as much as the window, not the whole history.
+	 * A bounded analysis is never incremental.
+	 * 
+	 * @param since The start of the window, or null for no start
+	 */
+	public void setSince(Instant since) {
+		this.since = since;
+	}
+	
+	public Instant getUntil() {
+		return until;
+	}
+	
+	/**
+	 * Only count the updates committed at or before the given time.
+	 * A bounded analysis is never incremental.
+	 * 
+	 * @param until The end of the window, or null for no end
+	 */
+	public void setUntil(Instant until) {
+		this.until = until;
+	}
+	
+	public String getRefRange() {
+		return refRange;
+	}
+	
+	/**
+	 * Analyze a revision range, e.g. {@code v1.0..HEAD}: the files of its end and the commits reachable
+	 * from its end but not from its start. A bounded analysis is never incremental.
+	 * 
+	 * @param refRange The revision range, or null for the history of HEAD
+	 * @see JGitUtils#setRefRange(String)
+	 */
+	public void setRefRange(String refRange) {
+		this.refRange = refRange;
+	}
+	
+	public boolean isFirstParent() {
+		return firstParent;
+	}
+	
+	/**
+	 * Only analyze the mainline, following the first parent of the merge commits: each merge counts as
+	 * one update, tested if its changes against the first parent add or modify a test file. For merge
+	 * based workflows the results are those of the pull request analysis, without walking the commits
+	 * of the side branches. The incremental results of each mode are saved separately.
+	 * 
+	 * @param firstParent Whether to only follow the first parent of the merge commits
+	 * @see JGitUtils#setFirstParent(boolean)
+	 */
+	public void setFirstParent(boolean firstParent) {
+		this.firstParent = firstParent;
+	}
+	
+	/**
+	 * Parse a point in time: an ISO-8601 instant (2024-01-31T12:00:00Z), a date (2024-01-31, at
+	 * midnight UTC) or a period before now (P6M for 6 months ago, P2W, P30D).
+	 * 
+	 * @param value The time
+	 * @return The instant
+	 * @throws java.time.format.DateTimeParseException if the time is not valid
+	 */
+	public static Instant parseTime(String value) {
+		value = value.trim();
+		if (value.startsWith("P")) {
+			return ZonedDateTime.now(ZoneOffset.UTC).minus(Period.parse(value)).toInstant();
+		}
+		if (value.indexOf('T') < 0) {
+			return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+		}
+		return Instant.parse(value);
+	}
+	
+	private boolean isBounded() {
+		return since != null || until != null || refRange != null;
+	}
+	
+	/**
+	 * Open the local clone of the repository, configured with the options of this strategy: the path
+	 * filter, the test paths, the pull request id rules, the bounds and the first-parent mode.
+	 * 
+	 * @return The clone, to be closed by the caller
+	 */
+	public JGitUtils open(String repositoryUri, String localRepoCloneURI) throws Exception {
+		JGitUtils jgit = new JGitUtils(repositoryUri, localRepoCloneURI, refresh, bare);
+		jgit.setPullRequestIdRules(pullRequestIdRules);
+		jgit.setTestPathFilter(testPathFilter);
+		jgit.setPathFilter(PathContainsFilter.create(pathFilter));
+		jgit.setTimeWindow(since, until);
+		jgit.setRefRange(refRange);
+		jgit.setFirstParent(firstParent);
+		if (commitGraph) {
+			try {
+				jgit.updateCommitGraph();
+			} catch (Exception e) {
+				jgit.close();
+				throw e;
 			}
 		}
-		jgit.close();
-		return list;
+		return jgit;
+	}
+	
+	public List<FileUpdates> process(String repositoryUri, String localRepoCloneURI) throws Exception {
+		List<FileUpdates> results = new ArrayList<>();
+		process(repositoryUri, localRepoCloneURI, null, results::add, () -> false);
+		return results;
 	}
 	
 	public void process(String repositoryUri, String localRepoCloneURI, Writer w) throws Exception {
-		JGitUtils jgit = new JGitUtils(repositoryUri, localRepoCloneURI);
+		process(repositoryUri, localRepoCloneURI, new ResultWriter(w));
+	}
+	
+	/**
+	 * Analyze the files and write the results, with a header row, in the order of the files on HEAD.
+	 * The writer is flushed, not closed.
+	 * 
+	 * @param out The writer of the results
+	 */
+	public void process(String repositoryUri, String localRepoCloneURI, ResultWriter out) throws Exception {
+		process(repositoryUri, localRepoCloneURI, out, out::write, () -> false);
+		out.flush();
+	}
+	
+	/**
+	 * Analyze the files and stream the results, in the order of the files on HEAD whatever the parallelism.
+	 * Each file is handed to the consumer, on the calling thread, as soon as it and the files before it
+	 * have been analyzed; the analysis data of the file is not retained afterwards, unless the consumer
+	 * keeps it.
+	 * 
+	 * @param consumer The consumer of the results
+	 */
+	public void process(String repositoryUri, String localRepoCloneURI, FileUpdatesConsumer consumer) throws Exception {
+		process(repositoryUri, localRepoCloneURI, null, consumer, () -> false);
+	}
+	
+	/**
+	 * Analyze the files and stream the results as {@link #process(String, String, FileUpdatesConsumer)} does,
+	 * stopping as soon as the analysis is cancelled: the walks building the commit table and the history
+	 * index check for it before each commit, the analysis before each file.
+	 * 
+	 * @param cancelled Tells whether the analysis has been cancelled
+	 * @throws CancellationException if the analysis has been cancelled
+	 */
+	void process(String repositoryUri, String localRepoCloneURI, FileUpdatesConsumer consumer, BooleanSupplier cancelled) throws Exception {
+		process(repositoryUri, localRepoCloneURI, null, consumer, cancelled);
+	}
+	
+	/**
+	 * Publish the results of the analysis, run on a new daemon thread when subscribed to, so that an
+	 * abandoned analysis does not keep the JVM alive; cancel the subscription to stop it.
+	 * 
+	 * @see #publish(String, String, Executor)
+	 */
+	public Flow.Publisher<FileUpdates> publish(String repositoryUri, String localRepoCloneURI) {
+		return publish(repositoryUri, localRepoCloneURI, r -> {
+			Thread thread = new Thread(r, "historia-analysis");
+			thread.setDaemon(true);
+			thread.start();
+		});
+	}
+	
+	/**
+	 * Publish the results of the analysis, in the order of the files on HEAD.
+	 * The analysis is run with the given executor when the subscriber subscribes, and only proceeds as
+	 * results are requested: a slow subscriber throttles it and cancelling the subscription stops it.
+	 * The publisher accepts a single subscriber.
+	 * 
+	 * @param executor The executor running the analysis, which blocks while there is no demand
+	 * @return The publisher of the results
+	 */
+	public Flow.Publisher<FileUpdates> publish(String repositoryUri, String localRepoCloneURI, Executor executor) {
+		return new FileUpdatesPublisher(this, repositoryUri, localRepoCloneURI, executor);
+	}
+	
+	@Override
+	public String getName() {
+		return AnalysisPipeline.UNTESTED;
+	}
+	
+	/**
+	 * Write the results of the files of the clone, as {@link #process(String, String, ResultWriter)} does.
+	 * Run by an {@link AnalysisPipeline}, the analysis is never incremental: the other strategies need the
+	 * whole walk.
+	 */
+	@Override
+	public void report(JGitUtils jgit, ResultWriter out) throws Exception {
+		out.writeHeader();
+		processFiles(selectFiles(jgit), jgit, out::write);
+	}
+	
+	private void process(String repositoryUri, String localRepoCloneURI, ResultWriter header, FileUpdatesConsumer consumer,
+			BooleanSupplier cancelled) throws Exception {
+		try (JGitUtils jgit = open(repositoryUri, localRepoCloneURI)) {
+			jgit.setCancellation(cancelled);
+			List<FileUpdates> list = selectFiles(jgit);
+			ObjectId head = jgit.resolveHead();
+			// The results of a bounded analysis cannot be merged with the ones of the commits added later
+			boolean incremental = this.incremental && !isBounded();
+			boolean upToDate = incremental && resume(list, jgit, head);
+			if (header != null) {
+				header.writeHeader();
+			}
+			// The state keeps the counters of each file, not its updates
+			Map<String, AnalysisState.FileState> state = incremental ? new HashMap<>() : null;
+			FileUpdatesConsumer emit = state == null ? consumer : fu -> {
+				consumer.accept(fu);
+				state.put(fu.getPrefix() + fu.getPath(), AnalysisState.FileState.of(fu));
+			};
+			if (upToDate) {
+				for (int i = 0; i < list.size(); i++) {
+					emit.accept(list.set(i, null));
+				}
+			} else {
+				processFiles(list, jgit, emit);
+			}
+			saveState(state, jgit, head);
+		}
+	}
+	
+	private File getStateFile(JGitUtils jgit) {
+		String name = (pathFilter == null ? "all" : Integer.toHexString(pathFilter.hashCode())) + (firstParent ? "-first-parent" : "");
+		return new File(jgit.getGit().getRepository().getDirectory(), "historia/untested-" + name + ".state");
+	}
+	
+	/**
+	 * Seed the files with the results of the previous analysis, if any, and limit the history to the
+	 * commits added since then.
+	 * 
+	 * @return true if the previous analysis was run on the same HEAD, so that the results are complete already
+	 */
+	private boolean resume(List<FileUpdates> list, JGitUtils jgit, ObjectId head) throws Exception {
+		AnalysisState state = AnalysisState.read(getStateFile(jgit));
+		if (state == null || !state.matches(pathFilter, testPathFilter.toString(), pullRequestIdRules.toString())) {
+			LOGGER.info(state == null ? "No previous analysis found, analyzing the whole history"
+					: "Previous analysis used other test paths or pull request id rules, analyzing the whole history");
+			return false;
+		}
+		boolean upToDate = state.getHead().equals(head);
+		if (!upToDate) {
+			Repository repo = jgit.getGit().getRepository();
+			boolean fastForward;
+			try (RevWalk walk = new RevWalk(repo)) {
+				fastForward = repo.getObjectDatabase().has(state.getHead())
+						&& walk.isMergedInto(walk.parseCommit(state.getHead()), walk.parseCommit(head));
+			}
+			if (!fastForward) {
+				LOGGER.info("Previous analysis of " + state.getHead().name() + " is not in the history of HEAD, analyzing the whole history");
+				return false;
+			}
+			LOGGER.info("Resuming previous analysis of " + state.getHead().name());
+			jgit.setHistoryBoundary(state.getHead());
+		}
+		HistoryIndex index = upToDate ? null : jgit.getHistoryIndex();
+		for (FileUpdates fu : list) {
+			String f = fu.getPrefix() + fu.getPath();
+			// Files renamed since the previous analysis were recorded with their previous path
+			AnalysisState.FileState fs = state.getFile(upToDate ? f : index.getOriginPath(f));
+			if (fs != null) {
+				fs.addTo(fu);
+			}
+		}
+		return upToDate;
+	}
+	
+	private void saveState(Map<String, AnalysisState.FileState> state, JGitUtils jgit, ObjectId head) {
+		if (state == null) {
+			return;
+		}
+		File file = getStateFile(jgit);
+		try {
+			AnalysisState.of(head, pathFilter, testPathFilter.toString(), pullRequestIdRules.toString(), state).write(file);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to save the analysis state to " + file, e);
+		}
+	}
+	
+	private List<FileUpdates> selectFiles(JGitUtils jgit) throws Exception {
+		// Only the files containing the path filter are listed
 		Set<String> files = jgit.getFilesOnHEAD();
-		FileUpdates.printHeader(w);
+		List<FileUpdates> list = new ArrayList<>(files.size());
 		for (String f : files) {
 			int pathFilterIndex = pathFilter == null ? 0 : f.indexOf(pathFilter);
-			if (pathFilterIndex >= 0) {
-				FileUpdates fu = new FileUpdates(f.substring(0, pathFilterIndex), f.substring(pathFilterIndex));
-				processFile(fu, jgit, f, LOGGER.isDebugEnabled());
-				fu.print(w);
+			list.add(new FileUpdates(f.substring(0, pathFilterIndex), f.substring(pathFilterIndex)));
+		}
+		return list;
+	}
+	
+	/**
+	 * Analyze the files, handing each one to the consumer in order and releasing it from the list.
+	 * With several workers, the files are claimed in order through a bounded reorder buffer, so that
+	 * a file with a long history holds back at most a window of files analyzed after it.
+	 */
+	private void processFiles(List<FileUpdates> list, JGitUtils jgit, FileUpdatesConsumer consumer) throws Exception {
+		boolean debug = LOGGER.isDebugEnabled();
+		if (parallelism <= 1) {
+			try (RevWalk walk = jgit.newRevWalk()) {
+				for (int i = 0; i < list.size(); i++) {
+					checkCancellation(jgit);
+					FileUpdates fu = list.set(i, null);
+					processFile(fu, jgit, walk, debug);
+					consumer.accept(fu);
+				}
+			}
+			return;
+		}
+		// Build the repository wide data before forking, workers only read it; the history index
+		// builds the commit table, which holds the PR memberships of the commits
+		jgit.getHistoryIndex();
+		ReorderBuffer<FileUpdates> buffer = new ReorderBuffer<>(list.size(), parallelism * REORDER_WINDOW_PER_WORKER);
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			for (int w = 0; w < parallelism; w++) {
+				pool.execute(() -> analyzeFiles(buffer, list, jgit, debug));
+			}
+			for (int i = 0; i < list.size(); i++) {
+				FileUpdates fu = buffer.take();
+				list.set(i, null);
+				consumer.accept(fu);
+			}
+		} finally {
+			// Stop the workers if the consumer failed, they must not outlive jgit
+			buffer.close();
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Analyze the files claimed from the buffer, with a RevWalk (and ObjectReader) confined to the worker thread.
+	 */
+	private void analyzeFiles(ReorderBuffer<FileUpdates> buffer, List<FileUpdates> list, JGitUtils jgit, boolean debug) {
+		try (RevWalk walk = jgit.newRevWalk()) {
+			int i;
+			while ((i = buffer.claim()) >= 0) {
+				checkCancellation(jgit);
+				// the consumer only releases the files it has taken already
+				FileUpdates fu = list.get(i);
+				processFile(fu, jgit, walk, debug);
+				buffer.put(i, fu);
 			}
+		} catch (Throwable t) {
+			buffer.fail(t);
+		}
+	}
+	
+	private static void checkCancellation(JGitUtils jgit) {
+		if (jgit.getCancellation().getAsBoolean()) {
+			throw new CancellationException("Analysis cancelled");
 		}
-		jgit.close();
 	}
 	
-	private void processFile(FileUpdates fu, JGitUtils jgit, String f, boolean debug) throws Exception {
+	private void processFile(FileUpdates fu, JGitUtils jgit, RevWalk walk, boolean debug) throws Exception {
+		String f = fu.getPrefix() + fu.getPath();
 		if (debug)
 			LOGGER.debug("F: " + f);
 		
-		// Find all PRs that include changes to this file
-		Map<String, List<RevCommit>> fileCommitsByPR = jgit.getPullRequestsForFile(f);
+		// The commits changing this file, as commit table ordinals, using the history index built with a single walk
+		HistoryIndex index = jgit.getHistoryIndex();
+		CommitTable table = index.getCommitTable();
+		int[] history = index.getFileHistoryOrdinals(f);
 		
 		if (debug)
-			LOGGER.debug("Found " + fileCommitsByPR.size() + " pull requests/individual commits for file " + f);
+			LOGGER.debug("Found " + history.length + " commits for file " + f);
 		
-		// Process each pull request that modified this file
-		for (Map.Entry<String, List<RevCommit>> entry : fileCommitsByPR.entrySet()) {
-			String prId = entry.getKey();
-			List<RevCommit> fileCommitsInPR = entry.getValue();
-			
-			// Check if this is a real PR ID (not a commit hash used as fallback)
-			boolean isRealPR = !prId.equals(fileCommitsInPR.get(0).getName());
-			
-			// If this is a real PR, get ALL commits in the PR, not just those that modified this file
-			List<RevCommit> allCommitsInPR;
-			if (isRealPR) {
-				allCommitsInPR = jgit.getCommitsInPullRequest(prId);
-				if (debug)
-					LOGGER.debug(" Processing PR: " + prId + " with " + fileCommitsInPR.size() + 
-							" commits modifying this file (out of " + allCommitsInPR.size() + " total commits in PR)");
-			} else {
-				// If not a real PR, just use the commit itself
-				allCommitsInPR = fileCommitsInPR;
+		// FileUpdates aggregates the updates newest first by commit time, which the walk order is not
+		// across branches: sort the ordinals by time, packed along with them in primitive longs
+		long[] byTime = new long[history.length];
+		for (int i = 0; i < history.length; i++) {
+			byTime[i] = (long) table.getCommitTime(history[i]) << 32 | history[i];
+		}
+		Arrays.sort(byTime);
+		for (int h = byTime.length - 1; h >= 0; h--) {
+			int c = (int) byTime[h];
+			int prCount = table.getCommitPullRequestCount(c);
+			if (prCount == 0) {
+				// If not in a PR, just use the commit itself
+				boolean tested = jgit.commitAffectsTests(c, walk);
 				if (debug)
-					LOGGER.debug(" Processing individual commit: " + prId);
-			}
-			
-			// Check if any commit in this PR affects tests
-			boolean testedInPR = jgit.pullRequestAffectsTests(allCommitsInPR);
-			
-			// For each commit that modified this file, increment updates with the same tested status
-			for (RevCommit commit : fileCommitsInPR) {
+					LOGGER.debug("  Commit: " + table.getId(c).abbreviate(8).name() + " (Tested: " + tested + ")");
+				fu.incrementUpdates(tested, table.getCommitTime(c));
+			}
+			// If in a PR, check ALL commits in the PR, not just those that modified this file;
+			// the result is computed once per PR and reused for every file the PR touched
+			for (int i = 0; i < prCount; i++) {
+				int pr = table.getCommitPullRequest(c, i);
+				boolean testedInPR = jgit.pullRequestAffectsTests(pr, walk);
 				if (debug)
-					LOGGER.debug("  Commit: " + commit.getName().substring(0, 8) + ": " + commit.getShortMessage() + 
-							" (Tested in PR: " + testedInPR + ")");
-				
-				fu.incrementUpdates(testedInPR, commit.getCommitTime());
+					LOGGER.debug("  Commit: " + table.getId(c).abbreviate(8).name() + " in PR " + table.getPullRequestId(pr)
+							+ " (Tested in PR: " + testedInPR + ")");
+				fu.incrementUpdates(testedInPR, table.getCommitTime(c));
 			}
 		}
 	}
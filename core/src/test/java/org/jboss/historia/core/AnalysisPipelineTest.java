@@ -0,0 +1,177 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests running several strategies on a single walk of the history.
+ */
+public class AnalysisPipelineTest {
+
+    private static final Logger LOGGER = Logger.getLogger(AnalysisPipelineTest.class);
+
+    /**
+     * Counts the events of the walk.
+     */
+    private static class CountingStrategy implements AnalysisStrategy {
+        private int commits;
+        private int changes;
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public void commit(RevCommit commit, int ordinal) {
+            commits++;
+        }
+
+        @Override
+        public void change(int ordinal, ChangeType type, String path, String oldPath) {
+            changes++;
+        }
+
+        @Override
+        public void report(JGitUtils jgit, ResultWriter out) throws IOException {
+            out.writeHeader(List.of("# commits", "# changes"));
+            out.writeNumber(commits);
+            out.writeNumber(changes);
+            out.endRow();
+        }
+    }
+
+    @Test
+    public void testSameResultsAsSeparateRuns() throws Exception {
+        try (TestRepository repo = new TestRepository("pipeline")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            repo.setAuthor("Other", "Other@Example.com");
+            repo.commit("Update C1", "module1/src/main/java/C1.java", "class C1 { int o; }");
+            repo.rename("Rename C2", "module2/src/main/java/C2.java", "module2/src/main/java/D2.java");
+
+            String clonePath = "target/jgit/pipeline-clone-" + System.nanoTime();
+            UntestedCommitDetectionStrategy untested = new UntestedCommitDetectionStrategy("src/main/java");
+            StringWriter expected = new StringWriter();
+            untested.process(repo.getUri(), clonePath, new ResultWriter(expected));
+
+            CountingStrategy counting = new CountingStrategy();
+            List<AnalysisStrategy> strategies = List.of(untested, AnalysisPipeline.createStrategy("churn", "src/main/java"),
+                    AnalysisPipeline.createStrategy("authorship", "src/main/java"), counting);
+            List<StringWriter> reports = new ArrayList<>();
+            List<ResultWriter> outputs = new ArrayList<>();
+            for (int i = 0; i < strategies.size(); i++) {
+                reports.add(new StringWriter());
+                outputs.add(new ResultWriter(reports.get(i)));
+            }
+            try (JGitUtils jgit = untested.open(repo.getUri(), clonePath)) {
+                new AnalysisPipeline(strategies).run(jgit, outputs);
+
+                // the untested commits are the same
+                assertEquals(expected.toString(), reports.get(0).toString());
+
+                // each commit was walked once, by all the strategies
+                HistoryIndex index = jgit.getHistoryIndex();
+                assertEquals(index.getCommitCount(), counting.commits);
+                assertTrue(counting.changes > 0);
+
+                // the changes of each path, renames not followed
+                Map<String, List<String>> churn = rows(reports.get(1).toString());
+                Map<String, List<String>> authorship = rows(reports.get(2).toString());
+                assertEquals(churn.keySet(), authorship.keySet());
+                for (String f : jgit.getFilesOnHEAD()) {
+                    if (!index.getOriginPath(f).equals(f)) {
+                        continue;
+                    }
+                    int changes = index.getFileHistoryOrdinals(f).length;
+                    assertEquals(f, String.valueOf(changes), churn.get(f).get(2));
+                    assertEquals(f, String.valueOf(changes), authorship.get(f).get(2));
+                }
+                assertEquals(List.of("module1/", "src/main/java/C1.java", "3", "2", "tester@example.com", "2", "67"),
+                        authorship.get("module1/src/main/java/C1.java"));
+                assertEquals(List.of("module1/", "src/main/java/C1.java", "3", "1", "2020-09-13T12:27:40Z", "2020-09-13T13:30:40Z"),
+                        churn.get("module1/src/main/java/C1.java"));
+                // the rename changed both paths
+                assertEquals("1", authorship.get("module2/src/main/java/D2.java").get(2));
+                assertEquals("other@example.com", authorship.get("module2/src/main/java/D2.java").get(4));
+                assertEquals("2", authorship.get("module2/src/main/java/C2.java").get(3));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownStrategy() {
+        AnalysisPipeline.createStrategy("unknown", null);
+    }
+
+    @Test
+    public void testReportFilename() {
+        assertEquals("output-churn.csv", Runner.reportFilename("output.csv", "churn"));
+        assertEquals("./target/output-churn.tsv", Runner.reportFilename("./target/output.tsv", "churn"));
+        assertEquals("./output-churn", Runner.reportFilename("./output", "churn"));
+    }
+
+    @Test
+    public void testOneWalkForSeveralReports() throws Exception {
+        try (SyntheticRepository synthetic = new SyntheticRepository("pipeline-cost", 10, 50, 2000, 5, 1)) {
+            String clonePath = "target/jgit/pipeline-cost-clone-" + System.nanoTime();
+            String[] names = { "untested", "churn", "authorship" };
+            long separately = 0;
+            long together = 0;
+            // warm up, then measure both
+            for (int run = 0; run < 2; run++) {
+                long startTime = System.nanoTime();
+                for (String name : names) {
+                    AnalysisStrategy strategy = AnalysisPipeline.createStrategy(name, "src/main/java");
+                    try (JGitUtils jgit = new UntestedCommitDetectionStrategy("src/main/java").open(synthetic.getUri(), clonePath)) {
+                        AnalysisPipeline.run(strategy, jgit, new ResultWriter(Writer.nullWriter()));
+                    }
+                }
+                separately = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                List<AnalysisStrategy> strategies = new ArrayList<>();
+                List<ResultWriter> outputs = new ArrayList<>();
+                for (String name : names) {
+                    strategies.add(AnalysisPipeline.createStrategy(name, "src/main/java"));
+                    outputs.add(new ResultWriter(Writer.nullWriter()));
+                }
+                try (JGitUtils jgit = new UntestedCommitDetectionStrategy("src/main/java").open(synthetic.getUri(), clonePath)) {
+                    new AnalysisPipeline(strategies).run(jgit, outputs);
+                }
+                together = System.nanoTime() - startTime;
+            }
+            LOGGER.debug(String.format("%d reports of %d files, separately: %.1fms, on one walk: %.1fms",
+                    names.length, 500, separately / 1e6, together / 1e6));
+        }
+    }
+
+    /**
+     * The rows of a report, by full path.
+     */
+    private static Map<String, List<String>> rows(String report) throws IOException {
+        Map<String, List<String>> rows = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(report))) {
+            reader.readLine();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                List<String> fields = ResultWriter.parseRow(line);
+                rows.put(fields.get(0) + fields.get(1), fields);
+            }
+        }
+        return rows;
+    }
+}
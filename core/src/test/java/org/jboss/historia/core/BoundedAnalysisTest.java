@@ -0,0 +1,161 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests the analyses bounded by a commit time window or a revision range.
+ */
+public class BoundedAnalysisTest {
+
+    private static final Logger LOGGER = Logger.getLogger(BoundedAnalysisTest.class);
+
+    @Test
+    public void testTimeWindow() throws Exception {
+        try (TestRepository repo = new TestRepository("bounded-window")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/bounded-window-clone-" + System.nanoTime())) {
+                HistoryIndex full = jgit.getHistoryIndex();
+                CommitTable fullTable = full.getCommitTable();
+                List<String> files = new ArrayList<>(jgit.getFilesOnHEAD());
+                // the commits of the second half of the history
+                int[] times = new int[fullTable.size()];
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = fullTable.getCommitTime(i);
+                }
+                Arrays.sort(times);
+                Instant since = Instant.ofEpochSecond(times[times.length / 2]);
+                Instant until = Instant.ofEpochSecond(times[times.length - 3]);
+
+                jgit.setTimeWindow(since, until);
+                HistoryIndex index = jgit.getHistoryIndex();
+                assertTrue(index.getCommitTable().size() < fullTable.size());
+                for (String f : files) {
+                    List<ObjectId> expected = new ArrayList<>();
+                    for (int c : full.getFileHistoryOrdinals(f)) {
+                        long time = fullTable.getCommitTime(c);
+                        if (time >= since.getEpochSecond() && time <= until.getEpochSecond()) {
+                            expected.add(fullTable.getId(c));
+                        }
+                    }
+                    assertEquals("History of " + f, expected, index.getFileHistory(f));
+                    // the FollowFilter history is bounded the same way
+                    assertEquals("History of " + f, expected, new ArrayList<ObjectId>(jgit.getFileHistory(f)));
+                }
+                for (RevCommit commit : jgit.getAllCommits()) {
+                    assertTrue(commit.getCommitTime() >= since.getEpochSecond() && commit.getCommitTime() <= until.getEpochSecond());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRefRange() throws Exception {
+        try (TestRepository repo = new TestRepository("bounded-range")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            repo.getGit().tag().setName("v1.0").call();
+            repo.commit("Update C1", "module1/src/main/java/C1.java", "class C1 { int v8; }");
+            repo.commit("Update C2", "module2/src/main/java/C2.java", "class C2 { int v8; }");
+
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/bounded-range-clone-" + System.nanoTime())) {
+                HistoryIndex full = jgit.getHistoryIndex();
+                Set<ObjectId> released = new HashSet<>();
+                for (RevCommit commit : jgit.getGit().log().add(jgit.getGit().getRepository().resolve("v1.0^{commit}")).call()) {
+                    released.add(commit.copy());
+                }
+
+                jgit.setRefRange("v1.0..HEAD");
+                HistoryIndex index = jgit.getHistoryIndex();
+                assertEquals(2, index.getCommitCount());
+                assertEquals(2, index.getCommitTable().size());
+                for (String f : jgit.getFilesOnHEAD()) {
+                    List<ObjectId> expected = new ArrayList<>();
+                    for (ObjectId id : full.getFileHistory(f)) {
+                        if (!released.contains(id)) {
+                            expected.add(id);
+                        }
+                    }
+                    assertEquals("History of " + f, expected, index.getFileHistory(f));
+                }
+
+                // the files of the end of the range
+                jgit.setRefRange("pr1");
+                assertEquals(jgit.getGit().getRepository().resolve("origin/pr1"), jgit.resolveHead());
+                assertTrue(jgit.getHistoryIndex().getCommitCount() < full.getCommitCount());
+            }
+
+            UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+            strategy.setRefRange("v1.0..");
+            long updates = 0;
+            for (UntestedCommitDetectionStrategy.FileUpdates fu : strategy.process(repo.getUri(), "target/jgit/bounded-range-strategy-" + System.nanoTime())) {
+                updates += fu.getUpdates();
+            }
+            assertEquals(2, updates);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRefRange() throws Exception {
+        try (TestRepository repo = new TestRepository("bounded-invalid");
+                JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/bounded-invalid-clone-" + System.nanoTime())) {
+            jgit.setRefRange("v1.0...HEAD");
+        }
+    }
+
+    @Test
+    public void testParseTime() {
+        assertEquals(Instant.parse("2024-01-31T12:00:00Z"), UntestedCommitDetectionStrategy.parseTime("2024-01-31T12:00:00Z"));
+        assertEquals(Instant.parse("2024-01-31T00:00:00Z"), UntestedCommitDetectionStrategy.parseTime("2024-01-31"));
+        Instant sixMonthsAgo = UntestedCommitDetectionStrategy.parseTime("P6M");
+        assertTrue(sixMonthsAgo.isBefore(Instant.now().minusSeconds(150L * 24 * 3600)));
+        assertTrue(sixMonthsAgo.isAfter(Instant.now().minusSeconds(200L * 24 * 3600)));
+    }
+
+    @Test
+    public void testWindowCostsAsMuchAsTheWindow() throws Exception {
+        try (SyntheticRepository synthetic = new SyntheticRepository("bounded-cost", 10, 50, 5000, 5, 1)) {
+            String clonePath = "target/jgit/bounded-cost-clone-" + System.nanoTime();
+            try (JGitUtils jgit = new JGitUtils(synthetic.getUri(), clonePath)) {
+                // warm up
+                jgit.getHistoryIndex();
+                jgit.clearCaches();
+
+                long startTime = System.nanoTime();
+                HistoryIndex full = jgit.getHistoryIndex();
+                long unbounded = System.nanoTime() - startTime;
+
+                // the last 500 of the 5000 updates, one minute apart
+                CommitTable fullTable = full.getCommitTable();
+                int newest = 0;
+                for (int i = 0; i < fullTable.size(); i++) {
+                    newest = Math.max(newest, fullTable.getCommitTime(i));
+                }
+                jgit.setTimeWindow(Instant.ofEpochSecond(newest - 500 * 60 + 1), null);
+                startTime = System.nanoTime();
+                HistoryIndex index = jgit.getHistoryIndex();
+                long bounded = System.nanoTime() - startTime;
+
+                // the updates and their pull request merges
+                assertTrue(index.getCommitTable().size() <= 600);
+                assertEquals(index.getCommitTable().size(), index.getCommitCount());
+                StringWriter output = new StringWriter();
+                output.append(String.format("History index of %d commits: %.1fms, of the last %d: %.1fms",
+                        full.getCommitCount(), unbounded / 1e6, index.getCommitCount(), bounded / 1e6));
+                LOGGER.debug(output);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jboss.logging.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Benchmarks file history walks and the history index on a large synthetic repository, with and without
+ * the commit-graph changed-path Bloom filters.
+ * The benchmark only runs with the historia.benchmark system property set, e.g. with the benchmark profile:
+ * mvn test -Pbenchmark -Dtest=CommitGraphBenchmarkTest
+ */
+public class CommitGraphBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(CommitGraphBenchmarkTest.class);
+    private static final int MODULES = 200;
+    private static final int FILES_PER_MODULE = 20;
+    private static final int COMMITS = 5000;
+
+    @Test
+    public void testBloomFilters() throws Exception {
+        Assume.assumeTrue("Benchmark disabled, set historia.benchmark to run it", Boolean.getBoolean("historia.benchmark"));
+        try (SyntheticRepository repo = new SyntheticRepository("commit-graph", MODULES, FILES_PER_MODULE, COMMITS, 42)) {
+            String clonePath = "target/jgit/commit-graph-clone-" + System.nanoTime();
+            List<String> files = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                files.add("module" + (i % MODULES) + "/src/main/java/F" + (i * 7 % FILES_PER_MODULE) + ".java");
+            }
+
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath, false, true)) {
+                jgit.setPathFilter(PathContainsFilter.create("module7/"));
+                // warm up, then walk without the commit-graph
+                histories(jgit, files);
+                indexHistories(jgit);
+                jgit.clearCaches();
+                long startTime = System.currentTimeMillis();
+                List<List<RevCommit>> expected = histories(jgit, files);
+                long historiesWithoutGraph = System.currentTimeMillis() - startTime;
+                startTime = System.currentTimeMillis();
+                List<List<ObjectId>> expectedIndex = indexHistories(jgit);
+                long indexWithoutGraph = System.currentTimeMillis() - startTime;
+
+                startTime = System.currentTimeMillis();
+                assertTrue(jgit.updateCommitGraph());
+                long write = System.currentTimeMillis() - startTime;
+                assertTrue(new File(clonePath, "objects/info/commit-graph").exists());
+                // the graph covers HEAD already
+                assertFalse(jgit.updateCommitGraph());
+
+                histories(jgit, files);
+                indexHistories(jgit);
+                jgit.clearCaches();
+                startTime = System.currentTimeMillis();
+                List<List<RevCommit>> actual = histories(jgit, files);
+                long historiesWithGraph = System.currentTimeMillis() - startTime;
+                startTime = System.currentTimeMillis();
+                List<List<ObjectId>> actualIndex = indexHistories(jgit);
+                long indexWithGraph = System.currentTimeMillis() - startTime;
+
+                assertEquals(expected, actual);
+                assertEquals(expectedIndex, actualIndex);
+                LOGGER.info("commit-graph of " + (COMMITS + 1) + " commits written in " + write + "ms");
+                LOGGER.info(String.format("getFileHistory() of %d files: %dms without commit-graph, %dms with it (%.1fx)",
+                        files.size(), historiesWithoutGraph, historiesWithGraph,
+                        (double) historiesWithoutGraph / Math.max(1, historiesWithGraph)));
+                LOGGER.info(String.format("History index of 1 module out of %d: %dms without commit-graph, %dms with it (%.1fx)",
+                        MODULES, indexWithoutGraph, indexWithGraph, (double) indexWithoutGraph / Math.max(1, indexWithGraph)));
+            }
+        }
+    }
+
+    private static List<List<RevCommit>> histories(JGitUtils jgit, List<String> files) throws Exception {
+        List<List<RevCommit>> histories = new ArrayList<>();
+        for (String file : files) {
+            histories.add(jgit.getFileHistory(file));
+        }
+        return histories;
+    }
+
+    private static List<List<ObjectId>> indexHistories(JGitUtils jgit) throws Exception {
+        HistoryIndex index = jgit.getHistoryIndex();
+        List<List<ObjectId>> histories = new ArrayList<>();
+        for (String file : jgit.getFilesOnHEAD()) {
+            histories.add(index.getFileHistory(file));
+        }
+        return histories;
+    }
+}
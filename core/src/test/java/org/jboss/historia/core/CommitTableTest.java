@@ -0,0 +1,262 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the compact commit table, checking it against the RevCommit based JGitUtils methods.
+ */
+public class CommitTableTest {
+
+    private static final Logger LOGGER = Logger.getLogger(CommitTableTest.class);
+
+    @Test
+    public void testTableMatchesCommits() throws Exception {
+        try (TestRepository repo = new TestRepository("commit-table")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            repo.checkout("feature", true);
+            repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+            repo.checkout("nested", true);
+            repo.commit("Test A", "src/test/java/ATest.java", "class ATest {}");
+            repo.checkout("feature", false);
+            repo.merge("nested", "Merge pull request #2 from nested");
+            repo.checkout("master", false);
+            repo.commit("Update B", "src/main/java/B.java", "class B {}");
+            repo.merge("feature", "Merge pull request #1 from feature");
+            repo.commit("Update B again", "src/main/java/B.java", "class B { int b; }");
+
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/commit-table-clone-" + System.nanoTime())) {
+                CommitTable table = jgit.getCommitTable();
+                List<RevCommit> commits = jgit.getAllCommits();
+                assertEquals(commits.size(), table.size());
+                for (RevCommit commit : commits) {
+                    int c = table.getOrdinal(commit);
+                    assertEquals(commit, table.getId(c));
+                    assertEquals(commit.getCommitTime(), table.getCommitTime(c));
+                    assertEquals(commit.getParentCount(), table.getParentCount(c));
+                    for (int i = 0; i < commit.getParentCount(); i++) {
+                        assertEquals(commit.getParent(i), table.getId(table.getParent(c, i)));
+                    }
+                }
+                assertEquals(CommitTable.NONE, table.getOrdinal(repo.getGit().getRepository().resolve("HEAD~1^{tree}")));
+
+                // same as a walk per merge, as long as each commit is brought in by a single outer merge
+                Set<String> prIds = new HashSet<>();
+                for (RevCommit merge : jgit.getMergeCommits()) {
+                    String prId = jgit.extractPullRequestId(merge);
+                    prIds.add(prId);
+                    List<RevCommit> expected = jgit.getMergedCommits(merge);
+                    expected.add(merge);
+                    assertEquals(names(expected), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal(prId))));
+                }
+                assertEquals(prIds, ids(table));
+                // the nested PR commits belong to both PRs
+                assertEquals(2, table.getCommitPullRequestCount(table.getOrdinal(repo.getGit().getRepository().resolve("HEAD~1^2^2"))));
+                assertEquals(CommitTable.NONE, table.getPullRequestOrdinal("3"));
+            }
+        }
+    }
+
+    @Test
+    public void testCommitsAreBroughtInOnce() throws Exception {
+        try (TestRepository repo = new TestRepository("commit-table-once")) {
+            RevCommit initial = repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            repo.checkout("release", true);
+            repo.checkout("feature", true);
+            RevCommit test = repo.commit("Test A", "src/test/java/ATest.java", "class ATest {}");
+            repo.checkout("master", false);
+            RevCommit merge = repo.merge("feature", "Merge pull request #1 from feature");
+            // the same branch merged in another branch as well
+            repo.checkout("release", false);
+            RevCommit releaseMerge = repo.merge("feature", "Merge pull request #2 from feature");
+            repo.checkout("master", false);
+
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/commit-table-once-clone-" + System.nanoTime())) {
+                CommitTable table = jgit.getCommitTable();
+                // attributed to the PR of HEAD
+                assertEquals(names(List.of(test, merge)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("1"))));
+                assertEquals(names(List.of(releaseMerge)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("2"))));
+                assertEquals(1, table.getCommitPullRequestCount(table.getOrdinal(test)));
+                assertEquals(0, table.getCommitPullRequestCount(table.getOrdinal(initial)));
+
+                // the history of the boundary has been analyzed already
+                jgit.setHistoryBoundary(merge);
+                table = jgit.getCommitTable();
+                assertEquals(1, table.size());
+                assertEquals(CommitTable.NONE, table.getPullRequestOrdinal("1"));
+                assertEquals(names(List.of(releaseMerge)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("2"))));
+            }
+        }
+    }
+
+    @Test
+    public void testSquashedAndRebasedPullRequests() throws Exception {
+        try (TestRepository repo = new TestRepository("commit-table-squash")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/main/java/B.java", "class B {}");
+            RevCommit squashed = repo.commit("Fix A (#10)", "src/main/java/A.java", "class A { int a; }", "src/test/java/ATest.java", "class ATest {}");
+            RevCommit rebased1 = repo.commit("Update B (#11)", "src/main/java/B.java", "class B { int b; }");
+            RevCommit rebased2 = repo.commit("Test B (#11)", "src/test/java/BTest.java", "class BTest {}");
+            RevCommit direct = repo.commit("Update A", "src/main/java/A.java", "class A { int a2; }");
+            repo.checkout("feature", true);
+            RevCommit branch = repo.commit("Work on B (#12)", "src/main/java/B.java", "class B { int b2; }");
+            repo.checkout("master", false);
+            repo.commit("Update A again", "src/main/java/A.java", "class A { int a3; }");
+            RevCommit merge = repo.merge("feature", "Merge pull request #12 from feature");
+            // a backport of #10 keeps its id, the oldest run wins
+            RevCommit backport = repo.commit("Fix A on main (#10)", "src/main/java/A.java", "class A { int a4; }");
+
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/commit-table-squash-clone-" + System.nanoTime())) {
+                CommitTable table = jgit.getCommitTable();
+                assertEquals(Set.of("10", "11", "12"), ids(table));
+                assertEquals(names(List.of(squashed)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("10"))));
+                assertEquals(names(List.of(rebased1, rebased2)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("11"))));
+                assertEquals(names(List.of(branch, merge)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("12"))));
+                assertEquals(0, table.getCommitPullRequestCount(table.getOrdinal(direct)));
+                assertEquals(0, table.getCommitPullRequestCount(table.getOrdinal(backport)));
+                assertEquals(1, table.getCommitPullRequestCount(table.getOrdinal(branch)));
+
+                // the tests of a rebased PR cover all its commits
+                assertEquals(names(List.of(rebased1, rebased2)), names(jgit.getCommitsInPullRequest("11")));
+                assertTrue(jgit.pullRequestAffectsTests("11"));
+                assertFalse(jgit.pullRequestAffectsTests("12"));
+                assertEquals(0, jgit.getCommitsInPullRequest("13").size());
+            }
+        }
+    }
+
+    @Test
+    public void testMergedCommitWithAnotherId() throws Exception {
+        try (TestRepository repo = new TestRepository("commit-table-merged-id")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/main/java/C.java", "class C {}");
+            repo.checkout("feature", true);
+            // the id of another PR, e.g. cherry-picked into the branch of #50
+            RevCommit fix = repo.commit("Fix NPE (#45)", "src/main/java/C.java", "class C { int c; }");
+            RevCommit test = repo.commit("Test C", "src/test/java/CTest.java", "class CTest {}");
+            repo.checkout("master", false);
+            repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+            RevCommit merge = repo.merge("feature", "Merge pull request #50 from feature");
+
+            String clonePath = "target/jgit/commit-table-merged-id-clone-" + System.nanoTime();
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath)) {
+                CommitTable table = jgit.getCommitTable();
+                // the commit only belongs to the PR of the merge
+                assertEquals(Set.of("50"), ids(table));
+                assertEquals(1, table.getCommitPullRequestCount(table.getOrdinal(fix)));
+                assertEquals(names(List.of(fix, test, merge)), names(table, table.getPullRequestCommits(table.getPullRequestOrdinal("50"))));
+                assertTrue(jgit.pullRequestAffectsTests("50"));
+            }
+
+            // the change is counted once, as tested by its PR
+            UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+            Map<String, UntestedCommitDetectionStrategy.FileUpdates> files = new HashMap<>();
+            for (UntestedCommitDetectionStrategy.FileUpdates fu : strategy.process(repo.getUri(), clonePath)) {
+                files.put(fu.getPath(), fu);
+            }
+            assertEquals(2, files.get("src/main/java/C.java").getUpdates());
+            assertEquals(1, files.get("src/main/java/C.java").getUntestedUpdates());
+        }
+    }
+
+    @Test
+    public void testPullRequestMembershipsScale() throws Exception {
+        int commits = 20000;
+        try (SyntheticRepository repo = new SyntheticRepository("commit-table-merges", 20, 10, commits, 2, 11)) {
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/commit-table-merges-clone-" + System.nanoTime(), false, true)) {
+                List<RevCommit> merges = jgit.getMergeCommits();
+                assertEquals(commits / 2, merges.size());
+
+                // a walk per merge, as getAllPullRequests() used to do
+                long startTime = System.currentTimeMillis();
+                Map<String, Set<String>> expected = new HashMap<>();
+                for (RevCommit merge : merges) {
+                    List<RevCommit> prCommits = jgit.getMergedCommits(merge);
+                    prCommits.add(merge);
+                    expected.put(jgit.extractPullRequestId(merge), names(prCommits));
+                }
+                long perMerge = System.currentTimeMillis() - startTime;
+
+                startTime = System.currentTimeMillis();
+                CommitTable table = jgit.getCommitTable();
+                long singleWalk = System.currentTimeMillis() - startTime;
+
+                Map<String, Set<String>> actual = new HashMap<>();
+                for (int pr = 0; pr < table.getPullRequestCount(); pr++) {
+                    actual.put(table.getPullRequestId(pr), names(table, table.getPullRequestCommits(pr)));
+                }
+                assertEquals(expected, actual);
+                LOGGER.debug("Memberships of " + merges.size() + " PRs with a walk per merge: " + perMerge + "ms");
+                LOGGER.debug("Commit table of " + table.size() + " commits and " + merges.size() + " PRs with a single walk: " + singleWalk + "ms");
+            }
+        }
+    }
+
+    @Test
+    public void testFootprint() throws Exception {
+        int commits = 20000;
+        try (SyntheticRepository repo = new SyntheticRepository("commit-table-footprint", 20, 10, commits, 7)) {
+            Runtime runtime = Runtime.getRuntime();
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/commit-table-footprint-clone-" + System.nanoTime(), false, true)) {
+                // warm up the object caches
+                jgit.getCommitTable();
+                jgit.getAllCommits();
+                jgit.clearCaches();
+
+                long before = usedMemory(runtime);
+                assertEquals(commits + 1, jgit.getAllCommits().size());
+                long withList = usedMemory(runtime) - before;
+                jgit.clearCaches();
+
+                before = usedMemory(runtime);
+                CommitTable table = jgit.getCommitTable();
+                long withTable = usedMemory(runtime) - before;
+
+                assertEquals(commits + 1, table.size());
+                LOGGER.debug((commits + 1) + " commits retained as RevCommits: " + withList / 1024 + "KB");
+                LOGGER.debug((commits + 1) + " commits in the commit table: " + withTable / 1024 + "KB");
+            }
+        }
+    }
+
+    private static Set<String> ids(CommitTable table) {
+        Set<String> ids = new HashSet<>();
+        for (int pr = 0; pr < table.getPullRequestCount(); pr++) {
+            ids.add(table.getPullRequestId(pr));
+        }
+        return ids;
+    }
+
+    private static Set<String> names(List<RevCommit> commits) {
+        Set<String> names = new HashSet<>();
+        for (RevCommit commit : commits) {
+            names.add(commit.getName());
+        }
+        return names;
+    }
+
+    private static Set<String> names(CommitTable table, int[] commits) {
+        Set<String> names = new HashSet<>();
+        for (int c : commits) {
+            names.add(table.getId(c).getName());
+        }
+        return names;
+    }
+
+    private static long usedMemory(Runtime runtime) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
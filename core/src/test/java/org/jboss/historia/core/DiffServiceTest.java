@@ -0,0 +1,105 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the per analysis diff service.
+ */
+public class DiffServiceTest {
+
+    private TestRepository repo;
+    private JGitUtils jgit;
+    private RevCommit initial;
+    private RevCommit update;
+    private RevCommit delete;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository("diff-service");
+        initial = repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/main/java/B.java", "class B {}");
+        update = repo.commit("Update A", "src/main/java/A.java", "class A { int a; }", "src/test/java/ATest.java", "class ATest {}");
+        delete = repo.delete("Drop B", "src/main/java/B.java");
+        jgit = new JGitUtils(repo.getUri(), "target/jgit/diff-service-clone-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jgit.close();
+        repo.close();
+    }
+
+    @Test
+    public void testChangedPaths() throws Exception {
+        DiffService diffs = jgit.getDiffService();
+        assertEquals(Set.of("src/main/java/A.java", "src/main/java/B.java"), diffs.getChangedPaths(initial));
+        assertEquals(Set.of("src/main/java/A.java", "src/test/java/ATest.java"), diffs.getChangedPaths(update));
+        // same paths as the diff of the trees
+        for (RevCommit commit : List.of(update, delete)) {
+            RevCommit c = jgit.getCommit(commit.getName());
+            assertEquals(jgit.getChangedFiles(jgit.getParentCommitTree(c), c.getTree()), diffs.getChangedPaths(c));
+        }
+    }
+
+    @Test
+    public void testChangedPathsAreComputedOnce() throws Exception {
+        DiffService diffs = jgit.getDiffService();
+        assertFalse(diffs.isCached(update));
+        Set<String> paths;
+        try (RevWalk walk = jgit.newRevWalk()) {
+            paths = diffs.getChangedPaths(update, walk);
+        }
+        assertTrue(diffs.isCached(update));
+        // whichever walk asks for them
+        assertSame(paths, diffs.getChangedPaths(update));
+        try (RevWalk walk = jgit.newRevWalk()) {
+            assertSame(paths, diffs.getChangedPaths(jgit.getCommit(update.getName()), walk));
+            assertTrue(jgit.commitAffectsTests(update, walk));
+        }
+        assertSame(paths, diffs.getChangedPaths(update));
+
+        jgit.clearCaches();
+        assertFalse(diffs.isCached(update));
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        DiffService diffs = jgit.getDiffService();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Set<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                boolean ownWalk = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    if (!ownWalk) {
+                        return diffs.getChangedPaths(update);
+                    }
+                    try (RevWalk walk = jgit.newRevWalk()) {
+                        return diffs.getChangedPaths(update, walk);
+                    }
+                }));
+            }
+            Set<String> first = results.get(0).get();
+            for (Future<Set<String>> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
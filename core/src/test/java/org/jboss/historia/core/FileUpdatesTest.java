@@ -0,0 +1,146 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the FileUpdates counters, checking them against sorting all the updates by commit time.
+ */
+public class FileUpdatesTest {
+
+    private static final Logger LOGGER = Logger.getLogger(FileUpdatesTest.class);
+
+    @Test
+    public void testCountersDoNotDependOnTheOrderAtTheSameTime() {
+        Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            List<long[]> updates = new ArrayList<>();
+            int count = random.nextInt(50);
+            for (int i = 0; i < count; i++) {
+                // few distinct times, so that tested and untested updates share some
+                updates.add(new long[] { random.nextInt(20), random.nextInt(3) == 0 ? 1 : 0 });
+            }
+            long expected = sinceLastTested(updates);
+            for (int shuffle = 0; shuffle < 3; shuffle++) {
+                // newest first, as the strategy adds them, in any order at the same time
+                Collections.shuffle(updates, random);
+                updates.sort(Comparator.comparingLong((long[] update) -> update[0]).reversed());
+                FileUpdates fu = new FileUpdates("", "F.java");
+                for (long[] update : updates) {
+                    fu.incrementUpdates(update[1] == 1, update[0]);
+                }
+                assertEquals(count, fu.getUpdates());
+                assertEquals(expected, fu.getUpdatesSinceLastTested());
+            }
+        }
+    }
+
+    @Test
+    public void testAddPrevious() {
+        FileUpdates previous = new FileUpdates("", "F.java");
+        previous.incrementUpdates(false, 40);
+        previous.incrementUpdates(false, 30);
+        previous.incrementUpdates(true, 20);
+        previous.incrementUpdates(false, 10);
+
+        FileUpdates fu = new FileUpdates("", "F.java");
+        fu.addPrevious(previous.getUpdates(), previous.getUntestedUpdates(), previous.getLastTestedTime(),
+                previous.getUpdatesSinceLastTested());
+        fu.incrementUpdates(false, 50);
+        assertEquals(5, fu.getUpdates());
+        assertEquals(4, fu.getUntestedUpdates());
+        assertEquals(20, fu.getLastTestedTime());
+        assertEquals(3, fu.getUpdatesSinceLastTested());
+
+        fu.incrementUpdates(true, 45);
+        assertEquals(45, fu.getLastTestedTime());
+        assertEquals(1, fu.getUpdatesSinceLastTested());
+    }
+
+    @Test
+    public void testAddPreviousThenOlderUpdates() {
+        List<long[]> updates = new ArrayList<>();
+        FileUpdates previous = new FileUpdates("", "F.java");
+        for (long[] update : new long[][] { { 40, 0 }, { 30, 0 }, { 20, 1 }, { 10, 0 } }) {
+            previous.incrementUpdates(update[1] == 1, update[0]);
+            updates.add(update);
+        }
+
+        // a merged long-lived branch brings updates older than the last tested one
+        FileUpdates fu = new FileUpdates("", "F.java");
+        fu.addPrevious(previous.getUpdates(), previous.getUntestedUpdates(), previous.getLastTestedTime(),
+                previous.getUpdatesSinceLastTested());
+        for (long[] update : new long[][] { { 25, 0 }, { 20, 0 }, { 15, 0 }, { 12, 1 } }) {
+            fu.incrementUpdates(update[1] == 1, update[0]);
+            updates.add(update);
+        }
+        assertEquals(8, fu.getUpdates());
+        assertEquals(6, fu.getUntestedUpdates());
+        assertEquals(20, fu.getLastTestedTime());
+        assertEquals(sinceLastTested(updates), fu.getUpdatesSinceLastTested());
+        assertEquals(3, fu.getUpdatesSinceLastTested());
+    }
+
+    @Test
+    public void testNeverTested() {
+        FileUpdates fu = new FileUpdates("", "F.java");
+        fu.addPrevious(10, 10, -1, 10);
+        for (int i = 1_000_000; i > 0; i--) {
+            fu.incrementUpdates(false, i);
+        }
+        assertEquals(1_000_010, fu.getUpdatesSinceLastTested());
+        assertEquals(-1, fu.getLastTestedTime());
+    }
+
+    @Test
+    public void testHotFile() {
+        int count = 1_000_000;
+        // warm up
+        for (int run = 0; run < 3; run++) {
+            addNewestFirst(count);
+        }
+        long startTime = System.nanoTime();
+        FileUpdates fu = addNewestFirst(count);
+        long time = System.nanoTime() - startTime;
+        assertEquals(count, fu.getUpdates());
+        // the untested updates before the last tested one are not kept
+        assertEquals(9, fu.getUpdatesSinceLastTested());
+        LOGGER.debug(String.format("%d updates of a file, newest first: %.1fms", count, time / 1e6));
+    }
+
+    private static FileUpdates addNewestFirst(int count) {
+        FileUpdates fu = new FileUpdates("", "F.java");
+        for (int i = count; i > 0; i--) {
+            fu.incrementUpdates(i % 10 == 1, i);
+        }
+        return fu;
+    }
+
+    /**
+     * The untested updates after the last tested one, sorting all the updates by commit time.
+     */
+    private static long sinceLastTested(List<long[]> updates) {
+        long lastTestedTime = -1;
+        for (long[] update : updates) {
+            if (update[1] == 1) {
+                lastTestedTime = Math.max(lastTestedTime, update[0]);
+            }
+        }
+        long count = 0;
+        for (long[] update : updates) {
+            if (update[1] == 0 && (lastTestedTime < 0 || update[0] > lastTestedTime)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
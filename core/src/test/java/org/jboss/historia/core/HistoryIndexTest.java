@@ -0,0 +1,251 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.jboss.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the HistoryIndex, verifying it answers file history queries
+ * like the FollowFilter based JGitUtils.getFileHistory does.
+ */
+public class HistoryIndexTest {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryIndexTest.class);
+
+    private TestRepository repo;
+    private JGitUtils jgit;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository("history-index");
+        repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/main/java/B.java", "class B {}", "README", "readme");
+        repo.checkout("feature", true);
+        repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+        repo.commit("Test A", "src/test/java/ATest.java", "class ATest {}");
+        repo.checkout("master", false);
+        repo.commit("Update B", "src/main/java/B.java", "class B { int b; }");
+        repo.merge("feature", "Merge pull request #1 from feature");
+        repo.rename("Move B", "src/main/java/B.java", "src/main/java/b/B.java");
+        repo.commit("Update moved B", "src/main/java/b/B.java", "class B { int b; int c; }");
+        repo.delete("Drop README", "README");
+        repo.commit("Restore README", "README", "new readme");
+        jgit = new JGitUtils(repo.getUri(), "target/jgit/history-index-clone-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jgit.close();
+        repo.close();
+    }
+
+    @Test
+    public void testIndexMatchesFollowFilterHistory() throws Exception {
+        HistoryIndex index = jgit.getHistoryIndex();
+        assertEquals(9, index.getCommitCount());
+        for (String f : jgit.getFilesOnHEAD()) {
+            assertEquals("History of " + f, names(jgit.getFileHistory(f)), names(index.getFileHistory(f)));
+        }
+    }
+
+    @Test
+    public void testRenameIsFollowed() throws Exception {
+        List<String> messages = new ArrayList<>();
+        for (ObjectId id : jgit.getHistoryIndex().getFileHistory("src/main/java/b/B.java")) {
+            messages.add(jgit.getCommit(id.getName()).getShortMessage());
+        }
+        assertEquals(List.of("Update moved B", "Move B", "Update B", "Initial import"), messages);
+        assertEquals("src/main/java/B.java", jgit.getHistoryIndex().getOriginPath("src/main/java/b/B.java"));
+    }
+
+    @Test
+    public void testUnknownPath() throws Exception {
+        assertEquals(0, jgit.getHistoryIndex().getFileHistory("does/not/exist").size());
+    }
+
+    @Test
+    public void testPathFilter() throws Exception {
+        HistoryIndex full = jgit.getHistoryIndex();
+        // B was renamed from outside the filter
+        jgit.setPathFilter(PathContainsFilter.create("java/b/"));
+        assertEquals(Set.of("src/main/java/b/B.java"), jgit.getFilesOnHEAD());
+        HistoryIndex index = jgit.getHistoryIndex();
+        assertEquals(full.getCommitCount(), index.getCommitCount());
+        assertEquals(names(full.getFileHistory("src/main/java/b/B.java")), names(index.getFileHistory("src/main/java/b/B.java")));
+        assertEquals("src/main/java/B.java", index.getOriginPath("src/main/java/b/B.java"));
+        assertEquals(0, index.getFileHistory("README").size());
+
+        jgit.setPathFilter(PathContainsFilter.create("src/main"));
+        assertEquals(Set.of("src/main/java/A.java", "src/main/java/b/B.java"), jgit.getFilesOnHEAD());
+        index = jgit.getHistoryIndex();
+        for (String f : jgit.getFilesOnHEAD()) {
+            assertEquals("History of " + f, names(full.getFileHistory(f)), names(index.getFileHistory(f)));
+        }
+        assertEquals(0, index.getFileHistory("src/test/java/ATest.java").size());
+    }
+
+    @Test
+    public void testFollowedPathDoesNotStopTheWalk() throws Exception {
+        try (TestRepository other = new TestRepository("history-index-follow")) {
+            other.commit("Initial import", "aaa/A.java", "class A {}", "bbb/Notes.txt", "notes", "src/Z.java", "class Z {}");
+            other.commit("Update Z", "bbb/Notes.txt", "more notes", "src/Z.java", "class Z { int z; }");
+            // the old path sorts before the changed paths of the older commits
+            other.rename("Move A", "aaa/A.java", "src/A.java");
+            other.commit("Update Z again", "bbb/Notes.txt", "even more notes", "src/Z.java", "class Z { int z; int y; }");
+            try (JGitUtils clone = new JGitUtils(other.getUri(), "target/jgit/history-index-follow-clone-" + System.nanoTime())) {
+                HistoryIndex full = clone.getHistoryIndex();
+                clone.setPathFilter(PathContainsFilter.create("src/"));
+                HistoryIndex index = clone.getHistoryIndex();
+                assertEquals(3, index.getFileHistory("src/Z.java").size());
+                assertEquals(2, index.getFileHistory("src/A.java").size());
+                for (String f : clone.getFilesOnHEAD()) {
+                    assertEquals("History of " + f, names(full.getFileHistory(f)), names(index.getFileHistory(f)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCommitGraphScope() throws Exception {
+        try (TestRepository other = new TestRepository("history-index-scope")) {
+            other.commit("Initial import", "aaa/A.java", "class A {}", "bbb/Notes.txt", "notes", "src/Z.java", "class Z {}",
+                    "old/src/X.java", "class X {}");
+            other.commit("Update Z", "bbb/Notes.txt", "more notes", "src/Z.java", "class Z { int z; }");
+            other.commit("Update notes", "bbb/Notes.txt", "even more notes");
+            other.delete("Drop X", "old/src/X.java");
+            other.rename("Move A", "aaa/A.java", "src/A.java");
+            other.commit("Update Z again", "src/Z.java", "class Z { int z; int y; }");
+            try (JGitUtils clone = new JGitUtils(other.getUri(), "target/jgit/history-index-scope-clone-" + System.nanoTime())) {
+                clone.setPathFilter(PathContainsFilter.create("src/"));
+                HistoryIndex withoutGraph = clone.getHistoryIndex();
+                assertEquals(2, withoutGraph.getFileHistory("old/src/X.java").size());
+
+                assertTrue(clone.updateCommitGraph());
+                assertFalse(clone.updateCommitGraph());
+                // neither the configuration nor the packs of the clone are changed
+                Repository repository = clone.getGit().getRepository();
+                assertNull(repository.getConfig().getString("core", null, "commitGraph"));
+                assertEquals(Collections.emptySet(), repository.getConfig().getNames("pack"));
+                HistoryIndex index = clone.getHistoryIndex();
+                assertEquals(withoutGraph.getCommitCount(), index.getCommitCount());
+                for (String f : clone.getFilesOnHEAD()) {
+                    assertEquals("History of " + f, names(withoutGraph.getFileHistory(f)), names(index.getFileHistory(f)));
+                }
+                assertEquals(2, index.getFileHistory("src/A.java").size());
+                // the commits changing no directory of the files on HEAD are not diffed, the root commit is
+                assertEquals(List.of("Initial import"), messages(clone, index.getFileHistory("old/src/X.java")));
+                for (String f : clone.getFilesOnHEAD()) {
+                    assertEquals("History of " + f, names(withoutGraph.getFileHistory(f)), names(clone.getFileHistory(f)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPathFilterLimitsIndexing() throws Exception {
+        try (SyntheticRepository synthetic = new SyntheticRepository("history-index-filter", 20, 50, 3000, 1)) {
+            Repository repository = synthetic.getGit().getRepository();
+            ObjectId head = repository.resolve(Constants.HEAD);
+            CommitTable table = CommitTable.build(repository, Collections.singleton(head), null, null);
+            // warm up both
+            HistoryIndex.build(repository, head, null, table);
+            HistoryIndex.build(repository, head, null, table, PathContainsFilter.create("module7/"));
+
+            long startTime = System.nanoTime();
+            HistoryIndex full = HistoryIndex.build(repository, head, null, table);
+            long unfiltered = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            HistoryIndex index = HistoryIndex.build(repository, head, null, table, PathContainsFilter.create("module7/"));
+            long filtered = System.nanoTime() - startTime;
+
+            for (int f = 0; f < 50; f++) {
+                String path = "module7/src/main/java/F" + f + ".java";
+                assertEquals(path, names(full.getFileHistory(path)), names(index.getFileHistory(path)));
+            }
+            assertEquals(0, index.getFileHistory("module8/src/main/java/F0.java").size());
+            assertTrue(full.getFileHistory("module8/src/main/java/F0.java").size() > 0);
+            LOGGER.debug(String.format("History index of 3000 commits, all the paths: %.1fms", unfiltered / 1e6));
+            LOGGER.debug(String.format("History index of 3000 commits, 1 module out of 20: %.1fms", filtered / 1e6));
+        }
+    }
+
+    @Test
+    public void testFirstParent() throws Exception {
+        jgit.setFirstParent(true);
+        HistoryIndex index = jgit.getHistoryIndex();
+        // the commits of the feature branch are not walked
+        assertEquals(7, index.getCommitCount());
+        // the merge changes what the branch changed
+        assertEquals(List.of("Merge pull request #1 from feature", "Initial import"), messages(index.getFileHistory("src/main/java/A.java")));
+        assertEquals(List.of("Merge pull request #1 from feature"), messages(index.getFileHistory("src/test/java/ATest.java")));
+        assertEquals(List.of("Update moved B", "Move B", "Update B", "Initial import"), messages(index.getFileHistory("src/main/java/b/B.java")));
+        assertEquals(names(index.getFileHistory("src/main/java/A.java")), names(jgit.getFileHistory("src/main/java/A.java")));
+        CommitTable table = index.getCommitTable();
+        assertEquals(1, table.getPullRequestCount());
+        assertEquals(1, table.getPullRequestCommits(0).length);
+    }
+
+    @Test
+    public void testFirstParentCost() throws Exception {
+        try (SyntheticRepository synthetic = new SyntheticRepository("history-index-first-parent", 20, 50, 3000, 2, 1)) {
+            Repository repository = synthetic.getGit().getRepository();
+            ObjectId head = repository.resolve(Constants.HEAD);
+            HistoryIndex[] indexes = new HistoryIndex[2];
+            // warm up, then measure both
+            for (int run = 0; run < 4; run++) {
+                boolean firstParent = run % 2 == 1;
+                long startTime = System.nanoTime();
+                CommitTable table = CommitTable.build(repository, Collections.singleton(head), Collections.emptyList(),
+                        RevFilter.ALL, firstParent, null);
+                indexes[run % 2] = HistoryIndex.build(repository, head, Collections.emptyList(), RevFilter.ALL, firstParent,
+                        table, TreeFilter.ALL);
+                long time = System.nanoTime() - startTime;
+                LOGGER.debug(String.format("Commit table and history index of %d commits%s: %.1fms",
+                        indexes[run % 2].getCommitCount(), firstParent ? " along the first parents" : "", time / 1e6));
+            }
+            // every other update is on a branch of its own, merged with the same tree
+            assertEquals(4501, indexes[0].getCommitCount());
+            assertEquals(3001, indexes[1].getCommitCount());
+            for (int f = 0; f < 50; f++) {
+                String path = "module3/src/main/java/F" + f + ".java";
+                assertEquals(path, indexes[0].getFileHistory(path).size(), indexes[1].getFileHistory(path).size());
+            }
+        }
+    }
+
+    private List<String> messages(List<ObjectId> commits) throws Exception {
+        return messages(jgit, commits);
+    }
+
+    private static List<String> messages(JGitUtils jgit, List<ObjectId> commits) throws Exception {
+        List<String> messages = new ArrayList<>();
+        for (ObjectId id : commits) {
+            messages.add(jgit.getCommit(id.getName()).getShortMessage());
+        }
+        return messages;
+    }
+
+    private static List<String> names(List<? extends ObjectId> commits) {
+        List<String> names = new ArrayList<>();
+        for (ObjectId c : commits) {
+            names.add(c.getName());
+        }
+        return names;
+    }
+}
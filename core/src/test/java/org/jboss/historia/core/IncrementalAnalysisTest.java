@@ -0,0 +1,125 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+/**
+ * Tests the incremental analysis, resuming from the results of a previous analysis of the same clone.
+ */
+public class IncrementalAnalysisTest {
+
+    @Test
+    public void testIncrementalAnalysisMatchesFullAnalysis() throws Exception {
+        try (TestRepository repo = new TestRepository("incremental")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            String clonePath = "target/jgit/incremental-clone-" + System.nanoTime();
+
+            UntestedCommitDetectionStrategy incremental = new UntestedCommitDetectionStrategy("src/main/java");
+            incremental.setIncremental(true);
+            incremental.setRefresh(true);
+            incremental.process(repo.getUri(), clonePath);
+            assertNotNull(AnalysisState.read(new File(clonePath, ".git/historia/untested-"
+                    + Integer.toHexString("src/main/java".hashCode()) + ".state")));
+
+            // new tested and untested pull requests, a rename and direct updates
+            repo.checkout("pr7", true);
+            repo.commit("Update C1", "module1/src/main/java/C1.java", "class C1 { int v7; }");
+            repo.commit("Add tests", "module0/src/test/java/T7.java", "class T7 {}");
+            repo.checkout("master", false);
+            repo.merge("pr7", "Merge pull request #7 from pr7");
+            repo.rename("Rename C2", "module2/src/main/java/C2.java", "module2/src/main/java/D2.java");
+            repo.commit("Update D2", "module2/src/main/java/D2.java", "class D2 { int d; }");
+            repo.commit("Update C4", "module1/src/main/java/C4.java", "class C4 { int d7; }");
+
+            StringWriter actual = new StringWriter();
+            incremental.process(repo.getUri(), clonePath, actual);
+
+            UntestedCommitDetectionStrategy full = new UntestedCommitDetectionStrategy("src/main/java");
+            StringWriter expected = new StringWriter();
+            full.process(repo.getUri(), "target/jgit/incremental-full-" + System.nanoTime(), expected);
+
+            assertEquals(expected.toString(), actual.toString());
+
+            // nothing new, the saved results are reused as they are
+            StringWriter again = new StringWriter();
+            incremental.process(repo.getUri(), clonePath, again);
+            assertEquals(expected.toString(), again.toString());
+        }
+    }
+
+    @Test
+    public void testRewrittenHistoryIsAnalyzedAgain() throws Exception {
+        try (TestRepository repo = new TestRepository("incremental-rewrite")) {
+            RevCommit initial = repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+            String clonePath = "target/jgit/incremental-rewrite-clone-" + System.nanoTime();
+
+            UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+            strategy.setIncremental(true);
+            strategy.setRefresh(true);
+            assertEquals(2, strategy.process(repo.getUri(), clonePath).get(0).getUpdates());
+
+            // drop the last commit and replace it
+            repo.getGit().reset().setMode(ResetType.HARD).setRef(initial.getName()).call();
+            repo.commit("Update A differently", "src/main/java/A.java", "class A { int b; }");
+
+            UntestedCommitDetectionStrategy.FileUpdates a = strategy.process(repo.getUri(), clonePath).get(0);
+            assertEquals(2, a.getUpdates());
+            assertEquals(2, a.getUntestedUpdates());
+        }
+    }
+
+    @Test
+    public void testChangedSettingsAreAnalyzedAgain() throws Exception {
+        try (TestRepository repo = new TestRepository("incremental-settings")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            String clonePath = "target/jgit/incremental-settings-clone-" + System.nanoTime();
+
+            UntestedCommitDetectionStrategy incremental = new UntestedCommitDetectionStrategy("src/main/java");
+            incremental.setIncremental(true);
+            StringWriter previous = new StringWriter();
+            incremental.process(repo.getUri(), clonePath, previous);
+
+            // the saved results of the same HEAD were computed with other test paths
+            incremental.setTestPathFilter(new TestPathFilter("**/T2.java"));
+            StringWriter actual = new StringWriter();
+            incremental.process(repo.getUri(), clonePath, actual);
+            UntestedCommitDetectionStrategy full = new UntestedCommitDetectionStrategy("src/main/java");
+            full.setTestPathFilter(new TestPathFilter("**/T2.java"));
+            StringWriter expected = new StringWriter();
+            full.process(repo.getUri(), "target/jgit/incremental-settings-full-" + System.nanoTime(), expected);
+            assertNotEquals(previous.toString(), expected.toString());
+            assertEquals(expected.toString(), actual.toString());
+
+            // and with other pull request id rules
+            previous = actual;
+            incremental.setPullRequestIdRules(PullRequestIdRules.GERRIT);
+            actual = new StringWriter();
+            incremental.process(repo.getUri(), clonePath, actual);
+            full.setPullRequestIdRules(PullRequestIdRules.GERRIT);
+            expected = new StringWriter();
+            full.process(repo.getUri(), "target/jgit/incremental-settings-full-" + System.nanoTime(), expected);
+            assertNotEquals(previous.toString(), expected.toString());
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testUnreadableState() throws Exception {
+        File file = new File("target/jgit/incremental-state-" + System.nanoTime());
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        assertNull(AnalysisState.read(file));
+        assertNull(AnalysisState.read(new File(file.getPath() + ".missing")));
+    }
+}
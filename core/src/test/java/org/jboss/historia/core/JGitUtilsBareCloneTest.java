@@ -0,0 +1,54 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+/**
+ * Tests analyzing bare clones, without a working tree.
+ */
+public class JGitUtilsBareCloneTest {
+
+    @Test
+    public void testBareClone() throws Exception {
+        try (TestRepository repo = new TestRepository("bare")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            String clonePath = "target/jgit/bare-clone-" + System.nanoTime();
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath, false, true)) {
+                assertTrue(jgit.getGit().getRepository().isBare());
+                assertFalse(new File(clonePath, "src").exists());
+                assertTrue(jgit.getFilesOnHEAD().contains("src/main/java/A.java"));
+                assertFalse(jgit.refresh());
+
+                RevCommit update = repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+                assertTrue(jgit.refresh());
+                assertEquals(update, jgit.getGit().getRepository().resolve(Constants.HEAD));
+                assertEquals(2, jgit.getFileHistory("src/main/java/A.java").size());
+            }
+        }
+    }
+
+    @Test
+    public void testBareCloneAnalysis() throws Exception {
+        try (TestRepository repo = new TestRepository("bare-analysis")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+
+            UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+            StringWriter expected = new StringWriter();
+            strategy.process(repo.getUri(), "target/jgit/bare-analysis-clone-" + System.nanoTime(), expected);
+
+            strategy.setBare(true);
+            StringWriter actual = new StringWriter();
+            strategy.process(repo.getUri(), "target/jgit/bare-analysis-bare-" + System.nanoTime(), actual);
+
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+}
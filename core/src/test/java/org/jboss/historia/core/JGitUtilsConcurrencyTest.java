@@ -0,0 +1,95 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests sharing a single JGitUtils instance among concurrent threads.
+ */
+public class JGitUtilsConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private TestRepository repo;
+    private JGitUtils jgit;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository("jgit-concurrency");
+        UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+        jgit = new JGitUtils(repo.getUri(), "target/jgit/jgit-concurrency-clone-" + System.nanoTime());
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        jgit.close();
+        repo.close();
+    }
+
+    @Test
+    public void testCachesAreBuiltOnce() throws Exception {
+        List<HistoryIndex> indexes = invokeConcurrently(() -> jgit.getHistoryIndex());
+        List<CommitTable> tables = invokeConcurrently(() -> jgit.getCommitTable());
+        for (int i = 1; i < THREADS; i++) {
+            assertSame(indexes.get(0), indexes.get(i));
+            assertSame(tables.get(0), tables.get(i));
+        }
+        List<Integer> prCounts = invokeConcurrently(() -> jgit.getAllPullRequests().size());
+        for (Integer count : prCounts) {
+            assertEquals(6, count.intValue());
+        }
+    }
+
+    @Test
+    public void testCachedViewsAreShared() throws Exception {
+        assertSame(jgit.getAllCommits(), jgit.getAllCommits());
+        assertSame(jgit.getMergeCommits(), jgit.getMergeCommits());
+        assertSame(jgit.getAllPullRequests(), jgit.getAllPullRequests());
+        assertSame(jgit.getAllPullRequests().get("1"), jgit.getCommitsInPullRequest("1"));
+        try {
+            jgit.getCommitsInPullRequest("1").clear();
+            fail("Cached pull request commits should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConcurrentFileHistory() throws Exception {
+        String file = "module1/src/main/java/C4.java";
+        List<Integer> sizes = invokeConcurrently(() -> jgit.getFileHistory(file).size());
+        for (Integer size : sizes) {
+            assertEquals(jgit.getHistoryIndex().getFileHistory(file).size(), size.intValue());
+        }
+        // queries never change the repository configuration
+        assertNull(jgit.getGit().getRepository().getConfig().getString("diff", null, "renames"));
+    }
+
+    private <T> List<T> invokeConcurrently(Callable<T> task) throws Exception {
+        List<Callable<T>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(task);
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> f : executor.invokeAll(tasks)) {
+            results.add(f.get());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,79 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+/**
+ * Tests refreshing an existing local clone with a fetch.
+ */
+public class JGitUtilsRefreshTest {
+
+    @Test
+    public void testRefresh() throws Exception {
+        try (TestRepository repo = new TestRepository("refresh")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            String clonePath = "target/jgit/refresh-clone-" + System.nanoTime();
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath)) {
+                assertEquals(1, jgit.getAllCommits().size());
+                assertFalse(jgit.refresh());
+
+                RevCommit update = repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+                assertEquals(1, jgit.getAllCommits().size());
+                assertTrue(jgit.refresh());
+                assertEquals(2, jgit.getAllCommits().size());
+                assertEquals(update, jgit.getGit().getRepository().resolve(Constants.HEAD));
+                assertFalse(jgit.refresh());
+            }
+
+            repo.commit("Add B", "src/main/java/B.java", "class B {}");
+            // an existing clone is used as it is, unless a refresh is requested
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath)) {
+                assertEquals(2, jgit.getAllCommits().size());
+            }
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath, true)) {
+                assertEquals(3, jgit.getAllCommits().size());
+                assertTrue(jgit.getFilesOnHEAD().contains("src/main/java/B.java"));
+                assertTrue(new File(clonePath, "src/main/java/B.java").exists());
+            }
+        }
+    }
+
+    @Test
+    public void testRefreshAfterForcePush() throws Exception {
+        try (TestRepository repo = new TestRepository("refresh-rewrite")) {
+            RevCommit initial = repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+            String clonePath = "target/jgit/refresh-rewrite-clone-" + System.nanoTime();
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath)) {
+                repo.getGit().reset().setMode(ResetType.HARD).setRef(initial.getName()).call();
+                RevCommit replaced = repo.commit("Update A differently", "src/main/java/A.java", "class A { int b; }");
+                assertTrue(jgit.refresh());
+                assertEquals(replaced, jgit.getGit().getRepository().resolve(Constants.HEAD));
+                assertEquals(2, jgit.getAllCommits().size());
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptCloneIsReplaced() throws Exception {
+        try (TestRepository repo = new TestRepository("refresh-corrupt")) {
+            repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            File clone = new File("target/jgit/refresh-corrupt-clone-" + System.nanoTime());
+            clone.mkdirs();
+            Files.write(new File(clone, "garbage").toPath(), new byte[] { 1, 2, 3 });
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), clone.getPath(), true)) {
+                assertEquals(1, jgit.getAllCommits().size());
+                assertFalse(new File(clone, "garbage").exists());
+            }
+        }
+    }
+}
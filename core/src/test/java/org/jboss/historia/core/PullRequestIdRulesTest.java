@@ -0,0 +1,132 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the pull request id extraction rules.
+ */
+public class PullRequestIdRulesTest {
+
+    private static final Logger LOGGER = Logger.getLogger(PullRequestIdRulesTest.class);
+    private static final String CHANGE_ID = "I0123456789abcdef0123456789abcdef01234567";
+
+    @Test
+    public void testDefaultRules() {
+        PullRequestIdRules rules = PullRequestIdRules.DEFAULT;
+        assertEquals("123", rules.extract("Merge pull request #123 from user/branch"));
+        assertEquals("456", rules.extract("Fix bug [PR-456]"));
+        assertEquals("789", rules.extract("Fix issue (#789)"));
+        assertEquals("12", rules.extract("Merge PR #12"));
+        assertNull(rules.extract("Merge branch 'main' into feature"));
+    }
+
+    @Test
+    public void testFirstRuleWins() {
+        // the GitHub rule wins even if it matches after a fallback one
+        assertEquals("2", PullRequestIdRules.DEFAULT.extract("Fix (#1)\n\nMerge pull request #2 from user/branch"));
+        assertEquals("3", PullRequestIdRules.DEFAULT.extract("Fix (#1) [PR-3]"));
+        assertEquals("5", new PullRequestIdRules("PR (\\d)", "Merge (PR \\d)").extract("Merge PR 5"));
+    }
+
+    @Test
+    public void testGitLabAndGerritRules() {
+        PullRequestIdRules rules = PullRequestIdRules.parse("gitlab,gerrit");
+        assertEquals("42", rules.extract("Merge branch 'fix' into 'main'\n\nFix it\n\nSee merge request group/sub.project!42"));
+        assertEquals("1234", rules.extract("Fix it\n\nChange-Id: " + CHANGE_ID + "\nReviewed-on: https://review.example.org/c/project/+/1234\n"));
+        assertEquals(CHANGE_ID, rules.extract("Fix it\n\nChange-Id: " + CHANGE_ID + "\n"));
+        // trailers are only recognized at the start of a line
+        assertNull(rules.extract("Fix it, see Change-Id: " + CHANGE_ID));
+        assertNull(rules.extract("Merge pull request #123 from user/branch"));
+    }
+
+    @Test
+    public void testParse() {
+        PullRequestIdRules rules = PullRequestIdRules.parse("github, Merged in #(\\d{1\\,6}), gerrit");
+        assertEquals(4, rules.getRules().size());
+        assertEquals("Merged in #(\\d{1,6})", rules.getRules().get(1));
+        assertEquals("77", rules.extract("Merged in #77"));
+        assertEquals(rules.getRules(), PullRequestIdRules.parse(rules.toString()).getRules());
+        assertEquals(PullRequestIdRules.DEFAULT.getRules(), PullRequestIdRules.parse("default").getRules());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRuleWithoutGroup() {
+        PullRequestIdRules.parse("github,Merged");
+    }
+
+    @Test
+    public void testExtractionCost() {
+        Random random = new Random(1);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            switch (random.nextInt(5)) {
+            case 0:
+                messages.add("Merge pull request #" + i + " from user/branch-" + i + "\n\nUpdate module " + i);
+                break;
+            case 1:
+                messages.add("Merge branch 'feature-" + i + "' into main\n\nFix a bug in the module (#" + i + ")");
+                break;
+            case 2:
+                messages.add("[PR-" + i + "] Update the dependencies of the module");
+                break;
+            default:
+                messages.add("Merge branch 'main' into feature-" + i + "\n\nConflicts:\n\tsrc/main/java/F" + i + ".java");
+            }
+        }
+
+        // warm up both
+        for (int i = 0; i < 10000; i++) {
+            extractWithPatternsPerCall(messages.get(i));
+            PullRequestIdRules.DEFAULT.extract(messages.get(i));
+        }
+
+        long startTime = System.nanoTime();
+        List<String> expected = new ArrayList<>();
+        for (String message : messages) {
+            expected.add(extractWithPatternsPerCall(message));
+        }
+        long perCall = System.nanoTime() - startTime;
+
+        PullRequestIdRules rules = PullRequestIdRules.DEFAULT;
+        startTime = System.nanoTime();
+        List<String> actual = new ArrayList<>();
+        for (String message : messages) {
+            actual.add(rules.extract(message));
+        }
+        long compiled = System.nanoTime() - startTime;
+
+        assertEquals(expected, actual);
+        LOGGER.debug(String.format("PR id extraction from %d messages, patterns compiled on every call: %.1fms", messages.size(), perCall / 1e6));
+        LOGGER.debug(String.format("PR id extraction from %d messages, compiled rules: %.1fms", messages.size(), compiled / 1e6));
+    }
+
+    // the extraction before the rules were introduced
+    private static String extractWithPatternsPerCall(String message) {
+        Matcher matcher = Pattern.compile("Merge pull request #(\\d+)").matcher(message);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        Pattern[] fallbackPatterns = {
+            Pattern.compile("\\[PR[\\s-]?(\\d+)\\]"),
+            Pattern.compile("\\(#(\\d+)\\)"),
+            Pattern.compile("Merge PR #(\\d+)"),
+        };
+        for (Pattern pattern : fallbackPatterns) {
+            matcher = pattern.matcher(message);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bounded reorder buffer of the parallel analysis.
+ */
+public class ReorderBufferTest {
+
+    @Test
+    public void testResultsAreTakenInOrder() throws Exception {
+        int size = 2000;
+        int capacity = 16;
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(size, capacity);
+        AtomicInteger maxAhead = new AtomicInteger();
+        AtomicInteger taken = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int w = 0; w < 4; w++) {
+                long seed = w;
+                executor.execute(() -> {
+                    Random random = new Random(seed);
+                    try {
+                        int i;
+                        while ((i = buffer.claim()) >= 0) {
+                            maxAhead.accumulateAndGet(i - taken.get(), Math::max);
+                            if (random.nextInt(10) == 0) {
+                                Thread.sleep(1);
+                            }
+                            buffer.put(i, i);
+                        }
+                    } catch (Throwable t) {
+                        buffer.fail(t);
+                    }
+                });
+            }
+            List<Integer> results = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                results.add(buffer.take());
+                taken.incrementAndGet();
+            }
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, results.get(i).intValue());
+            }
+            // workers never got further than the capacity ahead of the consumer
+            assertTrue("Claimed " + maxAhead.get() + " ahead", maxAhead.get() <= capacity);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFailureIsHandedToTheConsumer() throws Exception {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(10, 4);
+        assertEquals(0, buffer.claim());
+        assertEquals(1, buffer.claim());
+        buffer.put(1, 1);
+        buffer.fail(new IllegalStateException("Failed on 0"));
+        assertEquals(-1, buffer.claim());
+        try {
+            buffer.take();
+            fail("The failure was not handed to the consumer");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed on 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCloseReleasesWaitingWorkers() throws Exception {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(10, 2);
+        assertEquals(0, buffer.claim());
+        assertEquals(1, buffer.claim());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the buffer is full until the consumer takes a result
+            Future<Integer> claim = executor.submit(buffer::claim);
+            Thread.sleep(50);
+            assertFalse(claim.isDone());
+            buffer.close();
+            assertEquals(-1, claim.get(10, TimeUnit.SECONDS).intValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the columnar result table, checking it against the CSV output.
+ */
+public class ResultTableTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ResultTableTest.class);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ResultTableWriter writer = new ResultTableWriter();
+        writer.add("module1/", "src/main/java/A.java", 4, 3, 3);
+        writer.add("module2/", "src/main/java/org/B.java", 2, 0, 0);
+        writer.add("", "Root.java", 1, 1, 1);
+        writer.add("module1/", "src/main/java/\"C\",\u00e9.java", 10, 5, 2);
+        File file = new File("target/result-table-" + System.nanoTime() + ".results");
+        writer.write(file);
+
+        ResultTable table = ResultTable.open(file);
+        assertEquals(4, table.size());
+        assertEquals(3, table.getModuleCount());
+        // the rows of a module are contiguous, in the order they were added
+        assertEquals("module1/", table.getModule(0));
+        assertEquals(0, table.getModuleStart(0));
+        assertEquals(2, table.getModuleEnd(0));
+        assertEquals(List.of("module1/", "src/main/java/\"C\",\u00e9.java", "10", "5", "50", "2"), table.getRow(1));
+        assertEquals(1, table.findModule("module2/"));
+        assertEquals(-1, table.findModule("module3/"));
+        assertEquals(List.of("", "Root.java", "1", "1", "100", "1"), table.getRow(table.getModuleStart(table.findModule(""))));
+
+        StringWriter csv = new StringWriter();
+        try (ResultWriter out = new ResultWriter(csv)) {
+            table.export(0, table.size(), out);
+        }
+        assertEquals("module1/,src/main/java/A.java,4,3,75,3\n"
+                + "module1/,\"src/main/java/\"\"C\"\",\u00e9.java\",10,5,50,2\n"
+                + "module2/,src/main/java/org/B.java,2,0,0,0\n"
+                + ",Root.java,1,1,100,1\n", csv.toString());
+        file.delete();
+    }
+
+    @Test
+    public void testSameAsCsv() throws Exception {
+        try (TestRepository repo = new TestRepository("result-table")) {
+            UntestedCommitDetectionStrategyTest.createSampleHistory(repo);
+            UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+            String clonePath = "target/jgit/result-table-clone-" + System.nanoTime();
+            StringWriter expected = new StringWriter();
+            strategy.process(repo.getUri(), clonePath, new ResultWriter(expected));
+
+            ResultTableWriter writer = new ResultTableWriter();
+            strategy.process(repo.getUri(), clonePath, writer);
+            File file = new File("target/result-table-" + System.nanoTime() + ".results");
+            writer.write(file);
+            ResultTable table = ResultTable.open(file);
+
+            // the same rows, grouped by module
+            List<String> expectedRows = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new StringReader(expected.toString()))) {
+                reader.readLine();
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    expectedRows.add(line);
+                }
+            }
+            StringWriter csv = new StringWriter();
+            try (ResultWriter out = new ResultWriter(csv)) {
+                for (int m = 0; m < table.getModuleCount(); m++) {
+                    table.export(table.getModuleStart(m), table.getModuleEnd(m), out);
+                }
+            }
+            List<String> rows = new ArrayList<>(List.of(csv.toString().split("\n")));
+            assertEquals(expectedRows.size(), table.size());
+            rows.sort(null);
+            expectedRows.sort(null);
+            assertEquals(expectedRows, rows);
+            for (int row = 0; row < table.size(); row++) {
+                assertEquals(table.getPrefix(row), table.getModule(table.findModule(table.getPrefix(row))));
+            }
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFromCsv() throws Exception {
+        String csv = "Module,File,# updates,# untested updates,# untested updates %,# updates since last tested\n"
+                + "module1/,\"src/main/java/\"\"C\"\",\u00e9.java\",10,5,50,2\n"
+                // the first CSV did not quote the paths
+                + "module2/,src/main/java/a,b.java,4,3,75,3\n"
+                + ",Root.java,1,1,100,1\n";
+        ResultTableWriter writer = new ResultTableWriter();
+        writer.addCsv(new BufferedReader(new StringReader(csv)));
+        File file = new File("target/result-table-" + System.nanoTime() + ".results");
+        writer.write(file);
+
+        ResultTable table = ResultTable.open(file);
+        assertEquals(3, table.size());
+        assertEquals(List.of("module1/", "src/main/java/\"C\",\u00e9.java", "10", "5", "50", "2"), table.getRow(0));
+        assertEquals(List.of("module2/", "src/main/java/a,b.java", "4", "3", "75", "3"), table.getRow(1));
+        assertEquals(List.of("", "Root.java", "1", "1", "100", "1"), table.getRow(2));
+        file.delete();
+
+        try {
+            new ResultTableWriter().addCsv(new BufferedReader(new StringReader("a,b\n1,2\n")));
+            fail("CSV without the result header read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNotATable() throws Exception {
+        File file = new File("target/result-table-" + System.nanoTime() + ".results");
+        ResultTableWriter writer = new ResultTableWriter();
+        writer.add("module1/", "src/main/java/A.java", 4, 3, 3);
+        writer.write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try {
+            ResultTable.open(file);
+            fail("Truncated table opened");
+        } catch (IOException e) {
+            // expected
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testSeekToModule() throws Exception {
+        int modules = 100;
+        int filesPerModule = 5000;
+        ResultTableWriter writer = new ResultTableWriter();
+        StringWriter csv = new StringWriter();
+        try (ResultWriter out = new ResultWriter(csv)) {
+            out.writeHeader();
+            for (int m = 0; m < modules; m++) {
+                for (int f = 0; f < filesPerModule; f++) {
+                    String path = "src/main/java/org/example/p" + (f % 50) + "/F" + f + ".java";
+                    writer.add("module" + m + "/", path, f, f / 2, f % 3);
+                    out.write("module" + m + "/", path, f, f / 2, f % 3);
+                }
+            }
+        }
+        File file = new File("target/result-table-" + System.nanoTime() + ".results");
+        writer.write(file);
+        String content = csv.toString();
+
+        String last = "module" + (modules - 1) + "/";
+        long[] sums = new long[2];
+        // warm up both
+        for (int run = 0; run < 3; run++) {
+            sums[0] = sumFromCsv(content, last);
+            sums[1] = sumFromTable(file, last);
+        }
+        long startTime = System.nanoTime();
+        sums[0] = sumFromCsv(content, last);
+        long fromCsv = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        sums[1] = sumFromTable(file, last);
+        long fromTable = System.nanoTime() - startTime;
+        assertEquals(sums[0], sums[1]);
+        LOGGER.debug(String.format("Updates of the last of %d modules of %d files, from the CSV: %.1fms, from the table: %.1fms (%d vs %d bytes)",
+                modules, filesPerModule, fromCsv / 1e6, fromTable / 1e6, content.length(), file.length()));
+        file.delete();
+    }
+
+    private static long sumFromCsv(String content, String module) throws IOException {
+        long sum = 0;
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            reader.readLine();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                List<String> fields = ResultWriter.parseRow(line);
+                if (fields.get(0).equals(module)) {
+                    sum += Long.parseLong(fields.get(2));
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static long sumFromTable(File file, String module) throws IOException {
+        ResultTable table = ResultTable.open(file);
+        int m = table.findModule(module);
+        long sum = 0;
+        for (int row = table.getModuleStart(m); row < table.getModuleEnd(m); row++) {
+            sum += table.getUpdates(row);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,143 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.jboss.historia.core.UntestedCommitDetectionStrategy.FileUpdates;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the ResultWriter, checking the escaping and the encoding of the counters.
+ */
+public class ResultWriterTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ResultWriterTest.class);
+
+    @Test
+    public void testRows() throws Exception {
+        StringWriter out = new StringWriter();
+        try (ResultWriter writer = new ResultWriter(out)) {
+            writer.writeHeader();
+            writer.write(updates("module1/", "src/main/java/A.java", 3, 1));
+            writer.write(updates("", "src/main/java/B.java", 0, 0));
+        }
+        assertEquals("Module,File,# updates,# untested updates,# untested updates %,# updates since last tested\n"
+                + "module1/,src/main/java/A.java,4,3,75,3\n"
+                + ",src/main/java/B.java,0,0,0,0\n", out.toString());
+
+        // same as the rows printed one at a time
+        StringWriter printed = new StringWriter();
+        FileUpdates.printHeader(printed);
+        updates("module1/", "src/main/java/A.java", 3, 1).print(printed);
+        updates("", "src/main/java/B.java", 0, 0).print(printed);
+        assertEquals(out.toString(), printed.toString());
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        String[] paths = { "src/a,b.java", "src/\"quoted\".java", "src/line\nbreak.java", "src/tab\there.java", "\"" };
+        StringWriter out = new StringWriter();
+        try (ResultWriter writer = new ResultWriter(out)) {
+            for (String path : paths) {
+                writer.write(updates("m,1/", path, 1, 1));
+            }
+        }
+        assertEquals("\"m,1/\",\"src/a,b.java\",2,1,50,1\n", out.toString().substring(0, out.toString().indexOf('\n') + 1));
+        assertEquals(List.of("m,1/", "src/\"quoted\".java", "2", "1", "50", "1"),
+                ResultWriter.parseRow("\"m,1/\",\"src/\"\"quoted\"\".java\",2,1,50,1"));
+
+        // the tab separated values only quote the fields with tabs, quotes or line breaks
+        out = new StringWriter();
+        try (ResultWriter writer = new ResultWriter(out, ResultWriter.TSV)) {
+            for (String path : paths) {
+                writer.write(updates("m,1/", path, 1, 1));
+            }
+        }
+        String tsv = out.toString();
+        assertEquals("m,1/\tsrc/a,b.java\t2\t1\t50\t1\n", tsv.substring(0, tsv.indexOf('\n') + 1));
+        assertEquals(List.of("m,1/", "src/tab\there.java", "2", "1", "50", "1"),
+                ResultWriter.parseRow("m,1/\t\"src/tab\there.java\"\t2\t1\t50\t1", ResultWriter.TSV));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        // a small buffer, so that the fields and the counters straddle its end
+        for (int capacity : new int[] { 0, 100, 64 * 1024 }) {
+            StringWriter out = new StringWriter();
+            try (ResultWriter writer = new ResultWriter(out, ResultWriter.CSV, capacity)) {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(updates("module" + i + "/", "src/main/java/\"F\"," + i + ".java", i * 7L, i));
+                }
+            }
+            String[] rows = out.toString().split("\n");
+            assertEquals(1000, rows.length);
+            for (int i = 0; i < 1000; i++) {
+                FileUpdates fu = updates("module" + i + "/", "src/main/java/\"F\"," + i + ".java", i * 7L, i);
+                assertEquals(List.of(fu.getPrefix(), fu.getPath(), String.valueOf(fu.getUpdates()), String.valueOf(fu.getUntestedUpdates()),
+                        String.valueOf(Math.round(100 * (double) fu.getUntestedUpdates() / (double) fu.getUpdates())),
+                        String.valueOf(fu.getUpdatesSinceLastTested())), ResultWriter.parseRow(rows[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testMillionsOfRows() throws Exception {
+        int rows = 2_000_000;
+        FileUpdates[] files = new FileUpdates[1000];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = updates("module" + (i % 20) + "/", "src/main/java/org/example/F" + i + ".java", i * 37, i % 7);
+        }
+        // warm up both
+        for (int run = 0; run < 2; run++) {
+            writeWithAppends(files, rows);
+            writeWithResultWriter(files, rows);
+        }
+        long startTime = System.nanoTime();
+        writeWithAppends(files, rows);
+        long appends = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        writeWithResultWriter(files, rows);
+        long resultWriter = System.nanoTime() - startTime;
+        LOGGER.debug(String.format("%d rows with a Writer.append per field: %.1fms", rows, appends / 1e6));
+        LOGGER.debug(String.format("%d rows with the ResultWriter: %.1fms", rows, resultWriter / 1e6));
+    }
+
+    private static void writeWithAppends(FileUpdates[] files, int rows) throws IOException {
+        try (BufferedWriter w = new BufferedWriter(Writer.nullWriter())) {
+            for (int i = 0; i < rows; i++) {
+                FileUpdates fu = files[i % files.length];
+                // as FileUpdates.print used to do
+                w.append(fu.getPrefix()).append(",").append(fu.getPath()).append(",").append(String.valueOf(fu.getUpdates())).append(",")
+                        .append(String.valueOf(fu.getUntestedUpdates())).append(",")
+                        .append(String.valueOf(Math.round(100 * (double) fu.getUntestedUpdates() / (double) fu.getUpdates()))).append(",")
+                        .append(String.valueOf(fu.getUpdatesSinceLastTested())).append("\n");
+            }
+        }
+    }
+
+    private static void writeWithResultWriter(FileUpdates[] files, int rows) throws IOException {
+        try (ResultWriter w = new ResultWriter(Writer.nullWriter())) {
+            for (int i = 0; i < rows; i++) {
+                w.write(files[i % files.length]);
+            }
+        }
+    }
+
+    private static FileUpdates updates(String prefix, String path, long untested, long tested) {
+        FileUpdates fu = new FileUpdates(prefix, path);
+        for (long i = 0; i < tested; i++) {
+            fu.incrementUpdates(true, i);
+        }
+        // the untested updates after the tested ones
+        for (long i = 0; i < untested; i++) {
+            fu.incrementUpdates(false, tested + i);
+        }
+        return fu;
+    }
+}
@@ -0,0 +1,168 @@
+package org.jboss.historia.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+/**
+ * Large generated git repository, to be used by benchmarks.
+ * Objects are written directly with an inserter, without any working tree, so that thousands of
+ * commits are created in a few seconds.
+ * Files are laid out as {@code module<m>/src/main/java/F<f>.java}, along with a test file in each module;
+ * every commit updates one random source file and, now and then, the test file of its module.
+ * Optionally, some of the updates are made on a branch merged with a pull request merge commit.
+ */
+public class SyntheticRepository implements AutoCloseable {
+
+    private final File dir;
+    private final Git git;
+
+    /**
+     * @param name The repository name
+     * @param modules The number of modules
+     * @param filesPerModule The number of source files in each module
+     * @param commits The number of commits after the initial one
+     * @param seed The seed of the random updates
+     */
+    public SyntheticRepository(String name, int modules, int filesPerModule, int commits, long seed) throws Exception {
+        this(name, modules, filesPerModule, commits, 0, seed);
+    }
+
+    /**
+     * @param name The repository name
+     * @param modules The number of modules
+     * @param filesPerModule The number of source files in each module
+     * @param commits The number of commits after the initial one, not counting the merge commits
+     * @param pullRequestEvery Every how many commits the commit is made on a branch merged as a pull request, 0 for none
+     * @param seed The seed of the random updates
+     */
+    public SyntheticRepository(String name, int modules, int filesPerModule, int commits, int pullRequestEvery, long seed) throws Exception {
+        dir = new File("target/jgit/" + name + "-" + System.nanoTime()).getAbsoluteFile();
+        git = Git.init().setDirectory(dir).setBare(true).setInitialBranch("master").call();
+        Repository repo = git.getRepository();
+        Random random = new Random(seed);
+        ObjectId[][] blobs = new ObjectId[modules][filesPerModule + 1];
+        ObjectId[] moduleTrees = new ObjectId[modules];
+        long time = 1600000000L;
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            for (int m = 0; m < modules; m++) {
+                for (int f = 0; f <= filesPerModule; f++) {
+                    blobs[m][f] = blob(inserter, "initial " + m + "/" + f);
+                }
+                moduleTrees[m] = moduleTree(inserter, blobs[m]);
+            }
+            ObjectId parent = commit(inserter, rootTree(inserter, moduleTrees), new ObjectId[0], "Initial import", time);
+            for (int i = 1; i <= commits; i++) {
+                int m = random.nextInt(modules);
+                int f = random.nextInt(filesPerModule);
+                blobs[m][f] = blob(inserter, "update " + i);
+                if (random.nextInt(4) == 0) {
+                    blobs[m][filesPerModule] = blob(inserter, "test update " + i);
+                }
+                moduleTrees[m] = moduleTree(inserter, blobs[m]);
+                ObjectId tree = rootTree(inserter, moduleTrees);
+                if (pullRequestEvery > 0 && i % pullRequestEvery == 0) {
+                    // the branch only has this update, the merge commit has the same tree
+                    ObjectId update = commit(inserter, tree, parent, "Update F" + f + " in module" + m, time + 60 * i);
+                    parent = commit(inserter, tree, new ObjectId[] { parent, update },
+                            "Merge pull request #" + i + " from user/branch-" + i, time + 60 * i + 30);
+                } else {
+                    parent = commit(inserter, tree, parent, "Update F" + f + " in module" + m, time + 60 * i);
+                }
+            }
+            inserter.flush();
+            RefUpdate update = repo.updateRef(Constants.R_HEADS + "master");
+            update.setNewObjectId(parent);
+            update.update();
+        }
+    }
+
+    private static ObjectId blob(ObjectInserter inserter, String content) throws Exception {
+        return inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ObjectId moduleTree(ObjectInserter inserter, ObjectId[] blobs) throws Exception {
+        String[] names = new String[blobs.length - 1];
+        for (int f = 0; f < names.length; f++) {
+            names[f] = "F" + f + ".java";
+        }
+        // tree entries must be sorted by name
+        Arrays.sort(names);
+        TreeFormatter sources = new TreeFormatter();
+        for (String name : names) {
+            sources.append(name, FileMode.REGULAR_FILE, blobs[Integer.parseInt(name.substring(1, name.length() - 5))]);
+        }
+        TreeFormatter tests = new TreeFormatter();
+        tests.append("ModuleTest.java", FileMode.REGULAR_FILE, blobs[blobs.length - 1]);
+        TreeFormatter main = new TreeFormatter();
+        main.append("java", FileMode.TREE, inserter.insert(sources));
+        TreeFormatter test = new TreeFormatter();
+        test.append("java", FileMode.TREE, inserter.insert(tests));
+        TreeFormatter src = new TreeFormatter();
+        src.append("main", FileMode.TREE, inserter.insert(main));
+        src.append("test", FileMode.TREE, inserter.insert(test));
+        TreeFormatter module = new TreeFormatter();
+        module.append("src", FileMode.TREE, inserter.insert(src));
+        return inserter.insert(module);
+    }
+
+    private static ObjectId rootTree(ObjectInserter inserter, ObjectId[] moduleTrees) throws Exception {
+        String[] names = new String[moduleTrees.length];
+        for (int m = 0; m < names.length; m++) {
+            names[m] = "module" + m;
+        }
+        Arrays.sort(names);
+        TreeFormatter root = new TreeFormatter();
+        for (String name : names) {
+            root.append(name, FileMode.TREE, moduleTrees[Integer.parseInt(name.substring(6))]);
+        }
+        return inserter.insert(root);
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId tree, ObjectId parent, String message, long time)
+            throws Exception {
+        return commit(inserter, tree, new ObjectId[] { parent }, message, time);
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId tree, ObjectId[] parents, String message, long time)
+            throws Exception {
+        PersonIdent ident = new PersonIdent("Tester", "tester@example.com", Instant.ofEpochSecond(time), ZoneOffset.UTC);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(tree);
+        commit.setParentIds(parents);
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(message);
+        return inserter.insert(commit);
+    }
+
+    /**
+     * @return The URI to clone this repository from
+     */
+    public String getUri() {
+        return dir.toURI().toString();
+    }
+
+    public Git getGit() {
+        return git;
+    }
+
+    @Override
+    public void close() {
+        git.close();
+    }
+}
@@ -0,0 +1,114 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+/**
+ * Tests for the memoized classification of commits and pull requests touching tests.
+ */
+public class TestImpactCacheTest {
+
+    @Test
+    public void testCache() throws Exception {
+        TestImpactCache cache = new TestImpactCache(40);
+        assertNull(cache.getCommit(0));
+        cache.putCommit(0, true);
+        cache.putCommit(17, false);
+        cache.putCommit(39, true);
+        assertEquals(Boolean.TRUE, cache.getCommit(0));
+        assertEquals(Boolean.FALSE, cache.getCommit(17));
+        assertEquals(Boolean.TRUE, cache.getCommit(39));
+        assertNull(cache.getCommit(1));
+        assertNull(cache.getCommit(16));
+        // commits outside the table are not cached
+        cache.putCommit(CommitTable.NONE, true);
+        cache.putCommit(40, true);
+        assertNull(cache.getCommit(CommitTable.NONE));
+        assertNull(cache.getCommit(40));
+        assertNull(cache.getPullRequest("1"));
+        assertFalse(cache.getPullRequest("1", () -> false));
+        assertEquals(Boolean.FALSE, cache.getPullRequest("1"));
+        assertFalse(cache.getPullRequest("1", () -> true));
+        cache.clear();
+        assertNull(cache.getCommit(0));
+        assertNull(cache.getPullRequest("1"));
+    }
+
+    @Test
+    public void testFailedPullRequestLoad() throws Exception {
+        TestImpactCache cache = new TestImpactCache(0);
+        try {
+            cache.getPullRequest("2", () -> {
+                throw new IOException("walk closed");
+            });
+            fail("Failed load cached");
+        } catch (IOException e) {
+            // expected
+        }
+        assertNull(cache.getPullRequest("2"));
+        // the next request classifies the pull request with its own loader
+        assertTrue(cache.getPullRequest("2", () -> true));
+    }
+
+    @Test
+    public void testPullRequestClassifiedOnce() throws Exception {
+        TestImpactCache cache = new TestImpactCache(0);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.getPullRequest("1", () -> {
+                        loads.incrementAndGet();
+                        Thread.sleep(50);
+                        return true;
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testPullRequestAffectsTests() throws Exception {
+        try (TestRepository repo = new TestRepository("test-impact")) {
+            RevCommit initial = repo.commit("Initial import", "src/main/java/A.java", "class A {}");
+            repo.checkout("feature", true);
+            repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+            RevCommit test = repo.commit("Test A", "src/test/java/ATest.java", "class ATest {}");
+            repo.checkout("master", false);
+            repo.merge("feature", "Merge pull request #3 from feature");
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/test-impact-clone-" + System.nanoTime())) {
+                assertFalse(jgit.commitAffectsTests(jgit.getCommit(initial.getName())));
+                assertTrue(jgit.commitAffectsTests(jgit.getCommit(test.getName())));
+                assertTrue(jgit.pullRequestAffectsTests("3"));
+                // second lookup is served by the cache
+                assertTrue(jgit.pullRequestAffectsTests("3"));
+            }
+        }
+    }
+}
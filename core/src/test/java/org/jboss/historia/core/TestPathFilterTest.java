@@ -0,0 +1,232 @@
+package org.jboss.historia.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jboss.logging.Logger;
+import org.junit.Test;
+
+/**
+ * Tests for the test path patterns and for the detection of the commits affecting tests.
+ */
+public class TestPathFilterTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TestPathFilterTest.class);
+
+    @Test
+    public void testPatterns() {
+        TestPathFilter filter = TestPathFilter.parse("module1/src/test/**, **/*IT.java, docs/?.md");
+        assertEquals(List.of("module1/src/test/**", "**/*IT.java", "docs/?.md"), filter.getPatterns());
+        assertTrue(filter.matches("module1/src/test/java/ATest.java"));
+        assertFalse(filter.matches("module2/src/test/java/ATest.java"));
+        assertTrue(filter.matches("module2/src/main/java/FooIT.java"));
+        assertFalse(filter.matches("FooIT.java"));
+        assertFalse(filter.matches("module2/FooIT.java.orig"));
+        assertTrue(filter.matches("docs/a.md"));
+        assertFalse(filter.matches("docs/ab.md"));
+        // regular expression characters are literals
+        assertFalse(new TestPathFilter("a.b").matches("axb"));
+        assertEquals(filter.getPatterns(), TestPathFilter.parse(filter.toString()).getPatterns());
+    }
+
+    @Test
+    public void testDefaultPattern() {
+        TestPathFilter filter = TestPathFilter.DEFAULT;
+        for (String path : List.of("src/test/java/ATest.java", "module/src/test/resources/a.txt", "module/src/tests.txt",
+                "src/main/java/A.java", "module/src/main/java/Test.java", "test/src/A.java")) {
+            assertEquals(path, path.contains("src/test"), filter.matches(path));
+        }
+        // src/test may be anywhere below any directory
+        assertTrue(filter.mayMatchBelow("docs"));
+        assertTrue(filter.mayMatchBelow("module/src/main"));
+    }
+
+    @Test
+    public void testSubtreesArePruned() {
+        TestPathFilter filter = TestPathFilter.parse("module1/src/test/**,**/*IT.java");
+        assertTrue(filter.mayMatchBelow("module1"));
+        assertTrue(filter.mayMatchBelow("module1/src"));
+        assertTrue(filter.mayMatchBelow("module1/src/test/java"));
+        // by the IT pattern only
+        assertTrue(filter.mayMatchBelow("docs"));
+
+        filter = new TestPathFilter("module1/src/test/**");
+        assertTrue(filter.mayMatchBelow("module1/src/test"));
+        assertFalse(filter.mayMatchBelow("docs"));
+        assertFalse(filter.mayMatchBelow("module10"));
+        assertFalse(filter.mayMatchBelow("module1/src/main"));
+    }
+
+    @Test
+    public void testSameDetectionAsChangedFiles() throws Exception {
+        List<RevCommit> commits = new ArrayList<>();
+        try (TestRepository repo = new TestRepository("test-path-filter")) {
+            commits.add(repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/test/java/ATest.java", "class ATest {}"));
+            commits.add(repo.commit("Update A", "src/main/java/A.java", "class A { int a; }"));
+            commits.add(repo.commit("Update ATest", "src/test/java/ATest.java", "class ATest { int a; }"));
+            commits.add(repo.delete("Drop ATest", "src/test/java/ATest.java"));
+            commits.add(repo.commit("Add docs", "docs/index.md", "A"));
+            commits.add(repo.rename("Move A to the tests", "src/main/java/A.java", "src/test/java/A.java"));
+            commits.add(repo.rename("Move A back", "src/test/java/A.java", "src/main/java/A.java"));
+            commits.add(repo.commit("Add module", "module/src/test/java/BTest.java", "class BTest {}"));
+
+            boolean[] expected = { true, false, true, false, false, true, false, true };
+            try (JGitUtils jgit = new JGitUtils(repo.getUri(), "target/jgit/test-path-filter-clone-" + System.nanoTime());
+                    RevWalk walk = jgit.newRevWalk()) {
+                for (int i = 0; i < commits.size(); i++) {
+                    RevCommit commit = commits.get(i);
+                    boolean legacy = false;
+                    for (String file : jgit.getDiffService().getChangedPaths(commit, walk)) {
+                        legacy |= file.contains("src/test");
+                    }
+                    assertEquals(commit.getShortMessage(), expected[i], legacy);
+                    // with and without the changed paths already computed
+                    assertEquals(commit.getShortMessage(), expected[i], jgit.commitAffectsTests(commit, walk));
+                    jgit.clearCaches();
+                    assertEquals(commit.getShortMessage(), expected[i], jgit.commitAffectsTests(commit, walk));
+                }
+
+                jgit.setTestPathFilter(TestPathFilter.parse("module/src/test/**"));
+                assertFalse(jgit.commitAffectsTests(commits.get(0), walk));
+                assertFalse(jgit.commitAffectsTests(commits.get(2), walk));
+                assertTrue(jgit.commitAffectsTests(commits.get(7), walk));
+            }
+        }
+    }
+
+    @Test
+    public void testCommitsTouchingThousandsOfFiles() throws Exception {
+        int modules = 50;
+        int filesPerModule = 100;
+        File dir = new File("target/jgit/test-path-filter-large-" + System.nanoTime()).getAbsoluteFile();
+        try (Git git = Git.init().setDirectory(dir).setBare(true).call();
+                ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            Map<String, ObjectId> files = new TreeMap<>();
+            for (int m = 0; m < modules; m++) {
+                files.put("module" + m + "/src/test/java/ModuleTest.java", blob(inserter, "initial test " + m));
+                for (int f = 0; f < filesPerModule; f++) {
+                    files.put("module" + m + "/src/main/java/F" + f + ".java", blob(inserter, "initial " + m + "/" + f));
+                }
+            }
+            ObjectId initial = commit(inserter, files, new ObjectId[0], "Initial import");
+            // every source file, and the test of the first module, e.g. a reformatting
+            updateSources(inserter, files, modules, filesPerModule, "reformat");
+            files.put("module0/src/test/java/ModuleTest.java", blob(inserter, "reformatted test 0"));
+            ObjectId tested = commit(inserter, files, new ObjectId[] { initial }, "Reformat");
+            // every source file, e.g. a license header update
+            updateSources(inserter, files, modules, filesPerModule, "license");
+            ObjectId untested = commit(inserter, files, new ObjectId[] { tested }, "Update license headers");
+            inserter.flush();
+
+            try (DiffService diffs = new DiffService(git.getRepository())) {
+                TestPathFilter anchored = new TestPathFilter("module" + (modules - 1) + "/src/test/**");
+                // warm up both
+                for (int i = 0; i < 3; i++) {
+                    affectsTestsByChangedFiles(diffs, untested);
+                    diffs.changesPath(untested, null, TestPathFilter.DEFAULT);
+                    diffs.clear();
+                }
+
+                long startTime = System.nanoTime();
+                assertTrue(affectsTestsByChangedFiles(diffs, tested));
+                assertFalse(affectsTestsByChangedFiles(diffs, untested));
+                long legacy = System.nanoTime() - startTime;
+                diffs.clear();
+
+                startTime = System.nanoTime();
+                assertTrue(diffs.changesPath(tested, null, TestPathFilter.DEFAULT));
+                assertFalse(diffs.changesPath(untested, null, TestPathFilter.DEFAULT));
+                long filtered = System.nanoTime() - startTime;
+                diffs.clear();
+
+                startTime = System.nanoTime();
+                assertFalse(diffs.changesPath(tested, null, anchored));
+                assertFalse(diffs.changesPath(untested, null, anchored));
+                long pruned = System.nanoTime() - startTime;
+
+                int changed = modules * filesPerModule;
+                LOGGER.debug(String.format("Test detection on 2 commits changing %d files, changed files then paths check: %.1fms", changed, legacy / 1e6));
+                LOGGER.debug(String.format("Test detection on 2 commits changing %d files, default filter with early exit: %.1fms", changed, filtered / 1e6));
+                LOGGER.debug(String.format("Test detection on 2 commits changing %d files, anchored filter: %.1fms", changed, pruned / 1e6));
+            }
+        }
+    }
+
+    // the detection before the test paths were pushed down into the tree walk
+    private static boolean affectsTestsByChangedFiles(DiffService diffs, ObjectId commit) throws Exception {
+        RevCommit c = diffs.parseCommit(commit);
+        for (String file : diffs.getChangedPaths(diffs.parseTree(c.getParent(0)), c.getTree())) {
+            if (file.contains("src/test")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void updateSources(ObjectInserter inserter, Map<String, ObjectId> files, int modules, int filesPerModule,
+            String content) throws Exception {
+        for (int m = 0; m < modules; m++) {
+            for (int f = 0; f < filesPerModule; f++) {
+                files.put("module" + m + "/src/main/java/F" + f + ".java", blob(inserter, content + " " + m + "/" + f));
+            }
+        }
+    }
+
+    private static ObjectId blob(ObjectInserter inserter, String content) throws Exception {
+        return inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, Map<String, ObjectId> files, ObjectId[] parents, String message)
+            throws Exception {
+        PersonIdent ident = new PersonIdent("Tester", "tester@example.com", Instant.ofEpochSecond(1600000000L), ZoneOffset.UTC);
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(tree(inserter, files, ""));
+        commit.setParentIds(parents);
+        commit.setAuthor(ident);
+        commit.setCommitter(ident);
+        commit.setMessage(message);
+        return inserter.insert(commit);
+    }
+
+    // the tree of the files below the given directory prefix; tree entries must be sorted by name,
+    // which matches the order of the paths as long as no file name sorts before a '/'
+    private static ObjectId tree(ObjectInserter inserter, Map<String, ObjectId> files, String prefix) throws Exception {
+        TreeFormatter tree = new TreeFormatter();
+        String lastDirectory = null;
+        for (Map.Entry<String, ObjectId> file : files.entrySet()) {
+            String path = file.getKey();
+            if (!path.startsWith(prefix)) {
+                continue;
+            }
+            String name = path.substring(prefix.length());
+            int slash = name.indexOf('/');
+            if (slash < 0) {
+                tree.append(name, FileMode.REGULAR_FILE, file.getValue());
+            } else if (!name.substring(0, slash).equals(lastDirectory)) {
+                lastDirectory = name.substring(0, slash);
+                tree.append(lastDirectory, FileMode.TREE, tree(inserter, files, prefix + lastDirectory + "/"));
+            }
+        }
+        return inserter.insert(tree);
+    }
+}
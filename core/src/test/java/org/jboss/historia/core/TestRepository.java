@@ -0,0 +1,105 @@
+package org.jboss.historia.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+/**
+ * Small local git repository built commit by commit, to be used as a test fixture
+ * instead of a remote repository.
+ * Every commit gets a commit time one minute after the previous one, so that walk order is predictable.
+ */
+public class TestRepository implements AutoCloseable {
+
+    private final File dir;
+    private final Git git;
+    private long time = 1600000000L;
+    private String authorName = "Tester";
+    private String authorEmail = "tester@example.com";
+
+    public TestRepository(String name) throws Exception {
+        dir = new File("target/jgit/" + name + "-" + System.nanoTime()).getAbsoluteFile();
+        git = Git.init().setDirectory(dir).setInitialBranch("master").call();
+    }
+
+    /**
+     * @return The URI to clone this repository from
+     */
+    public String getUri() {
+        return dir.toURI().toString();
+    }
+
+    public Git getGit() {
+        return git;
+    }
+
+    /**
+     * Write the given files and commit them.
+     *
+     * @param message The commit message
+     * @param pathsAndContents Pairs of file path and file content
+     * @return The new commit
+     */
+    public RevCommit commit(String message, String... pathsAndContents) throws Exception {
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            File file = new File(dir, pathsAndContents[i]);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), pathsAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+            git.add().addFilepattern(pathsAndContents[i]).call();
+        }
+        return doCommit(message);
+    }
+
+    public RevCommit rename(String message, String from, String to) throws Exception {
+        File target = new File(dir, to);
+        target.getParentFile().mkdirs();
+        Files.move(new File(dir, from).toPath(), target.toPath());
+        git.rm().addFilepattern(from).call();
+        git.add().addFilepattern(to).call();
+        return doCommit(message);
+    }
+
+    public RevCommit delete(String message, String path) throws Exception {
+        git.rm().addFilepattern(path).call();
+        return doCommit(message);
+    }
+
+    public void checkout(String branch, boolean create) throws Exception {
+        git.checkout().setName(branch).setCreateBranch(create).call();
+    }
+
+    /**
+     * Merge the given branch in the current one, always creating a merge commit.
+     */
+    public RevCommit merge(String branch, String message) throws Exception {
+        git.merge().include(git.getRepository().resolve(branch)).setFastForward(FastForwardMode.NO_FF)
+                .setCommit(false).call();
+        return doCommit(message);
+    }
+
+    /**
+     * Set the author of the next commits.
+     */
+    public void setAuthor(String name, String email) {
+        authorName = name;
+        authorEmail = email;
+    }
+
+    private RevCommit doCommit(String message) throws Exception {
+        time += 60;
+        PersonIdent ident = new PersonIdent(authorName, authorEmail, Instant.ofEpochSecond(time), ZoneOffset.UTC);
+        return git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+    }
+
+    @Override
+    public void close() {
+        git.close();
+    }
+}
@@ -1,15 +1,27 @@
 package org.jboss.historia.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -34,6 +46,282 @@ public class UntestedCommitDetectionStrategyTest {
 		assertTrue(found);
 	}
 	
+	/**
+	 * Verifies the analysis results on a small local repository, where the file updated in a pull request
+	 * is tested by another commit of the same pull request.
+	 */
+	@Test
+	public void testProcessingLocalRepository() throws Exception {
+		try (TestRepository repo = new TestRepository("strategy-local")) {
+			repo.commit("Initial import", "src/main/java/A.java", "class A {}", "src/main/java/B.java", "class B {}");
+			repo.checkout("feature", true);
+			repo.commit("Update A", "src/main/java/A.java", "class A { int a; }");
+			repo.commit("Test A", "src/test/java/ATest.java", "class ATest {}");
+			repo.checkout("master", false);
+			repo.merge("feature", "Merge pull request #1 from feature");
+			repo.commit("Update B", "src/main/java/B.java", "class B { int b; }");
+			repo.commit("Update B again", "src/main/java/B.java", "class B { int b; int c; }");
+			
+			UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+			List<UntestedCommitDetectionStrategy.FileUpdates> results = strategy.process(repo.getUri(),
+					"target/jgit/strategy-local-clone-" + System.nanoTime());
+			
+			assertEquals(2, results.size());
+			UntestedCommitDetectionStrategy.FileUpdates a = results.get(0);
+			assertEquals("src/main/java/A.java", a.getPath());
+			assertEquals(2, a.getUpdates());
+			assertEquals(1, a.getUntestedUpdates());
+			assertEquals(0, a.getUpdatesSinceLastTested());
+			UntestedCommitDetectionStrategy.FileUpdates b = results.get(1);
+			assertEquals("src/main/java/B.java", b.getPath());
+			assertEquals(3, b.getUpdates());
+			assertEquals(3, b.getUntestedUpdates());
+			assertEquals(3, b.getUpdatesSinceLastTested());
+		}
+	}
+	
+	/**
+	 * Verifies that the parallel analysis produces exactly the same output as the sequential one.
+	 */
+	@Test
+	public void testParallelProcessingOutput() throws Exception {
+		try (TestRepository repo = new TestRepository("strategy-parallel")) {
+			createSampleHistory(repo);
+			String clonePath = "target/jgit/strategy-parallel-clone-" + System.nanoTime();
+			
+			UntestedCommitDetectionStrategy sequential = new UntestedCommitDetectionStrategy("src/main/java");
+			StringWriter expected = new StringWriter();
+			sequential.process(repo.getUri(), clonePath, expected);
+			
+			UntestedCommitDetectionStrategy parallel = new UntestedCommitDetectionStrategy("src/main/java");
+			parallel.setParallelism(4);
+			StringWriter actual = new StringWriter();
+			parallel.process(repo.getUri(), clonePath, actual);
+			
+			assertEquals(expected.toString(), actual.toString());
+			assertEquals(31, expected.toString().split("\n").length);
+		}
+	}
+	
+	/**
+	 * Verifies that the streamed results come in the order of the files on HEAD, with any parallelism.
+	 */
+	@Test
+	public void testStreamingOutput() throws Exception {
+		try (TestRepository repo = new TestRepository("strategy-streaming")) {
+			createSampleHistory(repo);
+			String clonePath = "target/jgit/strategy-streaming-clone-" + System.nanoTime();
+			
+			List<String> expected = new ArrayList<>();
+			for (UntestedCommitDetectionStrategy.FileUpdates fu : new UntestedCommitDetectionStrategy("src/main/java").process(repo.getUri(), clonePath)) {
+				expected.add(fu.getPrefix() + fu.getPath() + " " + fu.getUntestedUpdates() + "/" + fu.getUpdates());
+			}
+			
+			for (int parallelism : new int[] { 1, 4 }) {
+				UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+				strategy.setParallelism(parallelism);
+				List<String> actual = new ArrayList<>();
+				strategy.process(repo.getUri(), clonePath, fu -> actual.add(fu.getPrefix() + fu.getPath() + " " + fu.getUntestedUpdates() + "/" + fu.getUpdates()));
+				assertEquals(expected, actual);
+			}
+			assertEquals(30, expected.size());
+		}
+	}
+	
+	/**
+	 * Verifies that the published results are only produced as requested, and that cancelling stops the analysis.
+	 */
+	@Test
+	public void testPublisherBackpressure() throws Exception {
+		try (TestRepository repo = new TestRepository("strategy-publisher")) {
+			createSampleHistory(repo);
+			String clonePath = "target/jgit/strategy-publisher-clone-" + System.nanoTime();
+			UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+			strategy.setParallelism(2);
+			
+			List<String> expected = new ArrayList<>();
+			for (UntestedCommitDetectionStrategy.FileUpdates fu : strategy.process(repo.getUri(), clonePath)) {
+				expected.add(fu.getPrefix() + fu.getPath());
+			}
+			
+			BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+			AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+			AtomicReference<Thread> publishing = new AtomicReference<>();
+			Flow.Subscriber<UntestedCommitDetectionStrategy.FileUpdates> subscriber = new Flow.Subscriber<>() {
+				@Override
+				public void onSubscribe(Flow.Subscription s) {
+					subscription.set(s);
+				}
+				
+				@Override
+				public void onNext(UntestedCommitDetectionStrategy.FileUpdates fu) {
+					publishing.set(Thread.currentThread());
+					signals.add(fu.getPrefix() + fu.getPath());
+				}
+				
+				@Override
+				public void onError(Throwable t) {
+					signals.add(t);
+				}
+				
+				@Override
+				public void onComplete() {
+					signals.add("complete");
+				}
+			};
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				strategy.publish(repo.getUri(), clonePath, executor).subscribe(subscriber);
+				// nothing is published before it is requested
+				assertNull(signals.poll(200, TimeUnit.MILLISECONDS));
+				subscription.get().request(1);
+				assertEquals(expected.get(0), signals.poll(30, TimeUnit.SECONDS));
+				assertNull(signals.poll(200, TimeUnit.MILLISECONDS));
+				subscription.get().request(expected.size());
+				for (int i = 1; i < expected.size(); i++) {
+					assertEquals(expected.get(i), signals.poll(30, TimeUnit.SECONDS));
+				}
+				assertEquals("complete", signals.poll(30, TimeUnit.SECONDS));
+				
+				// a new publisher, cancelled after two results
+				strategy.publish(repo.getUri(), clonePath, executor).subscribe(subscriber);
+				subscription.get().request(2);
+				assertEquals(expected.get(0), signals.poll(30, TimeUnit.SECONDS));
+				assertEquals(expected.get(1), signals.poll(30, TimeUnit.SECONDS));
+				subscription.get().cancel();
+				// the analysis stops without any further signal
+				executor.shutdown();
+				assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+				assertTrue(signals.isEmpty());
+				
+				// by default, the analysis runs on a daemon thread, which does not keep the JVM alive
+				strategy.publish(repo.getUri(), clonePath).subscribe(subscriber);
+				subscription.get().request(1);
+				assertEquals(expected.get(0), signals.poll(30, TimeUnit.SECONDS));
+				assertEquals("historia-analysis", publishing.get().getName());
+				assertTrue(publishing.get().isDaemon());
+				subscription.get().cancel();
+				publishing.get().join(30_000);
+				assertTrue(signals.isEmpty());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	/**
+	 * Verifies that a cancelled analysis stops while the history is still being walked, before the first result.
+	 */
+	@Test
+	public void testCancelledBeforeFirstResult() throws Exception {
+		try (SyntheticRepository repo = new SyntheticRepository("strategy-cancel", 5, 10, 200, 7)) {
+			String clonePath = "target/jgit/strategy-cancel-clone-" + System.nanoTime();
+			UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+			
+			// cancelled after a few commits of the first walk, with far more commits and files left
+			AtomicInteger checks = new AtomicInteger();
+			List<UntestedCommitDetectionStrategy.FileUpdates> results = new ArrayList<>();
+			try {
+				strategy.process(repo.getUri(), clonePath, results::add, () -> checks.incrementAndGet() > 10);
+				fail("The analysis was not cancelled");
+			} catch (CancellationException e) {
+				// expected
+			}
+			assertEquals(11, checks.get());
+			assertTrue(results.isEmpty());
+			
+			// a subscription cancelled before requesting anything ends the analysis without any signal
+			BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+			Flow.Subscriber<UntestedCommitDetectionStrategy.FileUpdates> subscriber = new Flow.Subscriber<>() {
+				@Override
+				public void onSubscribe(Flow.Subscription s) {
+					s.cancel();
+				}
+				
+				@Override
+				public void onNext(UntestedCommitDetectionStrategy.FileUpdates fu) {
+					signals.add(fu);
+				}
+				
+				@Override
+				public void onError(Throwable t) {
+					signals.add(t);
+				}
+				
+				@Override
+				public void onComplete() {
+					signals.add("complete");
+				}
+			};
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				strategy.publish(repo.getUri(), clonePath, executor).subscribe(subscriber);
+				executor.shutdown();
+				assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+				assertTrue(signals.isEmpty());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	/**
+	 * Verifies that following the mainline only gives the results of the pull request analysis on a merge based history,
+	 * where each pull request updates a file at most once.
+	 */
+	@Test
+	public void testFirstParentMatchesPullRequests() throws Exception {
+		try (TestRepository repo = new TestRepository("strategy-first-parent")) {
+			createSampleHistory(repo);
+			String clonePath = "target/jgit/strategy-first-parent-clone-" + System.nanoTime();
+			
+			List<String> expected = new ArrayList<>();
+			for (UntestedCommitDetectionStrategy.FileUpdates fu : new UntestedCommitDetectionStrategy("src/main/java").process(repo.getUri(), clonePath)) {
+				expected.add(fu.getPrefix() + fu.getPath() + " " + fu.getUntestedUpdates() + "/" + fu.getUpdates() + " " + fu.getUpdatesSinceLastTested());
+			}
+			
+			UntestedCommitDetectionStrategy strategy = new UntestedCommitDetectionStrategy("src/main/java");
+			strategy.setFirstParent(true);
+			List<String> actual = new ArrayList<>();
+			for (UntestedCommitDetectionStrategy.FileUpdates fu : strategy.process(repo.getUri(), clonePath)) {
+				actual.add(fu.getPrefix() + fu.getPath() + " " + fu.getUntestedUpdates() + "/" + fu.getUpdates() + " " + fu.getUpdatesSinceLastTested());
+			}
+			assertEquals(expected, actual);
+			
+			try (JGitUtils jgit = new JGitUtils(repo.getUri(), clonePath)) {
+				int commits = jgit.getHistoryIndex().getCommitCount();
+				jgit.setFirstParent(true);
+				// the initial import, the merges and the direct commits
+				assertEquals(13, jgit.getHistoryIndex().getCommitCount());
+				assertTrue(jgit.getHistoryIndex().getCommitCount() < commits);
+			}
+		}
+	}
+	
+	/**
+	 * Creates 30 source files updated by a mix of tested and untested pull requests and direct commits.
+	 */
+	static void createSampleHistory(TestRepository repo) throws Exception {
+		String[] initial = new String[60];
+		for (int i = 0; i < 30; i++) {
+			initial[2 * i] = "module" + (i % 3) + "/src/main/java/C" + i + ".java";
+			initial[2 * i + 1] = "class C" + i + " {}";
+		}
+		repo.commit("Initial import", initial);
+		for (int pr = 1; pr <= 6; pr++) {
+			repo.checkout("pr" + pr, true);
+			for (int i = pr; i < 30; i += pr + 1) {
+				repo.commit("Update C" + i, "module" + (i % 3) + "/src/main/java/C" + i + ".java", "class C" + i + " { int v" + pr + "; }");
+			}
+			if (pr % 2 == 0) {
+				repo.commit("Add tests", "module0/src/test/java/T" + pr + ".java", "class T" + pr + " {}");
+			}
+			repo.checkout("master", false);
+			repo.merge("pr" + pr, "Merge pull request #" + pr + " from pr" + pr);
+			repo.commit("Direct update " + pr, "module" + (pr * 4 % 3) + "/src/main/java/C" + (pr * 4) + ".java", "class C" + (pr * 4) + " { int d" + pr + "; }");
+		}
+	}
+	
 	/**
 	 * This test verifies that the implementation correctly identifies files as "tested"
 	 * when tests are added in a subsequent commit within the same pull request.
@@ -1,7 +1,5 @@
 package org.jboss.historia.web.controller;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -14,6 +12,8 @@ import javax.inject.Inject;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.SecurityContext;
 
+import org.jboss.historia.core.ResultTable;
+import org.jboss.historia.core.ResultWriter;
 import org.jboss.historia.web.model.AnalysisRequestDTO;
 import org.jboss.historia.web.model.RequestStatus;
 import org.jboss.historia.web.service.AnalysisService;
@@ -191,29 +191,19 @@ public class WebController {
         boolean resultHasMore = false;
         
         if (request.getStatus() == RequestStatus.COMPLETED) {
-            String resultContent = service.getResultFileContent(id);
-            if (resultContent != null) {
-                try (BufferedReader reader = new BufferedReader(new StringReader(resultContent))) {
-                    // Read headers
-                    String headerLine = reader.readLine();
-                    if (headerLine != null) {
-                        resultHeaders = List.of(headerLine.split(","));
-                        
-                        // Read up to 10 rows for preview
-                        resultPreview = new ArrayList<>();
-                        String line;
-                        int count = 0;
-                        while ((line = reader.readLine()) != null && count < 10) {
-                            resultPreview.add(List.of(line.split(",")));
-                            count++;
-                        }
-                        
-                        // Check if there are more rows
-                        resultHasMore = reader.readLine() != null;
-                    }
-                } catch (Exception e) {
-                    LOG.error("Error reading result file", e);
+            ResultTable table = service.getResultTable(id);
+            if (table != null) {
+                resultHeaders = ResultWriter.getHeader();
+                
+                // Read up to 10 rows for preview, only those are decoded
+                resultPreview = new ArrayList<>();
+                int count = Math.min(table.size(), 10);
+                for (int row = 0; row < count; row++) {
+                    resultPreview.add(table.getRow(row));
                 }
+                
+                // Check if there are more rows
+                resultHasMore = table.size() > count;
             }
         }
         
@@ -1,23 +1,30 @@
 package org.jboss.historia.web.rest;
 
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.jboss.historia.core.ResultTable;
 import org.jboss.historia.web.model.AnalysisRequestDTO;
 import org.jboss.historia.web.model.RequestStatus;
 import org.jboss.historia.web.service.AnalysisService;
@@ -190,9 +197,12 @@ public class AnalysisRequestResource {
     }
     
     /**
-     * Get the result of an analysis request.
+     * Get the result of an analysis request, or of a range of its rows.
      * 
      * @param id The ID of the request
+     * @param module The module of the rows (optional)
+     * @param offset The first row, in the module if any (optional)
+     * @param limit The maximum number of rows (optional)
      * @param securityContext The security context
      * @return The result as CSV, or 404 if not found, 403 if not authorized, 400 if not completed
      */
@@ -200,7 +210,11 @@ public class AnalysisRequestResource {
     @Path("/{id}/result")
     @Produces("text/csv")
     @RolesAllowed({"user", "admin"})
-    public Response getRequestResult(@PathParam("id") Long id, @Context SecurityContext securityContext) {
+    public Response getRequestResult(@PathParam("id") Long id,
+                                   @QueryParam("module") String module,
+                                   @QueryParam("offset") @DefaultValue("0") int offset,
+                                   @QueryParam("limit") @DefaultValue("2147483647") int limit,
+                                   @Context SecurityContext securityContext) {
         AnalysisRequestDTO request = service.getRequestDTOById(id);
         
         if (request == null) {
@@ -221,15 +235,26 @@ public class AnalysisRequestResource {
                     .build();
         }
         
-        // Get the result
-        String result = service.getResultFileContent(id);
+        // Get the result table, the requested rows are exported as they are streamed
+        ResultTable table = service.getResultTable(id);
         
-        if (result == null) {
+        if (table == null) {
             return Response.status(Status.NOT_FOUND)
                     .entity("Result file not found")
                     .build();
         }
         
+        if (module != null && table.findModule(module) < 0) {
+            return Response.status(Status.NOT_FOUND)
+                    .entity("Module not found")
+                    .build();
+        }
+        
+        StreamingOutput result = output -> {
+            Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+            service.exportResult(table, module, offset, limit, writer);
+        };
+        
         return Response.ok(result)
                 .header("Content-Disposition", "attachment; filename=\"analysis-" + id + ".csv\"")
                 .build();
@@ -1,13 +1,17 @@
 package org.jboss.historia.web.service;
 
-import java.io.BufferedWriter;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -17,6 +21,11 @@ import javax.inject.Inject;
 import javax.transaction.Transactional;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.historia.core.PullRequestIdRules;
+import org.jboss.historia.core.ResultTable;
+import org.jboss.historia.core.ResultTableWriter;
+import org.jboss.historia.core.ResultWriter;
+import org.jboss.historia.core.TestPathFilter;
 import org.jboss.historia.core.UntestedCommitDetectionStrategy;
 import org.jboss.historia.web.model.AnalysisRequest;
 import org.jboss.historia.web.model.AnalysisRequestDTO;
@@ -34,6 +43,9 @@ public class AnalysisService {
     
     private static final Logger LOG = Logger.getLogger(AnalysisService.class);
     
+    // The suffix of the result files written as CSV, before the result tables
+    private static final String LEGACY_RESULT_SUFFIX = ".csv";
+    
     @Inject
     AnalysisRequestRepository repository;
     
@@ -43,6 +55,39 @@ public class AnalysisService {
     @ConfigProperty(name = "historia.max.concurrent.analyses", defaultValue = "2")
     int maxConcurrentAnalyses;
     
+    @ConfigProperty(name = "historia.analysis.workers", defaultValue = "1")
+    int analysisWorkers;
+    
+    @ConfigProperty(name = "historia.analysis.incremental", defaultValue = "false")
+    boolean analysisIncremental;
+    
+    @ConfigProperty(name = "historia.analysis.refresh", defaultValue = "false")
+    boolean analysisRefresh;
+    
+    @ConfigProperty(name = "historia.analysis.bare", defaultValue = "false")
+    boolean analysisBare;
+    
+    @ConfigProperty(name = "historia.analysis.commit-graph", defaultValue = "false")
+    boolean analysisCommitGraph;
+    
+    @ConfigProperty(name = "historia.analysis.pull-request-id-rules", defaultValue = "default")
+    String analysisPullRequestIdRules;
+    
+    @ConfigProperty(name = "historia.analysis.test-paths", defaultValue = "**src/test**")
+    String analysisTestPaths;
+    
+    @ConfigProperty(name = "historia.analysis.since")
+    Optional<String> analysisSince;
+    
+    @ConfigProperty(name = "historia.analysis.until")
+    Optional<String> analysisUntil;
+    
+    @ConfigProperty(name = "historia.analysis.ref-range")
+    Optional<String> analysisRefRange;
+    
+    @ConfigProperty(name = "historia.analysis.first-parent", defaultValue = "false")
+    boolean analysisFirstParent;
+    
     private final AtomicInteger activeProcesses = new AtomicInteger(0);
     
     /**
@@ -203,9 +248,9 @@ public class AnalysisService {
                 Files.createDirectories(resultsPath);
             }
             
-            // Create a unique output file path
+            // Create a unique output file path, for a result table
             String outputFileName = "analysis-" + requestId + "-" + 
-                                   System.currentTimeMillis() + ".csv";
+                                   System.currentTimeMillis() + ".results";
             String outputFilePath = Paths.get(resultsDirectory, outputFileName).toString();
             
             // Run the analysis asynchronously
@@ -267,16 +312,26 @@ public class AnalysisService {
         // Use the core module to run the analysis
         UntestedCommitDetectionStrategy strategy = 
             new UntestedCommitDetectionStrategy(request.getPathFilter());
+        strategy.setParallelism(analysisWorkers);
+        strategy.setIncremental(analysisIncremental);
+        strategy.setRefresh(analysisRefresh);
+        strategy.setBare(analysisBare);
+        strategy.setCommitGraph(analysisCommitGraph);
+        strategy.setPullRequestIdRules(PullRequestIdRules.parse(analysisPullRequestIdRules));
+        strategy.setTestPathFilter(TestPathFilter.parse(analysisTestPaths));
+        strategy.setSince(analysisSince.map(UntestedCommitDetectionStrategy::parseTime).orElse(null));
+        strategy.setUntil(analysisUntil.map(UntestedCommitDetectionStrategy::parseTime).orElse(null));
+        strategy.setRefRange(analysisRefRange.orElse(null));
+        strategy.setFirstParent(analysisFirstParent);
             
-        try (FileWriter writer = new FileWriter(outputFilePath);
-             BufferedWriter bw = new BufferedWriter(writer)) {
-            
-            strategy.process(
-                request.getGitRepoUrl(),
-                request.getLocalRepoCloneUri(),
-                bw
-            );
-        }
+        // The results are stored in columns, the CSV is exported from them on demand
+        ResultTableWriter table = new ResultTableWriter();
+        strategy.process(
+            request.getGitRepoUrl(),
+            request.getLocalRepoCloneUri(),
+            table
+        );
+        table.write(new File(outputFilePath));
         
         LOG.info("Analysis completed for request: " + request.getId());
     }
@@ -356,20 +411,123 @@ public class AnalysisService {
     }
     
     /**
-     * Get the content of a result file.
+     * Get the content of a result file, as CSV.
      * 
      * @param requestId The ID of the request
      * @return The content of the result file, or null if not found
      */
     public String getResultFileContent(Long requestId) {
+        ResultTable table = getResultTable(requestId);
+        if (table == null) {
+            return null;
+        }
+        StringWriter content = new StringWriter();
+        try {
+            exportResult(table, null, 0, Integer.MAX_VALUE, content);
+        } catch (IOException e) {
+            LOG.error("Failed to export the result of request: " + requestId, e);
+            return null;
+        }
+        return content.toString();
+    }
+    
+    /**
+     * Get the result table of a request, mapped in memory.
+     * 
+     * @param requestId The ID of the request
+     * @return The result table, or null if not found
+     */
+    public ResultTable getResultTable(Long requestId) {
         AnalysisRequest request = repository.findById(requestId);
         if (request != null && request.getResultFilePath() != null) {
             try {
-                return Files.readString(Paths.get(request.getResultFilePath()));
+                String resultFilePath = request.getResultFilePath();
+                // The analyses completed before the result tables stored a CSV
+                if (resultFilePath.endsWith(LEGACY_RESULT_SUFFIX)) {
+                    resultFilePath = migrateResult(requestId, resultFilePath);
+                }
+                return ResultTable.open(new File(resultFilePath));
             } catch (Exception e) {
                 LOG.error("Failed to read result file: " + request.getResultFilePath(), e);
             }
         }
         return null;
     }
+    
+    /**
+     * Convert a CSV result file into a result table next to it, and record the table as the result of
+     * the request. The CSV is only deleted once the request refers to the table.
+     * 
+     * @param requestId The ID of the request
+     * @param csvFilePath The path to the CSV result file
+     * @return The path to the result table
+     * @throws IOException If the CSV cannot be read or the table cannot be written
+     */
+    private synchronized String migrateResult(Long requestId, String csvFilePath) throws IOException {
+        String tableFilePath = csvFilePath.substring(0, csvFilePath.length() - LEGACY_RESULT_SUFFIX.length()) + ".results";
+        File csvFile = new File(csvFilePath);
+        if (!csvFile.exists() && new File(tableFilePath).exists()) {
+            // Migrated by a concurrent call
+            return tableFilePath;
+        }
+        
+        // The CSV was written with the default charset
+        ResultTableWriter table = new ResultTableWriter();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
+            table.addCsv(reader);
+        }
+        table.write(new File(tableFilePath));
+        updateResultFilePath(requestId, tableFilePath);
+        Files.deleteIfExists(csvFile.toPath());
+        
+        LOG.info("Migrated result file of request " + requestId + " to a result table: " + tableFilePath);
+        return tableFilePath;
+    }
+    
+    /**
+     * Update the result file of a request.
+     * 
+     * @param requestId The ID of the request
+     * @param resultFilePath The path to the result file
+     */
+    @Transactional
+    public void updateResultFilePath(Long requestId, String resultFilePath) {
+        AnalysisRequest request = repository.findById(requestId);
+        if (request != null) {
+            request.setResultFilePath(resultFilePath);
+            repository.persist(request);
+        }
+    }
+    
+    /**
+     * Export rows of a result table as CSV, with a header.
+     * Only the requested rows are read, whatever their position in the table.
+     * 
+     * @param table The result table
+     * @param module The module of the rows, or null for all the modules
+     * @param offset The first row, in the module if any
+     * @param limit The maximum number of rows
+     * @param writer The writer of the CSV, flushed
+     * @return false if the table has no row of the module
+     * @throws IOException If the CSV cannot be written
+     */
+    public boolean exportResult(ResultTable table, String module, int offset, int limit, Writer writer) throws IOException {
+        int from = 0;
+        int to = table.size();
+        if (module != null) {
+            int m = table.findModule(module);
+            if (m < 0) {
+                return false;
+            }
+            from = table.getModuleStart(m);
+            to = table.getModuleEnd(m);
+        }
+        from = (int) Math.min((long) from + Math.max(offset, 0), to);
+        to = (int) Math.min((long) from + Math.max(limit, 0), to);
+        ResultWriter out = new ResultWriter(writer);
+        out.writeHeader();
+        table.export(from, to, out);
+        out.flush();
+        return true;
+    }
 }